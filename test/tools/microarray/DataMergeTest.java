@@ -0,0 +1,114 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+
+package tools.microarray;
+
+import java.util.*;
+
+/*
+ * Checks of Data.mergeData on rows of b with a null id : the baseline
+ * HashMap kept them under the null key, so a union keeps them and a
+ * null id of a matches them. Run with "ant test".
+ */
+public class DataMergeTest {
+
+  static GeneData row(String id, String name, String v) {
+    Object[] obj = { id, name, v };
+    return new GeneData(obj);
+  }
+
+  static Data data(GeneData[] rows) {
+    return new Data(1, rows.length - 1, 1, 2, rows);
+  }
+
+  static void check(boolean cond, String msg) {
+    if (!cond) {
+      throw new RuntimeException("DataMergeTest : " + msg);
+    }
+  }
+
+  static String text(Data d) {
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < d.getNumRows(); i++) {
+      sb.append(d.getGeneData(i).toString());
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) {
+    Data a = data(new GeneData[] {
+      row("ID", "Name", "a0"),
+      row("g1", "n1", "1"),
+      row("g2", "n2", "2"),
+    });
+    Data b = data(new GeneData[] {
+      row("ID", "Name", "b0"),
+      row("g2", "m2", "20"),
+      row(null, "m9", "90"),
+      row("g3", "m3", "30"),
+    });
+
+    // Union : the null id row of b is a leftover like g3
+    Data u = Data.unionData(a, b);
+    check(u.getNumGenes() == 4, "union has " + u.getNumGenes() + " genes");
+    String t = text(u);
+    check(t.indexOf(" \tm9\t \t90\n") >= 0, "null id row of b lost :\n" + t);
+    check(t.indexOf("g3\tm3\t \t30\n") >= 0, "g3 of b lost :\n" + t);
+    check(t.indexOf("g2\tn2\t2\t20\n") >= 0, "g2 not merged :\n" + t);
+
+    // Intersection : a null id of a matches the null id row of b
+    Data c = data(new GeneData[] {
+      row("ID", "Name", "c0"),
+      row(null, "n9", "9"),
+      row("g1", "n1", "1"),
+    });
+    Data i = Data.intersectData(c, b);
+    t = text(i);
+    check(i.getNumGenes() == 1, "intersect has " + i.getNumGenes() +
+        " genes :\n" + t);
+    check(t.indexOf(" \tn9\t9\t90\n") >= 0, "null ids not joined :\n" + t);
+
+    System.out.println("DataMergeTest passed");
+  }
+
+};
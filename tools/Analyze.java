@@ -42,9 +42,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package tools;
 
 import tools.microarray.Data;
+import tools.microarray.GeneData;
 import tools.microarray.FileReader.PCLFileReader;
 import tools.microarray.FileWriter.PCLFileWriter;
 import tools.microarray.StepMiner.StepMiner;
+import tools.microarray.StepMiner.StepMinerStream;
+import tools.microarray.StepMiner.FisherTable;
+import tools.microarray.StepMiner.KStep;
+import tools.microarray.StepMiner.StepMinerState;
 import tools.microarray.ArrayOrder;
 import tools.microarray.Impute;
 import java.io.*;
@@ -59,6 +64,7 @@ public class Analyze {
     String out = 
       "Usage: tools.Analyze [-d/--debug] <filename>\n" +
       "                     [-r/--reduceLog] <filename>\n" +
+      "                     [--float] [--offheap] [options] <filename>\n" +
       "                     --gui [<filename>]\n" +
       "                     [options] <filename>\n" +
       "Options:                                 \n" +
@@ -68,7 +74,7 @@ public class Analyze {
       "       [-o/--outfile [<tag>:]<file.ps>] [-o/--outfile <file.png>]\n" +
       "       Example tags: All, Step, Up, Down, UpDown, DownUp, Rest\n" +
       "       [-t/--type <type>]\n" +
-      "             <type> : OneStep, OneStepFdr, Fdr, \n" +
+      "             <type> : OneStep, OneStepFdr, Fdr, KStep,\n" +
       "                      Order, Subset, ZeroCenter, MeanCenter, \n" +
       "                      None, ListGenes, Normalize,\n" +
       "                      KNNimpute, LLSimpute\n" +
@@ -88,6 +94,25 @@ public class Analyze {
       "       [--SelectOrder <file>] select ids with given order\n" +
       "       [--Diff <file>]\n" +
       "       [--SelectNames <file>] select names with original order\n" +
+      "       [--float] keep values as float32 (half the memory,\n" +
+      "                 results agree to ~1e-7 relative)\n" +
+      "       [--offheap] keep values in direct memory or a mapped\n" +
+      "                   temporary file, off the Java heap\n" +
+      "       [--threads <n>] threads used to fit the steps and Fdr\n" +
+      "       [--batch <n>] genes fitted together (0 : one by one)\n" +
+      "       [--maxSteps <n>] most steps of -t KStep (3), the .ano\n" +
+      "                        has columns step1 ... step<n>\n" +
+      "       [--pelt <penalty>] KStep steps by PELT with the penalty\n" +
+      "                          x sigma^2 x log(n) per step (0 : off)\n" +
+      "       [--ptable] step p-values from F tables (error < 1e-9,\n" +
+      "                  exact near the p-value threshold)\n" +
+      "       [--stream <n>] StepMiner on chunks of n genes, only\n" +
+      "                      .ano and .pcl outputs (0 : whole file)\n" +
+      "       [--state <file>] save the step search in file and start\n" +
+      "                        from it when it exists (timepoints\n" +
+      "                        appended since the last run);\n" +
+      "                        uses --threads but not --batch,\n" +
+      "                        Fdr permutations are fitted in full\n" +
       "                                         \n";
     System.err.print(out);
   }  
@@ -107,10 +132,64 @@ public class Analyze {
     System.out.println(":"+gene+":");
   }
 
+  public static boolean isStepMinerType(String type) {
+    return !(type.startsWith("Order") || type.equals("Subset") ||
+          type.equals("ZeroCenter") || type.equals("MeanCenter") ||
+          type.equals("None") || type.equals("ListGenes") ||
+          type.equals("Normalize") || type.equals("KNNimpute") || 
+          type.equals("LLSimpute"));
+  }
+
+  /*
+   * StepMiner analysis on chunks of the file (--stream)
+   */
+  public static void runStepMinerStream(String file, String type,
+      Double pvalue, Vector outFiles, GeneNameScheme ns, String range) 
+    throws Exception {
+    StepMinerStream sm = new StepMinerStream(file, ns, range,
+        StepMinerStream.CHUNK_SIZE);
+    if (type.startsWith("OneStep")) {
+      sm.setOneStepAnalysis();
+    }
+    if (type.startsWith("KStep")) {
+      sm.setKStepAnalysis();
+    }
+    if (type.startsWith("OneStepFdr")) {
+      sm.setFdrAnalysis(true);
+    }
+    if (type.startsWith("Fdr")) {
+      sm.setFdrAnalysis(true);
+    }
+    if (type.contains("NoCentering")) {
+      sm.setStepCentering(false);
+    }
+    else {
+      sm.setStepCentering(true);
+    }
+    sm.setPvalueThr(pvalue.doubleValue());
+    if (StepMinerState.FILE != null) {
+      System.err.println(" *Warning* --state is not supported with --stream");
+    }
+    Enumeration e = outFiles.elements();
+    while (e.hasMoreElements()) {
+      String f = (String) e.nextElement();
+      if (!sm.addOutputFile(f)) {
+        System.err.println(" *Warning* " + f + 
+            " is not supported with --stream");
+      }
+    }
+    sm.performAnalysis();
+  }
+
   public static void runStepMiner(String file, String type, Double pvalue,
     Vector outFiles, GeneNameScheme ns, Double goPvalue, String range) {
     try {
-      Data data = PCLFileReader.readFile(file);
+      if (StepMinerStream.CHUNK_SIZE > 0 && isStepMinerType(type)) {
+        runStepMinerStream(file, type, pvalue, outFiles, ns, range);
+        return;
+      }
+      Data data = PCLFileReader.readFile(file,
+          GeneData.FLOAT_STORAGE || GeneData.OFF_HEAP);
       data.setGeneNameScheme(ns);
       data.setRange(range);
       data.convertDoubles();
@@ -180,6 +259,9 @@ public class Analyze {
         if (type.startsWith("OneStep")) {
           sm.setOneStepAnalysis();
         }
+        if (type.startsWith("KStep")) {
+          sm.setKStepAnalysis();
+        }
         if (type.startsWith("OneStepFdr")) {
           sm.setFdrAnalysis(true);
         }
@@ -194,7 +276,19 @@ public class Analyze {
         }
         sm.setDeleteGenesInMultipleGroups(false);
         sm.setPvalueThr(pvalue.doubleValue());
+        String stateFile = StepMinerState.FILE;
+        if (stateFile != null) {
+          if (new File(stateFile).exists()) {
+            sm.setState(StepMinerState.read(stateFile));
+          }
+          else {
+            sm.setState(null);
+          }
+        }
         sm.performAnalysis();
+        if (stateFile != null && sm.getState() != null) {
+          sm.getState().write(stateFile);
+        }
         Enumeration e = outFiles.elements();
         while (e.hasMoreElements()) {
           String f = (String) e.nextElement();
@@ -262,6 +356,15 @@ public class Analyze {
     CmdLineParser.Option diff0 = parser.addStringOption("Diff");
     CmdLineParser.Option selectNames0 = parser.addStringOption("SelectNames");
     CmdLineParser.Option gui0 = parser.addBooleanOption("gui");
+    CmdLineParser.Option float0 = parser.addBooleanOption("float");
+    CmdLineParser.Option offheap0 = parser.addBooleanOption("offheap");
+    CmdLineParser.Option threads0 = parser.addIntegerOption("threads");
+    CmdLineParser.Option batch0 = parser.addIntegerOption("batch");
+    CmdLineParser.Option stream0 = parser.addIntegerOption("stream");
+    CmdLineParser.Option ptable0 = parser.addBooleanOption("ptable");
+    CmdLineParser.Option maxSteps0 = parser.addIntegerOption("maxSteps");
+    CmdLineParser.Option pelt0 = parser.addDoubleOption("pelt");
+    CmdLineParser.Option state0 = parser.addStringOption("state");
 
     try {
       parser.parse(args);
@@ -292,6 +395,27 @@ public class Analyze {
     String diffFile =(String)parser.getOptionValue(diff0,null);
     String selectNamesFile =(String)parser.getOptionValue(selectNames0,null);
     Boolean gui =(Boolean)parser.getOptionValue(gui0, Boolean.FALSE);
+    Boolean floatStorage =(Boolean)parser.getOptionValue(float0, Boolean.FALSE);
+    GeneData.FLOAT_STORAGE = floatStorage.booleanValue();
+    Boolean offHeap =(Boolean)parser.getOptionValue(offheap0, Boolean.FALSE);
+    GeneData.OFF_HEAP = offHeap.booleanValue();
+    Integer threads =(Integer)parser.getOptionValue(threads0,new Integer(1));
+    StepMiner.NUM_THREADS = threads.intValue();
+    Integer batch =(Integer)parser.getOptionValue(batch0,
+        new Integer(StepMiner.BATCH_SIZE));
+    StepMiner.BATCH_SIZE = batch.intValue();
+    Integer stream =(Integer)parser.getOptionValue(stream0,
+        new Integer(StepMinerStream.CHUNK_SIZE));
+    StepMinerStream.CHUNK_SIZE = stream.intValue();
+    Boolean ptable = (Boolean)parser.getOptionValue(ptable0, Boolean.FALSE);
+    FisherTable.ENABLED = ptable.booleanValue();
+    Integer maxSteps =(Integer)parser.getOptionValue(maxSteps0,
+        new Integer(KStep.MAX_STEPS));
+    KStep.MAX_STEPS = maxSteps.intValue();
+    Double pelt =(Double)parser.getOptionValue(pelt0,
+        new Double(KStep.PENALTY));
+    KStep.PENALTY = pelt.doubleValue();
+    StepMinerState.FILE = (String)parser.getOptionValue(state0, null);
 
     Vector outFiles = parser.getOptionValues(out0);
 
@@ -314,7 +438,8 @@ public class Analyze {
 
       if (logreduce.booleanValue()) {
         System.out.println("Log Reducing data ...");
-        Data data = PCLFileReader.readFile(otherArgs[0]);
+        Data data = PCLFileReader.readFile(otherArgs[0],
+            GeneData.FLOAT_STORAGE || GeneData.OFF_HEAP);
         data.reduceLog();
         Enumeration e = outFiles.elements();
         while (e.hasMoreElements()) {
@@ -347,7 +472,7 @@ public class Analyze {
         Data data2 = PCLFileReader.readFile(selectFile);
         data1.setRange(range);
         data2.setRange(range);
-        Data data = Data.mergeData(data1, data2, true, true);
+        Data data = Data.intersectDataSelect(data1, data2);
         Enumeration e = outFiles.elements();
         while (e.hasMoreElements()) {
           String file = (String) e.nextElement();
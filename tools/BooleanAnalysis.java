@@ -408,80 +408,95 @@ public class BooleanAnalysis {
     out_.writeList("balanced", balanced_);
   }
 
+  /*
+   * Bit vectors of the rows [start, start+size) : {values, thresholds}
+   */
+  public BitSet[][] loadBlock(long start, int size) throws IOException {
+    BitSet[][] res = new BitSet[2][size];
+    for (int i = 0; i < size; i++) {
+      GeneData ga = reader_.getDataAt(start + i);
+      if (ga == null) {
+        break;
+      }
+      BitSet va = BitSetUtils.stringToBitSet((String) ga.getDataAt(2), 0);
+      BitSet va_thr = BitSetUtils.stringToBitSet((String) ga.getDataAt(2), 1);
+      res[0][i] = setPhenotype(va);
+      res[1][i] = setPhenotype(va_thr);
+    }
+    return res;
+  }
+
+  /*
+   * Blocks are read ahead in a background thread (BlockPrefetcher)
+   * in the same order as the loops below consume them.
+   */
   public void performBlockAnalysis() throws IOException {
     out_.startMatrix(balanced_.size(), 3);
-    GeneData gb1 = reader_.getDataAt(0);
-    for (int b1 = 0;  gb1 != null; b1+=blocksize_) {
-      BitSet[] ba1 = new BitSet[blocksize_];
-      BitSet[] ba1_thr = new BitSet[blocksize_];
-      GeneData ga = reader_.getDataAt(b1);
-      for (int i = b1; ga != null && i < (b1+blocksize_); i++) {
-        ga = reader_.getDataAt(i);
-        if (ga == null) {
-            break;
-        }
-        BitSet va = BitSetUtils.stringToBitSet((String) ga.getDataAt(2), 0);
-        BitSet va_thr = BitSetUtils.stringToBitSet((String) ga.getDataAt(2), 1);
-        va = setPhenotype(va);
-        va_thr = setPhenotype(va_thr);
-        ba1[i-b1] = va;
-        ba1_thr[i-b1] = va_thr;
-      }
-      int start = b1;
-      GeneData gb2 = reader_.getDataAt(start);
-      for (int b2 = start;  gb2 != null; b2+=blocksize_) {
-        System.out.println("Block = (" + b1 + ", " + b2 + ")");
-        BitSet[] ba2 = new BitSet[blocksize_];
-        BitSet[] ba2_thr = new BitSet[blocksize_];
-        GeneData gb = reader_.getDataAt(b2);
-        for (int i = b2; gb != null && i < (b2+blocksize_); i++) {
-          gb = reader_.getDataAt(i);
-          if (gb == null) {
-            break;
+    long numLines = reader_.getNumLines();
+    int numBlocks = (int) ((numLines + blocksize_ - 1) / blocksize_);
+    long[] order = new long[numBlocks + numBlocks * (numBlocks + 1) / 2];
+    int k = 0;
+    for (int b1 = 0; b1 < numBlocks; b1++) {
+      order[k++] = ((long) b1) * blocksize_;
+      for (int b2 = b1; b2 < numBlocks; b2++) {
+        order[k++] = ((long) b2) * blocksize_;
+      }
+    }
+    BlockPrefetcher<BitSet[][]> prefetcher = new BlockPrefetcher<BitSet[][]>(
+        new BlockPrefetcher.Loader<BitSet[][]>() {
+          public BitSet[][] load(long start, int size) throws IOException {
+            return loadBlock(start, size);
           }
-          BitSet vb = BitSetUtils.stringToBitSet((String) gb.getDataAt(2), 0);
-          BitSet vb_thr = BitSetUtils.stringToBitSet((String) gb.getDataAt(2), 1);
-          vb = setPhenotype(vb);
-          vb_thr = setPhenotype(vb_thr);
-          ba2[i-b2] = vb;
-          ba2_thr[i-b2] = vb_thr;
-        }
-        BitSet va = ba1[0];
-        for (int i = b1; va != null && i < (b1+blocksize_); i++) {
-          System.out.println(i);
-          va = ba1[i-b1];
-          BitSet va_thr = ba1_thr[i-b1];
-          if (!haveGoodDynamicRange(va_thr) || 
-              !balanced_map_.containsKey(new Integer(i))) {
-            if (i < (b1-1 +blocksize_)) {
-              va = ba1[i+1-b1];
+        }, order, blocksize_);
+    try {
+      for (int b1 = 0;  b1 < numLines; b1+=blocksize_) {
+        BitSet[][] block1 = prefetcher.next();
+        BitSet[] ba1 = block1[0];
+        BitSet[] ba1_thr = block1[1];
+        int start = b1;
+        for (int b2 = start;  b2 < numLines; b2+=blocksize_) {
+          System.out.println("Block = (" + b1 + ", " + b2 + ")");
+          BitSet[][] block2 = prefetcher.next();
+          BitSet[] ba2 = block2[0];
+          BitSet[] ba2_thr = block2[1];
+          BitSet va = ba1[0];
+          for (int i = b1; va != null && i < (b1+blocksize_); i++) {
+            System.out.println(i);
+            va = ba1[i-b1];
+            BitSet va_thr = ba1_thr[i-b1];
+            if (!haveGoodDynamicRange(va_thr) || 
+                !balanced_map_.containsKey(new Integer(i))) {
+              if (i < (b1-1 +blocksize_)) {
+                va = ba1[i+1-b1];
+              }
+              continue;
             }
-            continue;
-          }
-          BitSet vb = ba2[0];
-          for (int j = b2; vb != null && j < (b2 + blocksize_); j++) {
-            vb = ba2[j-b2];
-            BitSet vb_thr = ba2_thr[j-b2];
-            if (!haveGoodDynamicRange(vb_thr) || (j <= i) ||
-                !balanced_map_.containsKey(new Integer(j))) {
+            BitSet vb = ba2[0];
+            for (int j = b2; vb != null && j < (b2 + blocksize_); j++) {
+              vb = ba2[j-b2];
+              BitSet vb_thr = ba2_thr[j-b2];
+              if (!haveGoodDynamicRange(vb_thr) || (j <= i) ||
+                  !balanced_map_.containsKey(new Integer(j))) {
+                if (j < (b2 -1 + blocksize_)) {
+                  vb = ba2[j+1-b2];
+                }
+                continue;
+              }
+              performSinglePairAnalysis(i, j, va, va_thr, vb, vb_thr, 0);
               if (j < (b2 -1 + blocksize_)) {
                 vb = ba2[j+1-b2];
               }
-              continue;
             }
-            performSinglePairAnalysis(i, j, va, va_thr, vb, vb_thr, 0);
-            if (j < (b2 -1 + blocksize_)) {
-              vb = ba2[j+1-b2];
+            if (i < (b1-1 +blocksize_)) {
+              va = ba1[i+1-b1];
             }
-          }
-          if (i < (b1-1 +blocksize_)) {
-            va = ba1[i+1-b1];
-          }
-        } // end ga
-        gb2 = reader_.getDataAt(b2+blocksize_);
-      } // end gb2
-      gb1 = reader_.getDataAt(b1+blocksize_);
-    } // end gb1
+          } // end ga
+        } // end gb2
+      } // end gb1
+    }
+    finally {
+      prefetcher.close();
+    }
   }
 
   public double[] getErrorProbStats(
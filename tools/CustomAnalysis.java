@@ -52,6 +52,9 @@ import tools.microarray.FileReader.*;
 import tools.microarray.FileWriter.*;
 
 import tools.algorithm.Bimodal;
+import tools.algorithm.BimodalThreshold;
+import tools.algorithm.BimodalSketch;
+import tools.algorithm.QuantileSketch;
 
 import tools.graphs.*;
 import tools.io.*;
@@ -96,6 +99,38 @@ public class CustomAnalysis {
     return res;
   }
 
+  /* Same as above on primitive rows, NaN = missing */
+  public static double getCorrelation(double[] v1, double[] v2) {
+    double sum_xy = 0, sum_x = 0, sum_y = 0, sum_sqx = 0, sum_sqy = 0;
+    int count = 0;
+    double res =0;
+    int length = v1.length;
+    if (length > v2.length) {
+      length = v2.length;
+    }
+    for (int i =0; i <length; i++) {
+      double x = v1[i];
+      double y = v2[i];
+      if (!Double.isNaN(x) && !Double.isNaN(y)) {
+        count ++;
+        sum_xy += x * y;
+        sum_x += x;
+        sum_y += y;
+        sum_sqx += x * x;
+        sum_sqy += y * y;
+      }
+    }
+    if (count != 0) {
+      res = (sum_xy - 1.0/count * sum_x * sum_y)/
+        Math.sqrt(sum_sqx - 1.0/count * sum_x * sum_x)/
+        Math.sqrt(sum_sqy - 1.0/count * sum_y * sum_y);
+    }
+    if (Double.isNaN(res)) {
+      res = 0.0;
+    }
+    return res;
+  }
+
   public static double max(Double[] val) {
     double max = Double.MIN_VALUE;
     for (int i = 0; i < val.length; i++) {
@@ -805,7 +840,7 @@ public class CustomAnalysis {
         double gap = Double.parseDouble(list.removeFirst());
         Bimodal.GAP_LENGTH = gap;
     }
-    Data data1 = PCLFileReader.readFile(file1);
+    Data data1 = PCLFileReader.readFile(file1, true);
 
     Bimodal[] b = new Bimodal[data1.getNumGenes()];
     for (int i = data1.getNumGeneHeader(); i < data1.getNumRows(); i++) {
@@ -816,14 +851,18 @@ public class CustomAnalysis {
       b[i - data1.getNumGeneHeader()] = new Bimodal(v);
     }
 
-    BufferedWriter out = new BufferedWriter(new FileWriter(ofile));
+    NumberWriter out = new NumberWriter(ofile);
     for (int i = data1.getNumGeneHeader(); i < data1.getNumRows(); i++) {
       int i1 = i - data1.getNumGeneHeader();
       double thr1 = b[i1].getThreshold();
       double lowthr1 = b[i1].getLowThreshold();
       double highthr1 = b[i1].getHighThreshold();
       double st = b[i1].getStatistic();
-      out.write(i + "\t" + thr1 + "\t" + st + "\t" + lowthr1 + "\t" + highthr1 + "\n");
+      out.write(i); out.tab();
+      out.write(thr1); out.tab();
+      out.write(st); out.tab();
+      out.write(lowthr1); out.tab();
+      out.write(highthr1); out.newline();
     }
     out.close();
 
@@ -832,6 +871,7 @@ public class CustomAnalysis {
   /*
    *  Streamline the PCL file reading.
    *        Memory efficient version of the above function
+   *        (BimodalThreshold : primitive rows on NUM_THREADS threads)
    */
   public static void writeThreshold1(LinkedList<String> list) throws Exception {
     String ofile = list.removeFirst();
@@ -840,28 +880,7 @@ public class CustomAnalysis {
         double gap = Double.parseDouble(list.removeFirst());
         Bimodal.GAP_LENGTH = gap;
     }
-    PCLFileReader data1 = new PCLFileReader(file1);
-    data1.begin();
-    BufferedWriter out = new BufferedWriter(new FileWriter(ofile));
-    while (data1.hasNext()) {
-      int start = data1.getNumArrayHeader();
-      int end = data1.getNumColumns() - 1;
-      long lineno = data1.getLineNumber();
-      GeneData gene = data1.getData();
-      // gene.print();
-      if (gene == null) {
-        break;
-      }
-      Double[] v= gene.getVector(start, end);
-      Bimodal b = new Bimodal(v);
-      double thr1 = b.getThreshold();
-      double lowthr1 = b.getLowThreshold();
-      double highthr1 = b.getHighThreshold();
-      double st = b.getStatistic();
-      out.write(lineno + "\t" + thr1 + "\t" + st + "\t" + lowthr1 + "\t" + highthr1 + "\n");
-    }
-    out.close();
-
+    BimodalThreshold.writeThresholds(ofile, file1, NUM_THREADS);
   }
 
   /*
@@ -877,10 +896,10 @@ public class CustomAnalysis {
     }
     PCLFileReader data1 = new PCLFileReader(file1);
     data1.begin();
-    BufferedWriter out = new BufferedWriter(new FileWriter(ofile));
+    NumberWriter out = new NumberWriter(ofile);
     GeneData gene = data1.getHeader();
-    out.write(gene.getDataAt(0) + "\t");
-    out.write(gene.getDataAt(1) + "\t");
+    out.write(gene.getDataAt(0)); out.tab();
+    out.write(gene.getDataAt(1)); out.tab();
     out.write("Bit Vector\n");
     while (data1.hasNext()) {
       int start = data1.getNumArrayHeader();
@@ -895,29 +914,80 @@ public class CustomAnalysis {
       double thr1 = b.getThreshold();
       double lowthr1 = b.getLowThreshold();
       double highthr1 = b.getHighThreshold();
-      out.write(gene.getDataAt(0) + "\t");
-      out.write(gene.getDataAt(1) + "\t");
+      out.write(gene.getDataAt(0)); out.tab();
+      out.write(gene.getDataAt(1)); out.tab();
       v= gene.getVector(start, end);
       for (int i =0; i < v.length; i++) {
         if (v[i] == null) {
-          out.write(" ");
+          out.write(' ');
         }
         else if (v[i].doubleValue() <= lowthr1) {
-          out.write("0");
+          out.write('0');
         }
         else if (v[i].doubleValue() >= highthr1) {
-          out.write("2");
+          out.write('2');
         }
         else {
-          out.write("1");
+          out.write('1');
         }
       }
-      out.write("\n");
+      out.newline();
     }
     out.close();
 
   }
 
+  /*
+   *  thr1 and thrBv1 in one pass over the PCL file :
+   *    thrBv2 <thr file> <bv file> <pcl file> [gap] [binary bv file]
+   */
+  public static void writeThresholdBv2(LinkedList<String> list) throws Exception {
+    String ofile = list.removeFirst();
+    String bvfile = list.removeFirst();
+    String file1 = list.removeFirst();
+    if (list.size() > 0) {
+        double gap = Double.parseDouble(list.removeFirst());
+        Bimodal.GAP_LENGTH = gap;
+    }
+    String binfile = null;
+    if (list.size() > 0) {
+        binfile = list.removeFirst();
+    }
+    BimodalThreshold.writeThresholds(ofile, bvfile, binfile, file1,
+        NUM_THREADS);
+  }
+
+  /*
+   *  Approximate thresholds from quantile sketches (BimodalSketch) :
+   *    sketch <sketch file> <pcl file> [k]
+   *    sketchMerge <sketch file> <shard sketch files ...>
+   *    sketchThr <thr file> <sketch file> [gap]
+   */
+  public static void writeSketch(String cmd, LinkedList<String> list)
+    throws Exception {
+    String ofile = list.removeFirst();
+    if (cmd.equals("sketch")) {
+      String file1 = list.removeFirst();
+      int k = QuantileSketch.K;
+      if (list.size() > 0) {
+        k = Integer.parseInt(list.removeFirst());
+      }
+      BimodalSketch.writeSketches(ofile, file1, k);
+    }
+    if (cmd.equals("sketchMerge")) {
+      String[] files = list.toArray(new String[0]);
+      BimodalSketch.mergeSketches(ofile, files);
+    }
+    if (cmd.equals("sketchThr")) {
+      String file1 = list.removeFirst();
+      if (list.size() > 0) {
+        double gap = Double.parseDouble(list.removeFirst());
+        Bimodal.GAP_LENGTH = gap;
+      }
+      BimodalSketch.writeThresholds(ofile, file1);
+    }
+  }
+
   public static void writeThresholdBv1(LinkedList<String> list) throws Exception {
     String ofile = list.removeFirst();
     String file1 = list.removeFirst();
@@ -927,10 +997,10 @@ public class CustomAnalysis {
     info.readThresholds();
     PCLFileReader data1 = new PCLFileReader(file1);
     data1.begin();
-    BufferedWriter out = new BufferedWriter(new FileWriter(ofile));
+    NumberWriter out = new NumberWriter(ofile);
     GeneData gene = data1.getHeader();
-    out.write(gene.getDataAt(0) + "\t");
-    out.write(gene.getDataAt(1) + "\t");
+    out.write(gene.getDataAt(0)); out.tab();
+    out.write(gene.getDataAt(1)); out.tab();
     out.write("Bit Vector\n");
     while (data1.hasNext()) {
       int start = data1.getNumArrayHeader();
@@ -941,33 +1011,35 @@ public class CustomAnalysis {
         break;
       }
       Double[] v= gene.getVector(start, end);
-      double thr1 = info.getThresholdByIndex(lineno).doubleValue();
-      double lowthr1 = info.getLowerThresholdByIndex(lineno).doubleValue();
-      double highthr1 = info.getUpperThresholdByIndex(lineno).doubleValue();
-      out.write(gene.getDataAt(0) + "\t");
-      out.write(gene.getDataAt(1) + "\t");
+      double thr1 = info.getThreshold(lineno, 0);
+      double lowthr1 = info.getThreshold(lineno, 2);
+      double highthr1 = info.getThreshold(lineno, 3);
+      out.write(gene.getDataAt(0)); out.tab();
+      out.write(gene.getDataAt(1)); out.tab();
       v= gene.getVector(start, end);
       for (int i =0; i < v.length; i++) {
         if (v[i] == null) {
-          out.write(" ");
+          out.write(' ');
         }
         else if (v[i].doubleValue() <= lowthr1) {
-          out.write("0");
+          out.write('0');
         }
         else if (v[i].doubleValue() >= highthr1) {
-          out.write("2");
+          out.write('2');
         }
         else {
-          out.write("1");
+          out.write('1');
         }
       }
-      out.write("\n");
+      out.newline();
     }
     out.close();
 
   }
 
   public static double STAT_THRESHOLD = 5;
+  /* Threads of the parallel analyses (--threads) */
+  public static int NUM_THREADS = 1;
   public static double THRESHOLD = 0.10;
   public static int SIZE_CUTOFF = 30;
 
@@ -1551,6 +1623,34 @@ public class CustomAnalysis {
   /*
    * Find pairs with the given Bit vector file
    */
+  public static void writePair(NumberWriter out, int type, int i, int j,
+      double p) throws IOException {
+    out.write(type); out.tab();
+    out.write(i); out.tab();
+    out.write(j); out.tab();
+    out.write(p, 5); out.newline();
+  }
+
+  /*
+   * Loads {values, thresholds} bit vectors of a block of a bv file.
+   */
+  static class BvBlockLoader implements BlockPrefetcher.Loader<BitSet[][]> {
+    PCLFileReader data_;
+    public BvBlockLoader(PCLFileReader data) { data_ = data; }
+    public BitSet[][] load(long start, int size) throws IOException {
+      BitSet[][] res = new BitSet[2][size];
+      for (int i = 0; i < size; i++) {
+        GeneData gb = data_.getDataAt(start + i);
+        if (gb == null) {
+          break;
+        }
+        res[0][i] = getBitSet((String) gb.getDataAt(2), 0);
+        res[1][i] = getBitSet((String) gb.getDataAt(2), 1);
+      }
+      return res;
+    }
+  };
+
   public static void writePairsBv(LinkedList<String> list) throws Exception {
     String ofile = list.removeFirst();
     String bvfile = list.removeFirst();
@@ -1572,7 +1672,7 @@ public class CustomAnalysis {
     PCLFileReader data = new PCLFileReader(bvfile);
     PCLFileReader.CACHE_SIZE = 2000;
     data.beginRandomAccess();
-    BufferedWriter out = new BufferedWriter(new FileWriter(ofile));
+    NumberWriter out = new NumberWriter(ofile);
     double thr1 = THRESHOLD;
     int samplesize_cutoff = SIZE_CUTOFF;
     int corr = (int) (samplesize_cutoff * thr1 * 2);
@@ -1607,82 +1707,81 @@ public class CustomAnalysis {
       if (geneid != null && geneid_index != -1) {
         start = 0;
       }
-      GeneData gb2 = data.getDataAt(start);
-      for (int b2 = start;  gb2 != null; b2+=blocksize) {
-        System.out.println("Block = (" + b1 + ", " + b2 + ")");
-        BitSet[] ba2 = new BitSet[blocksize];
-        BitSet[] ba2_thr = new BitSet[blocksize];
-        GeneData gb = data.getDataAt(b2);
-        for (int i = b2; gb != null && i < (b2+blocksize); i++) {
-          gb = data.getDataAt(i);
-          if (gb == null) {
-            break;
-          }
-          BitSet vb = getBitSet((String) gb.getDataAt(2), 0);
-          BitSet vb_thr = getBitSet((String) gb.getDataAt(2), 1);
-          ba2[i-b2] = vb;
-          ba2_thr[i-b2] = vb_thr;
-        }
-        BitSet va = ba1[0];
-        for (int i = b1; va != null && i < (b1+blocksize); i++) {
-          if (geneid_index != -1 && geneid_index != i) {
-            if (i < (b1-1 +blocksize)) {
-              va = ba1[i+1-b1];
+      // Read ahead the blocks of this sweep while computing
+      long numLines = data.getNumLines();
+      int numBlocks = (int) ((numLines - start + blocksize - 1) / blocksize);
+      long[] order = new long[Math.max(numBlocks, 0)];
+      for (int k = 0; k < order.length; k++) {
+        order[k] = start + ((long) k) * blocksize;
+      }
+      BlockPrefetcher<BitSet[][]> prefetcher = 
+        new BlockPrefetcher<BitSet[][]>(new BvBlockLoader(data), 
+            order, blocksize);
+      try {
+        for (int b2 = start;  b2 < numLines; b2+=blocksize) {
+          System.out.println("Block = (" + b1 + ", " + b2 + ")");
+          BitSet[][] block2 = prefetcher.next();
+          BitSet[] ba2 = block2[0];
+          BitSet[] ba2_thr = block2[1];
+          BitSet va = ba1[0];
+          for (int i = b1; va != null && i < (b1+blocksize); i++) {
+            if (geneid_index != -1 && geneid_index != i) {
+              if (i < (b1-1 +blocksize)) {
+                va = ba1[i+1-b1];
+              }
+              continue;
             }
-            continue;
-          }
-          System.out.println(i);
-          va = ba1[i-b1];
-          BitSet va_thr = ba1_thr[i-b1];
-          int num = va.size();
-          int outside = va_thr.cardinality();
-          if (num > (3 * outside)) {
-            if (i < (b1-1 +blocksize)) {
-              va = ba1[i+1-b1];
+            System.out.println(i);
+            va = ba1[i-b1];
+            BitSet va_thr = ba1_thr[i-b1];
+            int num = va.size();
+            int outside = va_thr.cardinality();
+            if (num > (3 * outside)) {
+              if (i < (b1-1 +blocksize)) {
+                va = ba1[i+1-b1];
+              }
+              continue;
             }
-            continue;
-          }
-          BitSet vb = ba2[0];
-          for (int j = b2; vb != null && j < (b2 + blocksize); j++) {
-            vb = ba2[j-b2];
-            BitSet vb_thr = ba2_thr[j-b2];
-            num = vb.size();
-            outside = vb_thr.cardinality();
-            if ((num > (3 *outside)) || (geneid_index == -1 && j <= i)) {
+            BitSet vb = ba2[0];
+            for (int j = b2; vb != null && j < (b2 + blocksize); j++) {
+              vb = ba2[j-b2];
+              BitSet vb_thr = ba2_thr[j-b2];
+              num = vb.size();
+              outside = vb_thr.cardinality();
+              if ((num > (3 *outside)) || (geneid_index == -1 && j <= i)) {
+                if (j < (b2 -1 + blocksize)) {
+                  vb = ba2[j+1-b2];
+                }
+                continue;
+              }
+              //double[] p = getErrorProbability(va, va_thr, vb, vb_thr, corr);
+              //double[] p = getErrorStats(va, va_thr, vb, vb_thr, corr, 0);
+              double[] p = getErrorProbStats(va, va_thr, vb, vb_thr, 0);
+              if (p[0] <= thr1) {
+                writePair(out, 0, i, j, p[0]);
+              }
+              if (p[1] <= thr1) {
+                writePair(out, 1, i, j, p[1]);
+              }
+              if (p[2] <= thr1) {
+                writePair(out, 2, i, j, p[2]);
+              }
+              if (p[3] <= thr1) {
+                writePair(out, 3, i, j, p[3]);
+              }
               if (j < (b2 -1 + blocksize)) {
                 vb = ba2[j+1-b2];
               }
-              continue;
-            }
-            //double[] p = getErrorProbability(va, va_thr, vb, vb_thr, corr);
-            //double[] p = getErrorStats(va, va_thr, vb, vb_thr, corr, 0);
-            double[] p = getErrorProbStats(va, va_thr, vb, vb_thr, 0);
-            if (p[0] <= thr1) {
-              String sr = formatString("0.#####", p[0]);
-              out.write(0 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
             }
-            if (p[1] <= thr1) {
-              String sr = formatString("0.#####", p[1]);
-              out.write(1 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
-            }
-            if (p[2] <= thr1) {
-              String sr = formatString("0.#####", p[2]);
-              out.write(2 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
-            }
-            if (p[3] <= thr1) {
-              String sr = formatString("0.#####", p[3]);
-              out.write(3 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
-            }
-            if (j < (b2 -1 + blocksize)) {
-              vb = ba2[j+1-b2];
+            if (i < (b1-1 +blocksize)) {
+              va = ba1[i+1-b1];
             }
-          }
-          if (i < (b1-1 +blocksize)) {
-            va = ba1[i+1-b1];
-          }
-        } // end ga
-        gb2 = data.getDataAt(b2+blocksize);
-      } // end gb2
+          } // end ga
+        } // end gb2
+      }
+      finally {
+        prefetcher.close();
+      }
       gb1 = data.getDataAt(b1+blocksize);
     } // end gb1
     out.close();
@@ -1712,7 +1811,7 @@ public class CustomAnalysis {
     PCLFileReader data = new PCLFileReader(bvfile);
     PCLFileReader.CACHE_SIZE = 2000;
     data.beginRandomAccess();
-    BufferedWriter out = new BufferedWriter(new FileWriter(ofile));
+    NumberWriter out = new NumberWriter(ofile);
     double thr1 = THRESHOLD;
     int samplesize_cutoff = SIZE_CUTOFF;
     int corr = (int) (samplesize_cutoff * thr1 * 2);
@@ -1776,20 +1875,16 @@ public class CustomAnalysis {
         //double[] p = getErrorStats(va, va_thr, vb, vb_thr, corr, 1);
         double[] p = getErrorProbStats(va, va_thr, vb, vb_thr, 1);
         if (p[0] <= thr1) {
-          String sr = formatString("0.#####", p[0]);
-          out.write(0 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
+          writePair(out, 0, i, j, p[0]);
         }
         if (p[1] <= thr1) {
-          String sr = formatString("0.#####", p[1]);
-          out.write(1 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
+          writePair(out, 1, i, j, p[1]);
         }
         if (p[2] <= thr1) {
-          String sr = formatString("0.#####", p[2]);
-          out.write(2 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
+          writePair(out, 2, i, j, p[2]);
         }
         if (p[3] <= thr1) {
-          String sr = formatString("0.#####", p[3]);
-          out.write(3 + "\t" + i + "\t" + j + "\t" +  sr + "\n");
+          writePair(out, 3, i, j, p[3]);
         }
         if (j < (start2 -1 + num2)) {
           vb = ba2[j+1-start2];
@@ -2174,6 +2269,12 @@ public class CustomAnalysis {
     if (cmd.equals("thrBv1")) {
        writeThresholdBv1(list);
     }
+    if (cmd.equals("thrBv2")) {
+       writeThresholdBv2(list);
+    }
+    if (cmd.startsWith("sketch")) {
+       writeSketch(cmd, list);
+    }
     if (cmd.equals("pairs")) {
        writePairsNew(list);
     }
@@ -2226,9 +2327,8 @@ public class CustomAnalysis {
         excludeList.add(str);
       }
     }
-    Data data = GEOFileReader.readFile(ifile, excludeList);
-    PCLFileWriter.writeFile(data, ofile1);
-    data = GEOFileReader.readInfo(ifile, excludeList);
+    GEOFileReader.convertFile(ifile, excludeList, ofile1);
+    Data data = GEOFileReader.readInfo(ifile, excludeList);
     PCLFileWriter.writeFile(data, ofile2);
   }
 
@@ -2558,10 +2658,22 @@ public class CustomAnalysis {
     if (cmd.equals("concat")) {
       String file1 = list.removeFirst();
       String file2 = list.removeFirst();
-      Data data1 = TABFileReader.readFile(file1);
-      Data data2 = TABFileReader.readFile(file2);
-      Data res = Data.concatDataColumns(data1, data2);
-      PCLFileWriter.writeFile(res, ofile);
+      TableJoin.concat(file1, file2, ofile);
+    }
+    if (cmd.equals("bgzip")) {
+      String file1 = list.removeFirst();
+      BlockGzipWriter.compressFile(file1, ofile);
+    }
+    if (cmd.equals("index")) {
+      String idxfile = list.removeFirst();
+      String thrfile = null;
+      if (list.size() > 0) {
+        thrfile = list.removeFirst();
+      }
+      if (idxfile.equals("-")) {
+        idxfile = null;
+      }
+      NetworkIndex.build(idxfile, thrfile, ofile);
     }
     if (cmd.equals("select")) {
       String file1 = list.removeFirst();
@@ -2628,51 +2740,7 @@ public class CustomAnalysis {
     if (cmd.equals("intersect")) {
       String file2 = list.removeFirst();
       String file3 = list.removeFirst();
-      Data data = TABFileReader.readFile(file3);
-      HashMap<String, LinkedList<Integer> > b_ids = new HashMap<String, LinkedList<Integer> >();
-      for (int i = 0; i < data.getNumGenes(); i++) {
-        GeneData gene = data.getGeneData(i);
-        String id = (String) gene.getDataAt(data.getID());
-        id = id.replaceAll("\\s", "");
-        if (!b_ids.containsKey(id)) {
-          b_ids.put(id, new LinkedList<Integer>());
-        }
-        LinkedList<Integer> val = b_ids.get(id);
-        val.add(new Integer(i));
-      }
-      TABFileReader reader = new TABFileReader(file2);
-      PCLFileWriter writer = new PCLFileWriter(ofile);
-      reader.begin();
-      GeneData gene = reader.getHeader();
-      GeneData g = data.getGeneData(0);
-      String id = (String) gene.getDataAt(0);
-      id = id.replaceAll("\\s", "");
-      if (b_ids.containsKey(id)) {
-        g = GeneData.merge(gene, g.subset(1,g.size()-1));
-        writer.writeData(g);
-      }
-      while(reader.hasNext()) {
-        gene = reader.getData();
-        if (gene == null) {
-            break;
-        }
-        if ( (reader.getLineNumber() % 1000 == 0) ) {
-            System.out.println(reader.getLineNumber());
-        }
-        id = (String) gene.getDataAt(0);
-        id = id.replaceAll("\\s", "");
-        if (b_ids.containsKey(id)) {
-          LinkedList<Integer> val = b_ids.get(id);
-          Iterator<Integer> itr = val.iterator();
-          while (itr.hasNext()) {
-            Integer e = (Integer) itr.next();
-            g = data.getGeneData(e.intValue());
-            g = GeneData.merge(gene, g.subset(1,g.size()-1));
-            writer.writeData(g);
-          }
-        }
-      }
-      writer.close();
+      TableJoin.intersect(file2, file3, ofile);
     }
     if (cmd.equals("intersectR")) {
       String file1 = list.removeFirst();
@@ -3109,6 +3177,10 @@ public class CustomAnalysis {
     String ofile = list.removeFirst();
     String listfile = list.removeFirst();
     String pclfile = list.removeFirst();
+    double minCorr = 0;
+    if (list.size() > 0) {
+      minCorr = Double.parseDouble(list.removeFirst());
+    }
     PCLFileReader data = new PCLFileReader(listfile);
     PCLFileReader.CACHE_SIZE = 0;
     HashSet<String> b_ids = new HashSet<String>();
@@ -3148,34 +3220,36 @@ public class CustomAnalysis {
         pcl_ids.add(new Integer(i));
       }
     }
-    PCLFileWriter writer = new PCLFileWriter(ofile);
+    // Selected rows are copied once off the heap
+    int num = pcl_ids.size();
+    int[] rows = new int[num];
+    String[] ids = new String[num];
+    String[] names = new String[num];
     int start = reader.getNumArrayHeader();
-    int end = reader.getNumColumns() - 1;
-    Iterator<Integer> itr = pcl_ids.iterator();
-    while (itr.hasNext()) {
-      Integer a = (Integer) itr.next();
-      GeneData ga = reader.getDataAt(a.intValue());
-      Double[] v1 = ga.getVector(start, end);
-      Iterator<Integer> itr1 = pcl_ids.iterator();
-      while (itr1.hasNext()) {
-        Integer b = (Integer) itr1.next();
-        if (a.intValue() > b.intValue()) {
-          GeneData gb = reader.getDataAt(b.intValue());
-          Double[] v2 = gb.getVector(start, end);
-          double corr = getCorrelation(v1, v2);
-          Object[] d = new Object[5];
-          String sr = formatString("0.####", corr);
-          d[0] = sr;
-          d[1] = ga.getDataAt(0);
-          d[2] = gb.getDataAt(0);
-          d[3] = ga.getDataAt(1);
-          d[4] = gb.getDataAt(1);
-          GeneData gg = new GeneData(d);
-          writer.writeData(gg);
-        }
+    OffHeapMatrix matrix = new OffHeapMatrix(num,
+        reader.getNumColumns() - start);
+    CorrelationEngine engine = null;
+    try {
+      Iterator<Integer> itr = pcl_ids.iterator();
+      for (int i = 0; itr.hasNext(); i++) {
+        rows[i] = itr.next().intValue();
+        GeneData gene = reader.getDataAt(rows[i]);
+        ids[i] = (String) gene.getDataAt(0);
+        names[i] = (String) gene.getDataAt(1);
+        matrix.setRow(i, gene, start);
       }
+      reader.close();
+      engine = new CorrelationEngine(matrix);
+    }
+    finally {
+      matrix.close();
+    }
+    try {
+      engine.writePairs(ofile, rows, ids, names, minCorr, NUM_THREADS);
+    }
+    finally {
+      engine.close();
     }
-    writer.close();
   }
 
   public static void corrListAnalysis(LinkedList<String> list) throws Exception {
@@ -3268,6 +3342,78 @@ public class CustomAnalysis {
     writer.close();
   }
 
+  /*
+   * corrTop / corrTopAbs outfile pcl k [listIds] : the k genes with the
+   * highest correlation (|correlation|) to each gene of the list (all
+   * the genes without a list), one line per gene.
+   */
+  public static void corrTopAnalysis(LinkedList<String> list, boolean abs)
+    throws Exception {
+    String ofile = list.removeFirst();
+    String pclfile = list.removeFirst();
+    int k = Integer.parseInt(list.removeFirst());
+    HashSet<String> b_ids = null;
+    if (list.size() > 0) {
+      b_ids = new HashSet<String>();
+      PCLFileReader data = new PCLFileReader(list.removeFirst());
+      data.begin();
+      while (data.hasNext()) {
+        GeneData gene = data.getData();
+        if (gene == null) {
+          break;
+        }
+        String id = (String) gene.getDataAt(0);
+        b_ids.add(id.replaceAll("\\s", ""));
+      }
+    }
+    PCLFileReader.CACHE_SIZE = 0;
+    PCLFileReader reader = new PCLFileReader(pclfile);
+    reader.beginRandomAccess();
+    LinkedList<Integer> rows = new LinkedList<Integer>();
+    for (int i = 0; reader.hasNext(); i++) {
+      GeneData gene = reader.getDataAt(-1);
+      if (gene == null) {
+        break;
+      }
+      // Line 0 is the header
+      if (i > 0 && !"EWEIGHT".equals(gene.getDataAt(0))) {
+        rows.add(new Integer(i));
+      }
+    }
+    int num = rows.size();
+    String[] ids = new String[num];
+    String[] names = new String[num];
+    int[] query = new int[num];
+    int numQuery = 0;
+    Iterator<Integer> itr = rows.iterator();
+    for (int i = 0; itr.hasNext(); i++) {
+      GeneData gene = reader.getDataAt(itr.next().intValue());
+      ids[i] = (String) gene.getDataAt(0);
+      names[i] = (String) gene.getDataAt(1);
+      if (b_ids == null || (ids[i] != null &&
+            b_ids.contains(ids[i].replaceAll("\\s", "")))) {
+        query[numQuery++] = i;
+      }
+    }
+    OffHeapMatrix matrix = OffHeapMatrix.load(reader, rows);
+    CorrelationEngine engine = null;
+    try {
+      reader.close();
+      engine = new CorrelationEngine(matrix);
+    }
+    finally {
+      matrix.close();
+    }
+    int[] q = new int[numQuery];
+    System.arraycopy(query, 0, q, 0, numQuery);
+    try {
+      engine.writeNeighbors(ofile, q, ids, names, k, abs, NUM_THREADS);
+    }
+    finally {
+      engine.close();
+    }
+  }
+
   public static void booleanAnalysis(LinkedList<String> list) throws Exception {
     String cmd = list.removeFirst();
     if (cmd.equals("bitMatrix") || cmd.equals("listMatrix") ||
@@ -3483,6 +3629,22 @@ public class CustomAnalysis {
   public static void main(String[] args) throws Exception {
     LinkedList<String> list = new LinkedList<String>(Arrays.asList(args));
     String cmd = "";
+    while (list.size() > 0 && list.getFirst().startsWith("--")) {
+      String opt = list.removeFirst();
+      if (opt.equals("--float")) {
+        GeneData.FLOAT_STORAGE = true; // float32 expression values
+      }
+      else if (opt.equals("--offheap")) {
+        GeneData.OFF_HEAP = true; // values outside the Java heap
+      }
+      else if (opt.equals("--threads") && list.size() > 0) {
+        NUM_THREADS = Integer.parseInt(list.removeFirst());
+      }
+      else {
+        list.addFirst(opt);
+        break;
+      }
+    }
     if (list.size() > 0) {
       cmd = list.removeFirst();
     }
@@ -3573,6 +3735,12 @@ public class CustomAnalysis {
     else if(cmd.equals("corrOne")) {
       corrOneAnalysis(list);
     }
+    else if(cmd.equals("corrTop")) {
+      corrTopAnalysis(list, false);
+    }
+    else if(cmd.equals("corrTopAbs")) {
+      corrTopAnalysis(list, true);
+    }
     else if(cmd.equals("shuffle")) {
       shuffleAnalysis(list);
     }
@@ -3595,13 +3763,15 @@ public class CustomAnalysis {
       pln("intersectStepGO   spvalue outfile onnFile annFile org pvalue file1 file2 ...");
       pln("intersectStepGS   spvalue outfile setFile org pvalue file1 file2 ...");
       pln("corr              outfile threshold file1 file2");
-      pln("corrAll           outfile listIds pcl");
+      pln("corrAll           outfile listIds pcl [minCorr]");
       pln("corrList          outfile pairsFile pcl");
       pln("corrOne           outfile pclFile num1 [num2 [start]]");
+      pln("corrTop           outfile pclFile k [listIds]");
+      pln("corrTopAbs        outfile pclFile k [listIds]");
       pln("corrStep          outfile spvalue threshold file1 file2 file3");
       pln("monotonic         up/down outfile threshold file");
       pln("aracne            outfile num pclfile pairfile");
-      pln("geo               outfile outInfoFile <Soft GEO file> <numArr> <Random:true/false> [symindex=8 titleindex=7] [<Exclusion list>]");
+      pln("geo               outfile outInfoFile <Soft GEO file> <numArr (0=all)> <Random:true/false> [symindex=8 titleindex=7] [<Exclusion list>]");
       pln("geoSampleIds      outfile <Soft GEO file>");
       pln("bimodal           <get[r]> outfile pclfile threshold");
       pln("                  getr -> reduce log data file");
@@ -3624,6 +3794,8 @@ public class CustomAnalysis {
       pln("tabFile           select outfile file1 range");
       pln("tabFile           delete outfile file1 range");
       pln("tabFile           intersect[R] outfile file1 file2large");
+      pln("tabFile           bgzip outfile.gz file1 (random access gzip)");
+      pln("tabFile           index outfile.idxb idxfile|- [thrfile] (compiled index)");
       pln("pie               ofile file1 file2 file3");
       pln("stats             corr ofile pclfile num");
       pln("step              ofile pclfile [<cmd> <arg>]");
@@ -0,0 +1,306 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.algorithm;
+
+import tools.microarray.FileReader.PCLFileReader;
+import tools.microarray.FileWriter.NumberWriter;
+
+import java.io.*;
+
+/*
+ * Approximate Bimodal thresholds from QuantileSketch summaries, for
+ * rows with too many samples to sort.
+ *
+ * A sketch file holds the line number, id and sketch of every row of
+ * a PCL file, built in one pass without keeping the row. Sketches of
+ * shards of a compendium (same rows, other samples) merge row by row,
+ * so new samples are added without reading the old ones again. The
+ * step is fitted on the weighted retained values of the sketch.
+ */
+public class BimodalSketch {
+
+  static final int MAGIC = 0x42534b31;
+
+  static DataOutputStream openOutput(String file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file), 1 << 16));
+    out.writeInt(MAGIC);
+    return out;
+  }
+
+  static DataInputStream openInput(String file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file), 1 << 16));
+    if (in.readInt() != MAGIC) {
+      in.close();
+      throw new IOException("Not a sketch file : " + file);
+    }
+    return in;
+  }
+
+  /*
+   * Sketch of every row of the PCL file : values of the array columns,
+   * missing values left out, as "bimodal thr1" reads them.
+   */
+  public static void writeSketches(String ofile, String file, int k)
+    throws Exception {
+    PCLFileReader data = new PCLFileReader(file);
+    data.begin();
+    int numArrayHeader = data.getNumArrayHeader();
+    int numColumns = data.getNumColumns();
+    DataOutputStream out = openOutput(ofile);
+    try {
+      while (data.hasNext()) {
+        long lineno = data.getLineNumber();
+        String line = data.getLine();
+        if (line == null) {
+          break;
+        }
+        QuantileSketch s = new QuantileSketch(k);
+        String id = "null";
+        int col = 0;
+        int pos = 0;
+        int len = line.length();
+        while (pos <= len && col < numColumns) {
+          int tab = line.indexOf('\t', pos);
+          if (tab < 0) {
+            tab = len;
+          }
+          if (col == 0) {
+            id = line.substring(pos, tab);
+          }
+          if (col >= numArrayHeader && tab > pos) {
+            try {
+              s.add(Double.parseDouble(line.substring(pos, tab)));
+            }
+            catch(NumberFormatException e) {
+            }
+          }
+          col++;
+          pos = tab + 1;
+        }
+        out.writeLong(lineno);
+        out.writeUTF(id);
+        s.write(out);
+      }
+    }
+    finally {
+      out.close();
+      data.close();
+    }
+  }
+
+  /*
+   * Merge the sketch files of shards with the same rows in the same
+   * order; line numbers are from the first file.
+   */
+  public static void mergeSketches(String ofile, String[] files)
+    throws Exception {
+    DataInputStream[] in = new DataInputStream[files.length];
+    DataOutputStream out = null;
+    try {
+      for (int i = 0; i < files.length; i++) {
+        in[i] = openInput(files[i]);
+      }
+      out = openOutput(ofile);
+      long row = 0;
+      while (true) {
+        long lineno;
+        try {
+          lineno = in[0].readLong();
+        }
+        catch (EOFException e) {
+          break;
+        }
+        String id = in[0].readUTF();
+        QuantileSketch s = QuantileSketch.read(in[0]);
+        for (int i = 1; i < files.length; i++) {
+          in[i].readLong();
+          String id1 = in[i].readUTF();
+          if (!id1.equals(id)) {
+            throw new IOException("Row " + row + " of " + files[i] +
+                " is " + id1 + ", expected " + id);
+          }
+          s.merge(QuantileSketch.read(in[i]));
+        }
+        out.writeLong(lineno);
+        out.writeUTF(id);
+        s.write(out);
+        row++;
+      }
+    }
+    finally {
+      for (int i = 0; i < in.length; i++) {
+        if (in[i] != null) {
+          in[i].close();
+        }
+      }
+      if (out != null) {
+        out.close();
+      }
+    }
+  }
+
+  /* Value of the item of weighted rank r (1 based) */
+  static double getValue(double[] x, long[] cw, int m, long r) {
+    int lo = 0;
+    int hi = m - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cw[mid + 1] >= r) {
+        hi = mid;
+      }
+      else {
+        lo = mid + 1;
+      }
+    }
+    return x[lo];
+  }
+
+  /*
+   * Threshold, statistic, low and high thresholds, value error bound and
+   * rank error bound of the sketch. The one step fit is the Bimodal fit
+   * on the weighted values. The threshold has rank r in the sketch and
+   * rank within r +- E in the data (E the rank error bound); the value
+   * error bound is the distance from the threshold to the values at
+   * ranks r - E and r + 1 + E, 0 when the sketch is exact.
+   */
+  public static double[] getThreshold(QuantileSketch s) {
+    double[] res = new double[6];
+    int size = s.size();
+    if (size < 2) {
+      return res;
+    }
+    double[] x = new double[size];
+    long[] w = new long[size];
+    int m = s.getItems(x, w);
+    long[] cw = new long[m + 1];
+    double[] cs = new double[m + 1];
+    double[] cq = new double[m + 1];
+    double mean = 0;
+    for (int i = 0; i < m; i++) {
+      mean += w[i] * x[i];
+    }
+    long total = 0;
+    for (int i = 0; i < m; i++) {
+      total += w[i];
+    }
+    mean /= total;
+    for (int i = 0; i < m; i++) {
+      double v = x[i] - mean;
+      cw[i + 1] = cw[i] + w[i];
+      cs[i + 1] = cs[i] + w[i] * v;
+      cq[i + 1] = cq[i] + w[i] * v * v;
+    }
+    double sstot = cq[m] - cs[m] * cs[m] / total;
+    double bestSse = Double.MAX_VALUE;
+    int index = 0;
+    for (int i = 0; i < m - 1; i++) {
+      double s1 = cs[i + 1];
+      double s2 = cs[m] - s1;
+      double sse = cq[i + 1] - s1 * s1 / cw[i + 1] +
+        (cq[m] - cq[i + 1]) - s2 * s2 / (total - cw[i + 1]);
+      if (sse < bestSse) {
+        bestSse = sse;
+        index = i;
+      }
+    }
+    double thr = (x[index] + x[index + 1]) / 2;
+    long n = s.getCount();
+    double stat;
+    if (n > 4) {
+      stat = (sstot - bestSse)/3/(bestSse/(n - 4));
+    }
+    else {
+      stat = (sstot - bestSse)/2/bestSse;
+    }
+    res[0] = thr;
+    res[1] = stat;
+    res[2] = thr - Bimodal.GAP_LENGTH;
+    res[3] = thr + Bimodal.GAP_LENGTH;
+    long e = s.getRankError();
+    if (e > 0) {
+      long r = cw[index + 1];
+      double lo = (r - e < 1) ? s.getMin() : getValue(x, cw, m, r - e);
+      double hi = (r + 1 + e > total) ? s.getMax() :
+        getValue(x, cw, m, r + 1 + e);
+      res[4] = Math.max(thr - lo, hi - thr);
+    }
+    res[5] = e;
+    return res;
+  }
+
+  /*
+   * .thr file of the sketches : line number, threshold, statistic, low
+   * and high threshold as "bimodal thr1", then the value error bound of
+   * the threshold and the rank error bound.
+   */
+  public static void writeThresholds(String ofile, String file)
+    throws Exception {
+    DataInputStream in = openInput(file);
+    NumberWriter out = new NumberWriter(ofile);
+    try {
+      while (true) {
+        long lineno;
+        try {
+          lineno = in.readLong();
+        }
+        catch (EOFException e) {
+          break;
+        }
+        in.readUTF();
+        double[] res = getThreshold(QuantileSketch.read(in));
+        out.write(lineno);
+        for (int i = 0; i < 5; i++) {
+          out.tab(); out.write(res[i]);
+        }
+        out.tab(); out.write((long) res[5]); out.newline();
+      }
+    }
+    finally {
+      in.close();
+      out.close();
+    }
+  }
+
+};
@@ -0,0 +1,388 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.algorithm;
+
+import tools.microarray.GeneData;
+import tools.microarray.FileReader.PCLFileReader;
+import tools.microarray.FileWriter.NumberWriter;
+import tools.microarray.FileWriter.BitVectorWriter;
+import tools.microarray.StepMiner.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * StepMiner thresholds of all the rows of a PCL file, the .thr file of
+ * "bimodal thr1", streaming the file in blocks of BLOCK_SIZE rows.
+ *
+ * A row is parsed straight into a double[] without its missing values,
+ * sorted with Arrays.sort and fitted by a StepKernel, so no Double or
+ * GeneData is built per value. The rows of a block are fitted by a
+ * thread pool while the next block is read, and written in file order.
+ * The kernel does the same running sums as the Bimodal fit, so the
+ * thresholds and statistics are the same numbers.
+ *
+ * The .bv bit vectors (and the binary BitVectorWriter file) can be
+ * written in the same pass, with the calls of "bimodal thrBv1" on the
+ * new thresholds, so the PCL file is read only once.
+ */
+public class BimodalThreshold {
+
+  /* Rows read and fitted together, and most bit vector bytes */
+  public static int BLOCK_SIZE = 4096;
+  public static int BLOCK_CODES = 1 << 24;
+
+  int numArrayHeader_;
+  int numColumns_;
+  int numArrays_;
+  double[] v_;              // sorted values of the current row
+  double[] row_;            // values of the current row by column
+  boolean[] present_;
+  StepKernel kernel_;
+  AnalysisMetaData meta_;   // fit of v_[0 .. metaNum_-1]
+  int metaNum_;
+
+  public BimodalThreshold(int numArrayHeader, int numColumns) {
+    numArrayHeader_ = numArrayHeader;
+    numColumns_ = numColumns;
+    numArrays_ = Math.max(numColumns - numArrayHeader, 0);
+    v_ = new double[Math.max(numArrays_, 1)];
+    row_ = new double[v_.length];
+    present_ = new boolean[v_.length];
+    kernel_ = new StepKernel();
+    meta_ = null;
+    metaNum_ = -1;
+  }
+
+  /*
+   * Values of the array columns of row i of b into v_, missing values
+   * (empty, not a number or NaN) left out, and into row_ / present_.
+   * Returns the count and sets the number of fields, id and name of
+   * the row in b.
+   */
+  int parse(Block b, int i) {
+    String line = b.lines[i];
+    for (int k = 0; k < numArrays_; k++) {
+      present_[k] = false;
+    }
+    b.ids[i] = b.names[i] = "null";
+    int n = 0;
+    int col = 0;
+    int pos = 0;
+    int len = line.length();
+    while (pos <= len) {
+      int tab = line.indexOf('\t', pos);
+      if (tab < 0) {
+        tab = len;
+      }
+      if (col < 2 && col < numColumns_ && b.codes != null) {
+        String str = line.substring(pos, tab);
+        if (col == 0) {
+          b.ids[i] = str;
+        }
+        else {
+          b.names[i] = str;
+        }
+      }
+      if (col >= numArrayHeader_ && col < numColumns_ && tab > pos) {
+        try {
+          double x = Double.parseDouble(line.substring(pos, tab));
+          row_[col - numArrayHeader_] = x;
+          present_[col - numArrayHeader_] = true;
+          if (!Double.isNaN(x)) {
+            v_[n++] = x;
+          }
+        }
+        catch(NumberFormatException e) {
+        }
+      }
+      col++;
+      pos = tab + 1;
+    }
+    b.fields[i] = col;
+    return n;
+  }
+
+  /*
+   * Calls of row_ : ' ' missing, '0' at most the low threshold, '2' at
+   * least the high threshold, '1' in between (as writeThresholdBv1)
+   */
+  void setCodes(byte[] codes, int off, double low, double high) {
+    for (int k = 0; k < numArrays_; k++) {
+      byte c;
+      if (!present_[k]) {
+        c = ' ';
+      }
+      else if (row_[k] <= low) {
+        c = '0';
+      }
+      else if (row_[k] >= high) {
+        c = '2';
+      }
+      else {
+        c = '1';
+      }
+      codes[off + k] = c;
+    }
+  }
+
+  /*
+   * Threshold, statistic, low and high threshold of v_[0 .. n-1] into
+   * res[off .. off+3], as Bimodal does for the same values.
+   */
+  void fit(int n, double[] res, int off) {
+    res[off] = res[off + 1] = res[off + 2] = res[off + 3] = 0.0;
+    if (n <= 0) {
+      return;
+    }
+    Arrays.sort(v_, 0, n);
+    if (n != metaNum_) {
+      meta_ = new AnalysisMetaData(0, n - 1, null, null, 0.05);
+      metaNum_ = n;
+    }
+    kernel_.load(v_, n);
+    Step step = kernel_.fitOneStep(meta_);
+    try {
+      if (step.getNumSteps() < 0) {
+        throw new StepException("No step");
+      }
+      int index = step.getStep(0);
+      double thr = v_[index];
+      if (index + 1 < n) {
+        thr = (thr + v_[index + 1]) / 2;
+      }
+      res[off] = thr;
+      res[off + 2] = thr - Bimodal.GAP_LENGTH;
+      res[off + 3] = thr + Bimodal.GAP_LENGTH;
+      res[off + 1] = step.getStatistic();
+    }
+    catch(Exception e) {
+      res[off] = res[off + 2] = res[off + 3] = 0.0;
+      System.out.println("Count = " + n);
+    }
+  }
+
+  /* Rows of a block and their results */
+  static class Block {
+    String[] lines;
+    long[] linenos;
+    int[] fields;
+    double[] res;
+    String[] ids;
+    String[] names;
+    byte[] codes;     // bit vectors, null without .bv output
+    int size;
+    List<Future<Object>> tasks;
+
+    Block(int n, int numArrays, boolean bv) {
+      lines = new String[n];
+      linenos = new long[n];
+      fields = new int[n];
+      res = new double[4 * n];
+      ids = new String[n];
+      names = new String[n];
+      codes = bv ? new byte[n * numArrays] : null;
+      size = 0;
+      tasks = new ArrayList<Future<Object>>();
+    }
+  };
+
+  void fitRows(Block b, int start, int end) {
+    for (int i = start; i < end; i++) {
+      int n = parse(b, i);
+      fit(n, b.res, 4 * i);
+      if (b.codes != null) {
+        setCodes(b.codes, i * numArrays_, b.res[4 * i + 2], b.res[4 * i + 3]);
+      }
+      b.lines[i] = null;
+    }
+  }
+
+  static void read(PCLFileReader data, Block b) throws Exception {
+    b.size = 0;
+    while (b.size < b.lines.length && data.hasNext()) {
+      long lineno = data.getLineNumber();
+      String line = data.getLine();
+      if (line == null) {
+        break;
+      }
+      b.linenos[b.size] = lineno;
+      b.lines[b.size] = line;
+      b.size++;
+    }
+  }
+
+  /* Fit the rows of b, on the pool when there is one */
+  static void submit(ExecutorService pool, final BimodalThreshold[] workers,
+      final Block b) throws Exception {
+    b.tasks.clear();
+    if (pool == null) {
+      workers[0].fitRows(b, 0, b.size);
+      return;
+    }
+    int ntasks = workers.length;
+    for (int t = 0; t < ntasks; t++) {
+      final BimodalThreshold w = workers[t];
+      final int start = (int) ((long) b.size * t / ntasks);
+      final int end = (int) ((long) b.size * (t + 1) / ntasks);
+      b.tasks.add(pool.submit(new Callable<Object>() {
+        public Object call() {
+          w.fitRows(b, start, end);
+          return null;
+        }
+      }));
+    }
+  }
+
+  static void write(NumberWriter out, NumberWriter bv, BitVectorWriter bin,
+      Block b, int numColumns, int numArrays) throws Exception {
+    for (int t = 0; t < b.tasks.size(); t++) {
+      try {
+        b.tasks.get(t).get();
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new Exception(cause.toString());
+      }
+    }
+    for (int i = 0; i < b.size; i++) {
+      if (b.fields[i] != numColumns) {
+        System.out.println(" *Warning* Column mismatch - Orig :" +
+            numColumns + ", New : " + b.fields[i] + " at line " +
+            (b.linenos[i] + 1));
+      }
+      out.write(b.linenos[i]); out.tab();
+      out.write(b.res[4 * i]); out.tab();
+      out.write(b.res[4 * i + 1]); out.tab();
+      out.write(b.res[4 * i + 2]); out.tab();
+      out.write(b.res[4 * i + 3]); out.newline();
+      if (bv != null) {
+        bv.write(b.ids[i]); bv.tab();
+        bv.write(b.names[i]); bv.tab();
+        bv.write(b.codes, i * numArrays, numArrays);
+        bv.newline();
+      }
+      if (bin != null) {
+        bin.write(b.ids[i], b.names[i], b.codes, i * numArrays);
+      }
+    }
+  }
+
+  /*
+   * Write the .thr file of the PCL file : line number, threshold,
+   * statistic, low and high threshold of every row after the header.
+   */
+  public static void writeThresholds(String ofile, String file, int nthreads)
+    throws Exception {
+    writeThresholds(ofile, null, null, file, nthreads);
+  }
+
+  /*
+   * Write the .thr file, and with bvfile the .bv file of the same
+   * thresholds, and with binfile its binary form (may be null).
+   */
+  public static void writeThresholds(String ofile, String bvfile,
+      String binfile, String file, int nthreads) throws Exception {
+    PCLFileReader data = new PCLFileReader(file);
+    data.begin();
+    int numColumns = data.getNumColumns();
+    int numArrays = data.getNumArrays();
+    boolean codes = (bvfile != null || binfile != null);
+    int rows = BLOCK_SIZE;
+    if (codes) {
+      rows = Math.max(16, Math.min(rows, BLOCK_CODES / Math.max(numArrays, 1)));
+    }
+    nthreads = Math.max(nthreads, 1);
+    BimodalThreshold[] workers = new BimodalThreshold[nthreads];
+    for (int t = 0; t < nthreads; t++) {
+      workers[t] = new BimodalThreshold(data.getNumArrayHeader(), numColumns);
+    }
+    ExecutorService pool = null;
+    if (nthreads > 1) {
+      pool = Executors.newFixedThreadPool(nthreads);
+    }
+    NumberWriter out = new NumberWriter(ofile);
+    NumberWriter bv = null;
+    BitVectorWriter bin = null;
+    Block current = new Block(rows, numArrays, codes);
+    Block next = new Block(rows, numArrays, codes);
+    try {
+      if (bvfile != null) {
+        bv = new NumberWriter(bvfile);
+        GeneData gene = data.getHeader();
+        bv.write(gene.getDataAt(0)); bv.tab();
+        bv.write(gene.getDataAt(1)); bv.tab();
+        bv.write("Bit Vector\n");
+      }
+      if (binfile != null) {
+        bin = new BitVectorWriter(binfile, numArrays);
+      }
+      read(data, current);
+      while (current.size > 0) {
+        submit(pool, workers, current);
+        read(data, next);
+        write(out, bv, bin, current, numColumns, numArrays);
+        Block tmp = current;
+        current = next;
+        next = tmp;
+      }
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      out.close();
+      if (bv != null) {
+        bv.close();
+      }
+      if (bin != null) {
+        bin.close();
+      }
+      data.close();
+    }
+  }
+
+};
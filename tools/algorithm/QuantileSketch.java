@@ -0,0 +1,259 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.algorithm;
+
+import java.io.*;
+import java.util.Arrays;
+
+/*
+ * Mergeable quantile sketch (KLL style compactors with the same
+ * capacity k on every level).
+ *
+ * Level h holds values of weight 2^h. A full level is sorted and every
+ * other value, from a random offset, moves up one level. That moves
+ * the weighted rank of any value by at most 2^h, so the sum of 2^h
+ * over all the compactions (getRankError) bounds the rank error of
+ * every query. It is a guaranteed bound, about n log2(n/k) / k, while
+ * the random offsets make the error seen in practice much smaller.
+ * Sketches of disjoint samples merge by concatenating the levels; the
+ * bounds add.
+ */
+public class QuantileSketch {
+
+  /* Default level capacity */
+  public static int K = 256;
+
+  int k_;
+  double[][] levels_;
+  int[] sizes_;
+  int numLevels_;
+  long n_;
+  double min_;
+  double max_;
+  long error_;
+  long random_;
+
+  public QuantileSketch() {
+    this(K);
+  }
+
+  public QuantileSketch(int k) {
+    k_ = Math.max(k, 4) & ~1;
+    levels_ = new double[4][];
+    sizes_ = new int[4];
+    numLevels_ = 0;
+    n_ = 0;
+    min_ = Double.POSITIVE_INFINITY;
+    max_ = Double.NEGATIVE_INFINITY;
+    error_ = 0;
+    random_ = 0x9E3779B97F4A7C15L;
+  }
+
+  public long getCount() { return n_; }
+  public long getRankError() { return error_; }
+  public double getMin() { return min_; }
+  public double getMax() { return max_; }
+  public int getK() { return k_; }
+
+  void ensureLevel(int h) {
+    if (h >= levels_.length) {
+      double[][] l = new double[levels_.length * 2][];
+      int[] s = new int[l.length];
+      System.arraycopy(levels_, 0, l, 0, levels_.length);
+      System.arraycopy(sizes_, 0, s, 0, sizes_.length);
+      levels_ = l;
+      sizes_ = s;
+    }
+    if (levels_[h] == null) {
+      levels_[h] = new double[k_];
+    }
+    if (h >= numLevels_) {
+      numLevels_ = h + 1;
+    }
+  }
+
+  void append(int h, double x) {
+    ensureLevel(h);
+    if (sizes_[h] == levels_[h].length) {
+      double[] l = new double[levels_[h].length * 2];
+      System.arraycopy(levels_[h], 0, l, 0, sizes_[h]);
+      levels_[h] = l;
+    }
+    levels_[h][sizes_[h]++] = x;
+  }
+
+  int nextBit() {
+    random_ += 0x9E3779B97F4A7C15L;
+    long z = random_;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return (int) ((z ^ (z >>> 31)) >>> 63);
+  }
+
+  /* Move half of level h to level h+1, one value stays if odd */
+  void compact(int h) {
+    int size = sizes_[h];
+    double[] l = levels_[h];
+    Arrays.sort(l, 0, size);
+    int even = size & ~1;
+    for (int i = nextBit(); i < even; i += 2) {
+      append(h + 1, l[i]);
+    }
+    l = levels_[h];
+    if (even < size) {
+      l[0] = l[size - 1];
+    }
+    sizes_[h] = size - even;
+    error_ += 1L << h;
+  }
+
+  void compress() {
+    for (int h = 0; h < numLevels_; h++) {
+      if (sizes_[h] >= k_) {
+        compact(h);
+      }
+    }
+  }
+
+  public void add(double x) {
+    if (Double.isNaN(x)) {
+      return;
+    }
+    n_++;
+    if (x < min_) {
+      min_ = x;
+    }
+    if (x > max_) {
+      max_ = x;
+    }
+    append(0, x);
+    if (sizes_[0] >= k_) {
+      compress();
+    }
+  }
+
+  /* Add the values of a sketch of other samples */
+  public void merge(QuantileSketch o) {
+    for (int h = 0; h < o.numLevels_; h++) {
+      for (int i = 0; i < o.sizes_[h]; i++) {
+        append(h, o.levels_[h][i]);
+      }
+    }
+    n_ += o.n_;
+    error_ += o.error_;
+    min_ = Math.min(min_, o.min_);
+    max_ = Math.max(max_, o.max_);
+    random_ ^= o.random_;
+    compress();
+  }
+
+  public int size() {
+    int res = 0;
+    for (int h = 0; h < numLevels_; h++) {
+      res += sizes_[h];
+    }
+    return res;
+  }
+
+  /*
+   * Sorted retained values into x and their weights into w (size()
+   * entries each). Returns the number of entries.
+   */
+  public int getItems(double[] x, long[] w) {
+    int m = 0;
+    for (int h = 0; h < numLevels_; h++) {
+      Arrays.sort(levels_[h], 0, sizes_[h]);
+    }
+    int[] pos = new int[numLevels_];
+    while (true) {
+      int best = -1;
+      for (int h = 0; h < numLevels_; h++) {
+        if (pos[h] < sizes_[h] &&
+            (best < 0 || levels_[h][pos[h]] < levels_[best][pos[best]])) {
+          best = h;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      x[m] = levels_[best][pos[best]++];
+      w[m++] = 1L << best;
+    }
+    return m;
+  }
+
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(k_);
+    out.writeLong(n_);
+    out.writeLong(error_);
+    out.writeDouble(min_);
+    out.writeDouble(max_);
+    out.writeLong(random_);
+    out.writeInt(numLevels_);
+    for (int h = 0; h < numLevels_; h++) {
+      out.writeInt(sizes_[h]);
+      for (int i = 0; i < sizes_[h]; i++) {
+        out.writeDouble(levels_[h][i]);
+      }
+    }
+  }
+
+  public static QuantileSketch read(DataInputStream in) throws IOException {
+    QuantileSketch res = new QuantileSketch(in.readInt());
+    res.n_ = in.readLong();
+    res.error_ = in.readLong();
+    res.min_ = in.readDouble();
+    res.max_ = in.readDouble();
+    res.random_ = in.readLong();
+    int numLevels = in.readInt();
+    for (int h = 0; h < numLevels; h++) {
+      int size = in.readInt();
+      res.ensureLevel(h);
+      for (int i = 0; i < size; i++) {
+        res.append(h, in.readDouble());
+      }
+    }
+    return res;
+  }
+
+};
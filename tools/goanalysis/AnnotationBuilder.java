@@ -49,6 +49,7 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Collections;
+import tools.io.SymbolTable;
 
 public class AnnotationBuilder {
   String file_;
@@ -133,21 +134,19 @@ public class AnnotationBuilder {
     }
     return count;
   }
-  public HashSet<String> getGenesFromGoid(String goid) {
-    HashSet<String> genes = new HashSet<String>();
+  /* ObjectIDs annotated to a goid as sorted SymbolTable ids */
+  public int[] getGenesFromGoid(String goid) {
     if (goHash_.containsKey(goid)) {
-        Vector<String> g = goHash_.get(goid);
-        genes.addAll(g);
+        return SymbolTable.getIds(goHash_.get(goid));
     }
-    return genes;
+    return new int[0];
   }
 
   /* Given a set of ObjectIDs returns the corresponding ObjectSymbols */
-  public HashSet<String> findDBObjectSymbols(HashSet<String> genes) {
+  public HashSet<String> findDBObjectSymbols(int[] genes) {
     HashSet<String> res = new HashSet<String>();
-    Iterator<String> e = genes.iterator();
-    while (e.hasNext()) {
-      String gene = (String) e.next();
+    for (int i = 0; i < genes.length; i++) {
+      String gene = SymbolTable.getSymbol(genes[i]);
       if (idSymHash_.containsKey(gene)) {
         Vector<String> set = idSymHash_.get(gene);
         res.addAll(set);
@@ -156,8 +155,8 @@ public class AnnotationBuilder {
     return res;
   }
 
-  /* Given a set of genes returns the corresponding ObjectIDs */
-  public HashSet<String> findDBObjectIDs(Vector<String> genes) {
+  /* Given a set of genes returns the corresponding ObjectIDs as ids */
+  public int[] findDBObjectIDs(Vector<String> genes) {
     Vector<String> res = new  Vector<String>();
     Enumeration<String> e = genes.elements();
     while (e.hasMoreElements()) {
@@ -170,8 +169,7 @@ public class AnnotationBuilder {
         res.add(gene);
       }
     }
-    HashSet<String> set = new HashSet<String>(res);
-    return set;
+    return SymbolTable.getIds(res);
   }
 
   public Enumeration<String> getGOIDs(HashSet<String> genes) {
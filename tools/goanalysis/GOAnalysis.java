@@ -45,6 +45,7 @@ import java.util.*;
 import java.io.*;
 import tools.graphs.*;
 import tools.microarray.GeneSet;
+import tools.io.SymbolTable;
 
 public class GOAnalysis {
   String ontologyFile_;
@@ -55,11 +56,12 @@ public class GOAnalysis {
   AnnotationBuilder annBuilder_;
   Ontology  onnBuilder_;
 
-  HashSet<String> foundGenes_; // tmp variable for the DFS visitor
+  int[] foundGenes_; // tmp variable for the DFS visitor
   Vector<GOTerm> resTerm_;
   int totalGenes_;
   HashSet<String> significantGOIDs_; // tmp variable for the DFS visitor
   HashSet<String> significantGOIDgenes_; // tmp variable for the DFS visitor
+  int[] significantGOIDids_; // tmp variable for the DFS visitor
 
   public GOAnalysis(String ontologyFile, String annotationFile, String org,
     double pval) throws Exception {
@@ -81,7 +83,7 @@ public class GOAnalysis {
         }
         public boolean visit(Graph g, Node v, Node parent) {
             String goid = v.getID();
-            HashSet set = (HashSet) v.getAttribute("geneSets");
+            int[] set = (int[]) v.getAttribute("geneSets");
             if (set == null) {
               set = annBuilder_.getGenesFromGoid(goid);
             }
@@ -90,21 +92,11 @@ public class GOAnalysis {
         }
         public boolean visitAfter(Graph g, Node v, Node parent) {
             Enumeration<Node> e = v.getChildren();
-            HashSet<String> res = new HashSet<String>();
+            int[] res = (int[]) v.getAttribute("geneSets");
             while (e.hasMoreElements()) {
                 Node c = (Node) e.nextElement();
-                HashSet childSet = (HashSet) c.getAttribute("geneSets");
-                Iterator itr = childSet.iterator();
-                while (itr.hasNext()) {
-                    String gene = (String) itr.next();
-                    res.add(gene);
-                }
-            }
-            HashSet set = (HashSet) v.getAttribute("geneSets");
-            Iterator itr = set.iterator();
-            while (itr.hasNext()) {
-                String gene = (String) itr.next();
-                res.add(gene);
+                int[] childSet = (int[]) c.getAttribute("geneSets");
+                res = SymbolTable.union(res, childSet);
             }
             v.setAttribute("geneSets", res);
             return true;
@@ -115,7 +107,7 @@ public class GOAnalysis {
 
   public Vector<GOTerm> getGOTerms(
       Vector<String> geneNames, int totalGenes) {
-    HashSet<String> genes = annBuilder_.findDBObjectIDs(geneNames);
+    int[] genes = annBuilder_.findDBObjectIDs(geneNames);
     return getGOTermsSignificantMultipleCorrection(genes, totalGenes);
   }
 
@@ -157,17 +149,11 @@ public class GOAnalysis {
       }
       public boolean visitAfter(Graph g, Node v, Node parent) {
         String goid = v.getID();
-        HashSet set = (HashSet) v.getAttribute("geneSets");
-        int totalGenesGOID = set.size();
+        int[] set = (int[]) v.getAttribute("geneSets");
+        int totalGenesGOID = set.length;
         int numGenes = totalGenesGOID;
-        HashSet<String> intersection = new HashSet<String>();
-        Iterator itr = set.iterator();
-        while (itr.hasNext()) {
-            String name = (String) itr.next();
-            intersection.add(name);
-        }
-        HashSet<String> syms = annBuilder_.findDBObjectSymbols(intersection);
-        int numGenesGOID = intersection.size();
+        HashSet<String> syms = annBuilder_.findDBObjectSymbols(set);
+        int numGenesGOID = set.length;
         GOTerm term = new GOTerm((DAGNode)v, syms, totalGenes_, 
             totalGenesGOID, numGenes,  numGenesGOID);
         resTerm_.add(term);
@@ -179,9 +165,9 @@ public class GOAnalysis {
   }
 
   public Vector<GOTerm> getGOTermsSignificant(
-      HashSet<String> geneNames, int totalGenes) {
+      int[] geneNames, int totalGenes) {
     resTerm_ = new Vector<GOTerm>();
-    int numGenes = geneNames.size();
+    int numGenes = geneNames.length;
     totalGenes_ = totalGenes;
     if (totalGenes_ < annBuilder_.getNumGenes()) {
       System.out.print(" *Warning: Given Total genes ["+totalGenes_+"] < ");
@@ -200,14 +186,13 @@ public class GOAnalysis {
       }
       public boolean visitAfter(Graph g, Node v, Node parent) {
         String goid = v.getID();
-        HashSet set = (HashSet) v.getAttribute("geneSets");
-        int totalGenesGOID = set.size();
-        int numGenes = foundGenes_.size();
-        HashSet<String> intersection = new HashSet<String>(foundGenes_);
-        intersection.retainAll(set);
-        HashSet<String> syms = annBuilder_.findDBObjectSymbols(intersection);
-        int numGenesGOID = intersection.size();
+        int[] set = (int[]) v.getAttribute("geneSets");
+        int totalGenesGOID = set.length;
+        int numGenes = foundGenes_.length;
+        int[] intersection = SymbolTable.intersect(foundGenes_, set);
+        int numGenesGOID = intersection.length;
         if (numGenesGOID > 1) {
+          HashSet<String> syms = annBuilder_.findDBObjectSymbols(intersection);
           GOTerm term = new GOTerm((DAGNode)v, syms, totalGenes_, 
               totalGenesGOID, numGenes,  numGenesGOID);
           resTerm_.add(term);
@@ -220,31 +205,29 @@ public class GOAnalysis {
   }
 
   // Remove irrelavent GO terms
-  public List<GOTerm> reduceList(HashSet<String> geneNames, List<GOTerm> list) {
+  public List<GOTerm> reduceList(int[] geneNames, List<GOTerm> list) {
     List<GOTerm> list1 = new ArrayList<GOTerm>();
     Iterator<GOTerm> itr = list.iterator();
     while (itr.hasNext()) {
       GOTerm term = (GOTerm) itr.next();
       DAGNode n = term.getDAGNode();
-      HashSet set = (HashSet) n.getAttribute("geneSets");
-      HashSet<String> intersection = new HashSet<String>(geneNames);
-      intersection.retainAll(set);
-      int numGenes = intersection.size();
+      int[] set = (int[]) n.getAttribute("geneSets");
+      int[] intersection = SymbolTable.intersect(geneNames, set);
+      int numGenes = intersection.length;
       int maxCgenes = 0;
       // for comparison with intersection
       Enumeration<Node> e = n.getChildren();
       while (e.hasMoreElements()) {
         Node c = (Node) e.nextElement();
         String c_goid = c.getID();
-        HashSet childSet = (HashSet) c.getAttribute("geneSets");
-        HashSet<String> cint= new HashSet<String>(geneNames);
-        cint.retainAll(childSet);
-        if (maxCgenes < cint.size()) {
-          maxCgenes = cint.size();
+        int[] childSet = (int[]) c.getAttribute("geneSets");
+        int cint = SymbolTable.intersectCount(geneNames, childSet);
+        if (maxCgenes < cint) {
+          maxCgenes = cint;
         }
-        intersection.removeAll(childSet);
+        intersection = SymbolTable.diff(intersection, childSet);
       }
-      if (intersection.size() > 0 || numGenes > 2 * maxCgenes) {
+      if (intersection.length > 0 || numGenes > 2 * maxCgenes) {
         list1.add(term);
       }
     }
@@ -252,7 +235,7 @@ public class GOAnalysis {
   }
 
   public Vector<GOTerm> getGOTermsSignificantMultipleCorrection (
-      HashSet<String> geneNames, int totalGenes) {
+      int[] geneNames, int totalGenes) {
     Vector<GOTerm> terms = getGOTermsSignificant(geneNames, totalGenes);
     List<GOTerm> list = new ArrayList<GOTerm>(terms);
 
@@ -319,7 +302,7 @@ public class GOAnalysis {
     }
     HashSet<String> syms = annBuilder_.findDBObjectSymbols(geneNames);
     syms.removeAll(significantGOIDgenes_);
-    int numGenes = geneNames.size();
+    int numGenes = geneNames.length;
     int numGenesGOID = 0;
     int totalGenesGOID = syms.size();
     DAGNode others = onnBuilder_.getNode("Others");
@@ -336,8 +319,8 @@ public class GOAnalysis {
   public Vector<GOTerm> getGOTermsOld(
         Vector<String> geneNames, int totalGenes) {
     resTerm_ = new Vector<GOTerm>();
-    HashSet<String> genes = annBuilder_.findDBObjectIDs(geneNames);
-    int numGenes = genes.size();
+    int[] genes = annBuilder_.findDBObjectIDs(geneNames);
+    int numGenes = genes.length;
     totalGenes_ = totalGenes;
     if (totalGenes_ < annBuilder_.getNumGenes()) {
         System.out.print(" *Warning: Given Total genes ["+totalGenes_+"] < ");
@@ -346,7 +329,7 @@ public class GOAnalysis {
     }
     foundGenes_ = genes;
     significantGOIDs_ = new HashSet<String>();
-    significantGOIDgenes_ = new HashSet<String>();
+    significantGOIDids_ = new int[0];
     DAGGraph graph = onnBuilder_.getGraph();
     // Traverse the graph
     class GODFSVisitor implements DFSVisitor {
@@ -358,20 +341,19 @@ public class GOAnalysis {
         }
         public boolean visitAfter(Graph g, Node v, Node parent) {
             String goid = v.getID();
-            HashSet set = (HashSet) v.getAttribute("geneSets");
-            int totalGenesGOID = set.size();
-            int numGenes = foundGenes_.size();
-            HashSet<String> intersection = new HashSet<String>(foundGenes_);
-            intersection.retainAll(set);
+            int[] set = (int[]) v.getAttribute("geneSets");
+            int totalGenesGOID = set.length;
+            int numGenes = foundGenes_.length;
+            int[] intersection = SymbolTable.intersect(foundGenes_, set);
             HashSet<String> syms = annBuilder_.findDBObjectSymbols(intersection);
             int numGenesGOID = syms.size();
-            int numIds = intersection.size();
+            int numIds = intersection.length;
             if (numGenesGOID > 1) {
               boolean include = true;
               Vector<Integer> score = new Vector<Integer>();
               int sum = numGenesGOID;
               // for comparison with intersection
-              HashSet<String> down = new HashSet<String>();
+              int[] down = new int[0];
               boolean significantChild = false;
               score.add(new Integer(numGenesGOID));
               Enumeration<Node> e1 = v.getChildren();
@@ -379,11 +361,10 @@ public class GOAnalysis {
               while (e1.hasMoreElements()) {
                   Node c = (Node) e1.nextElement();
                   String c_goid = c.getID();
-                  HashSet childSet = (HashSet) c.getAttribute("geneSets");
-                  HashSet<String> intersect= new HashSet<String>(foundGenes_);
-                  intersect.retainAll(childSet);
-                  down.addAll(intersect);
-                  int n = intersect.size();
+                  int[] childSet = (int[]) c.getAttribute("geneSets");
+                  int[] intersect = SymbolTable.intersect(foundGenes_, childSet);
+                  down = SymbolTable.union(down, intersect);
+                  int n = intersect.length;
                   sum +=n;
                   score.add(new Integer(n));
                   System.out.print(" " + n);
@@ -405,15 +386,16 @@ public class GOAnalysis {
                     infoscore += -(c*1.0/sum) * Math.log(c*1.0/sum)/Math.log(2);
                   }
               }
-              if (significantChild && down.size() == numIds) {
+              if (significantChild && down.length == numIds) {
                 include = false;
               }
-              System.out.println("#genes : " + down.size() + " " + numIds +
+              System.out.println("#genes : " + down.length + " " + numIds +
                   " " + infoscore + " " +
                   Math.log(score.size())/Math.log(2));
               if (include) {
                 significantGOIDs_.add(goid);
-                significantGOIDgenes_.addAll(intersection);
+                significantGOIDids_ = SymbolTable.union(significantGOIDids_,
+                    intersection);
                 GOTerm term = new GOTerm((DAGNode)v, syms, totalGenes_, 
                     totalGenesGOID, numGenes,  numGenesGOID);
                 if (term.getPvalue() < pvalueThr_) {
@@ -427,7 +409,7 @@ public class GOAnalysis {
     };
     graph.traverseDFS(new GODFSVisitor());
     // Construct others
-    foundGenes_.removeAll(significantGOIDgenes_);
+    foundGenes_ = SymbolTable.diff(foundGenes_, significantGOIDids_);
     HashSet<String> syms = annBuilder_.findDBObjectSymbols(foundGenes_);
     int numGenesGOID = syms.size();
     int totalGenesGOID = syms.size();
@@ -549,7 +531,7 @@ public class GOAnalysis {
     while(itr1.hasNext()) {
       String str1 = (String) itr1.next();
       out.write("\t" + str1);
-      HashSet<String> set1 = geneSet.getSet(str1);
+      Set<String> set1 = geneSet.getSet(str1);
       Vector<String> strSet = new Vector<String>(set1);
       for (int k = 0; k < strSet.size(); k++) {
         System.out.println("["+strSet.get(k)+"]");
@@ -603,7 +585,7 @@ public class GOAnalysis {
       String str1 = (String) itr1.next();
       out.write(str1 + "\n");
       System.out.println("["+str1+"]");
-      HashSet<String> set1 = geneSet.getSet(str1);
+      Set<String> set1 = geneSet.getSet(str1);
       Vector<String> strSet = new Vector<String>(set1);
       /*
       for (int k = 0; k < strSet.size(); k++) {
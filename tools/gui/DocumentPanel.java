@@ -119,6 +119,8 @@ implements ActionListener {
       data.setGeneNameScheme(getGeneNameScheme());
       String type = (String) settings.getOption("Type");
       Double pvalue = (Double) settings.getOption("pvalue");
+      Integer threads = (Integer) settings.getOption("threads");
+      StepMiner.NUM_THREADS = threads.intValue();
       sm = new StepMiner(data);
       if (type.startsWith("OneStep")) {
         sm.setOneStepAnalysis();
@@ -74,6 +74,7 @@ public class SMSettings {
     options.put("Type", "TwoStep");
     options.put("numMissing", new Integer(0));
     options.put("pvalue", new Double(0.05));
+    options.put("threads", new Integer(1));
 
     options.put("Organism", "Hs");
     options.put("geneIndex", new Integer(1));
@@ -482,6 +483,7 @@ public class SMSettings {
       JComboBox typeList;
       JTextField numMissing;
       JTextField pvalue;
+      JTextField threads;
 
       String[] typeStrings;
 
@@ -525,6 +527,28 @@ public class SMSettings {
         add(Box.createHorizontalStrut(10));
         add(new JLabel("pvalue :"));
         add(pvalue);
+
+        threads = new JTextField();
+        threads.setColumns(2);
+        threads.setText("" + options.get("threads"));
+        threads.addActionListener(this);
+        threads.getDocument().addDocumentListener(this);
+        add(Box.createHorizontalStrut(10));
+        add(new JLabel("threads:"));
+        add(threads);
+      }
+
+      public void updateThreads() {
+        int num = 1;
+        try {
+          num = Integer.parseInt(threads.getText());
+        }
+        catch(Exception e1) {
+        }
+        if (num < 1) {
+          num = 1;
+        }
+        options.put("threads", new Integer(num));
       }
 
       /**
@@ -553,6 +577,9 @@ public class SMSettings {
           }
           options.put("pvalue", new Double(pval));
         }
+        if (e.getSource().equals(threads)) {
+          updateThreads();
+        }
       }
       /**
        *  Respond to any change in document
@@ -576,6 +603,9 @@ public class SMSettings {
           }
           options.put("numMissing", new Integer(num));
         }
+        if (e.getDocument().equals(threads.getDocument())) {
+          updateThreads();
+        }
       }
       public void insertUpdate(DocumentEvent e) {
         changedUpdate(e);
@@ -0,0 +1,157 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.io;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Read-ahead of row blocks for block-sequential analyses.
+ *
+ * The whole block access order is given up front. A background thread
+ * loads the blocks in that order while the caller computes on the
+ * previous one: one block is in the caller's hands and at most one
+ * finished block waits in the queue (double buffering).
+ *
+ * The loader is only called from the prefetch thread, so the underlying
+ * reader must not be used by the caller until close().
+ */
+public class BlockPrefetcher<T> implements Runnable {
+
+  public interface Loader<T> {
+    public T load(long start, int size) throws IOException;
+  }
+
+  static final Object EMPTY = new Object();
+
+  Loader<T> loader_;
+  long[] order_;
+  int size_;
+  int next_;
+  ArrayBlockingQueue<Object> queue_;
+  Thread thread_;
+  volatile boolean stop_;
+
+  public BlockPrefetcher(Loader<T> loader, long[] order, int size) {
+    loader_ = loader;
+    order_ = order;
+    size_ = size;
+    next_ = 0;
+    queue_ = new ArrayBlockingQueue<Object>(1);
+    stop_ = false;
+  }
+
+  public void start() {
+    thread_ = new Thread(this, "BlockPrefetcher");
+    thread_.setDaemon(true);
+    thread_.start();
+  }
+
+  public void run() {
+    try {
+      for (int i = 0; i < order_.length && !stop_; i++) {
+        T block = loader_.load(order_[i], size_);
+        queue_.put(block == null ? EMPTY : block);
+      }
+    }
+    catch (InterruptedException e) {
+      // closed
+    }
+    catch (Throwable e) {
+      try {
+        queue_.put(e);
+      }
+      catch (InterruptedException e1) {
+      }
+    }
+  }
+
+  public boolean hasNext() {
+    return next_ < order_.length;
+  }
+
+  /**
+   * Next block in the planned order; null if the loader returned null.
+   */
+  @SuppressWarnings("unchecked")
+  public T next() throws IOException {
+    if (thread_ == null) {
+      start();
+    }
+    if (next_ >= order_.length) {
+      return null;
+    }
+    next_++;
+    Object obj;
+    try {
+      obj = queue_.take();
+    }
+    catch (InterruptedException e) {
+      throw new IOException("Prefetch interrupted");
+    }
+    if (obj == EMPTY) {
+      return null;
+    }
+    if (obj instanceof IOException) {
+      throw (IOException) obj;
+    }
+    if (obj instanceof Throwable) {
+      IOException e = new IOException("Prefetch failed : " + obj);
+      e.initCause((Throwable) obj);
+      throw e;
+    }
+    return (T) obj;
+  }
+
+  public void close() {
+    stop_ = true;
+    if (thread_ != null) {
+      thread_.interrupt();
+      try {
+        thread_.join();
+      }
+      catch (InterruptedException e) {
+      }
+    }
+  }
+
+};
@@ -0,0 +1,214 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.io;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sort of text records (lines) within a memory budget.
+ *
+ * Records are collected until about MEMORY bytes, then sorted and
+ * written as a run to a temporary file. finish() merges the runs (or
+ * sorts in memory if nothing was spilled); next() returns the records
+ * in order and null at the end. Records must not contain newlines.
+ */
+public class ExternalSort {
+
+  public static long MEMORY = 256L << 20;
+
+  Comparator<String> comparator_;
+  long memory_;
+  ArrayList<String> buffer_;
+  long bytes_;
+  LinkedList<File> runs_;
+
+  // Merge state
+  PriorityQueue<Run> queue_;
+  Iterator<String> memoryItr_;
+
+  class Run {
+    BufferedReader reader_;
+    String current_;
+
+    Run(File f) throws IOException {
+      reader_ = new BufferedReader(new FileReader(f), 1 << 16);
+      current_ = reader_.readLine();
+    }
+
+    void advance() throws IOException {
+      current_ = reader_.readLine();
+      if (current_ == null) {
+        reader_.close();
+      }
+    }
+  };
+
+  public ExternalSort(Comparator<String> c) {
+    this(c, MEMORY);
+  }
+
+  public ExternalSort(Comparator<String> c, long memory) {
+    comparator_ = c;
+    memory_ = memory;
+    buffer_ = new ArrayList<String>();
+    bytes_ = 0;
+    runs_ = new LinkedList<File>();
+  }
+
+  public int getNumRuns() { return runs_.size(); }
+
+  public void add(String record) throws IOException {
+    buffer_.add(record);
+    bytes_ += 2 * record.length() + 64; // chars + object overhead
+    if (bytes_ >= memory_) {
+      spill();
+    }
+  }
+
+  void spill() throws IOException {
+    Collections.sort(buffer_, comparator_);
+    File f = File.createTempFile("sort", ".run");
+    f.deleteOnExit();
+    BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16);
+    for (int i = 0; i < buffer_.size(); i++) {
+      out.write(buffer_.get(i));
+      out.write('\n');
+    }
+    out.close();
+    runs_.add(f);
+    buffer_ = new ArrayList<String>();
+    bytes_ = 0;
+  }
+
+  public void finish() throws IOException {
+    if (runs_.size() == 0) {
+      Collections.sort(buffer_, comparator_);
+      memoryItr_ = buffer_.iterator();
+      return;
+    }
+    if (buffer_.size() > 0) {
+      spill();
+    }
+    final Comparator<String> c = comparator_;
+    queue_ = new PriorityQueue<Run>(runs_.size(), new Comparator<Run>() {
+      public int compare(Run a, Run b) {
+        return c.compare(a.current_, b.current_);
+      }
+    });
+    ListIterator<File> itr = runs_.listIterator();
+    while (itr.hasNext()) {
+      Run r = new Run(itr.next());
+      if (r.current_ != null) {
+        queue_.add(r);
+      }
+    }
+  }
+
+  public String next() throws IOException {
+    if (memoryItr_ != null) {
+      if (memoryItr_.hasNext()) {
+        return memoryItr_.next();
+      }
+      return null;
+    }
+    Run r = queue_.poll();
+    if (r == null) {
+      return null;
+    }
+    String res = r.current_;
+    r.advance();
+    if (r.current_ != null) {
+      queue_.add(r);
+    }
+    return res;
+  }
+
+  public void close() throws IOException {
+    if (queue_ != null) {
+      while (queue_.size() > 0) {
+        queue_.poll().reader_.close();
+      }
+    }
+    ListIterator<File> itr = runs_.listIterator();
+    while (itr.hasNext()) {
+      itr.next().delete();
+    }
+    runs_.clear();
+    buffer_ = null;
+    memoryItr_ = null;
+  }
+
+  /**
+   * Orders records by the first two tab separated fields : the first as
+   * a String, the second as a fixed width (e.g. hex) sequence number.
+   */
+  public static class KeyComparator implements Comparator<String> {
+    public int compare(String a, String b) {
+      int ia = a.indexOf('\t');
+      int ib = b.indexOf('\t');
+      int c = compare(a, 0, ia, b, 0, ib);
+      if (c != 0) {
+        return c;
+      }
+      int ja = a.indexOf('\t', ia + 1);
+      int jb = b.indexOf('\t', ib + 1);
+      if (ja < 0) { ja = a.length(); }
+      if (jb < 0) { jb = b.length(); }
+      return compare(a, ia + 1, ja, b, ib + 1, jb);
+    }
+
+    static int compare(String a, int sa, int ea, String b, int sb, int eb) {
+      int n = Math.min(ea - sa, eb - sb);
+      for (int i = 0; i < n; i++) {
+        char x = a.charAt(sa + i);
+        char y = b.charAt(sb + i);
+        if (x != y) {
+          return x - y;
+        }
+      }
+      return (ea - sa) - (eb - sb);
+    }
+  };
+
+};
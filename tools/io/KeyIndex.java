@@ -0,0 +1,191 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.io;
+
+/**
+ * String keys interned to dense ids with the rows of each key.
+ *
+ * Keys live in one open addressing table (int slots, no boxing); each
+ * key gets the next id. Rows added under a key are chained in insertion
+ * order through int arrays : first(id), next(row), -1 at the end.
+ * Rows are numbered by the caller and must be added in increasing order.
+ * null is a key like any other (as in a HashMap).
+ */
+public class KeyIndex {
+
+  String[] keys_;   // id -> key
+  int[] hashes_;    // id -> hash
+  int[] table_;     // slot -> id + 1, 0 = empty
+  int size_;
+  int[] first_;     // id -> first row
+  int[] last_;      // id -> last row
+  int[] next_;      // row -> next row of the same key
+  int numRows_;
+
+  public KeyIndex() {
+    this(1024);
+  }
+
+  public KeyIndex(int capacity) {
+    int n = 16;
+    while (n < capacity * 2) {
+      n <<= 1;
+    }
+    table_ = new int[n];
+    keys_ = new String[n / 2];
+    hashes_ = new int[n / 2];
+    first_ = new int[n / 2];
+    last_ = new int[n / 2];
+    next_ = new int[n / 2];
+    size_ = 0;
+    numRows_ = 0;
+  }
+
+  public int size() { return size_; }
+  public int getNumRows() { return numRows_; }
+  public String getKey(int id) { return keys_[id]; }
+
+  static int hash(String s) {
+    if (s == null) {
+      return 0;
+    }
+    int h = s.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  static boolean same(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+  /* id of a key, -1 if absent */
+  public int getId(String key) {
+    int h = hash(key);
+    int mask = table_.length - 1;
+    for (int slot = h & mask; table_[slot] != 0; slot = (slot + 1) & mask) {
+      int id = table_[slot] - 1;
+      if (hashes_[id] == h && same(keys_[id], key)) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  public boolean contains(String key) {
+    return getId(key) >= 0;
+  }
+
+  /* id of a key, added if absent */
+  public int intern(String key) {
+    int h = hash(key);
+    int mask = table_.length - 1;
+    int slot = h & mask;
+    for (; table_[slot] != 0; slot = (slot + 1) & mask) {
+      int id = table_[slot] - 1;
+      if (hashes_[id] == h && same(keys_[id], key)) {
+        return id;
+      }
+    }
+    if (size_ >= keys_.length) {
+      rehash(table_.length * 2);
+      return intern(key);
+    }
+    int id = size_++;
+    keys_[id] = key;
+    hashes_[id] = h;
+    first_[id] = -1;
+    last_[id] = -1;
+    table_[slot] = id + 1;
+    return id;
+  }
+
+  /* Add a row under a key; returns the key id */
+  public int add(String key, int row) {
+    int id = intern(key);
+    if (row >= next_.length) {
+      int[] n = new int[Math.max(row + 1, next_.length * 2)];
+      System.arraycopy(next_, 0, n, 0, next_.length);
+      next_ = n;
+    }
+    next_[row] = -1;
+    if (first_[id] < 0) {
+      first_[id] = row;
+    }
+    else {
+      next_[last_[id]] = row;
+    }
+    last_[id] = row;
+    if (row >= numRows_) {
+      numRows_ = row + 1;
+    }
+    return id;
+  }
+
+  public int first(int id) { return first_[id]; }
+  public int next(int row) { return next_[row]; }
+
+  void rehash(int n) {
+    int m = n / 2;
+    String[] keys = new String[m];
+    int[] hashes = new int[m];
+    int[] first = new int[m];
+    int[] last = new int[m];
+    System.arraycopy(keys_, 0, keys, 0, size_);
+    System.arraycopy(hashes_, 0, hashes, 0, size_);
+    System.arraycopy(first_, 0, first, 0, size_);
+    System.arraycopy(last_, 0, last, 0, size_);
+    keys_ = keys;
+    hashes_ = hashes;
+    first_ = first;
+    last_ = last;
+    table_ = new int[n];
+    int mask = n - 1;
+    for (int id = 0; id < size_; id++) {
+      int slot = hashes_[id] & mask;
+      while (table_[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table_[slot] = id + 1;
+    }
+  }
+
+};
@@ -0,0 +1,373 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.io;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Compiled binary form of the .idx and .thr files used by NetworkInfo.
+ * The file is memory mapped; lookups read the mapped buffer directly
+ * and do not allocate.
+ *
+ * Layout (big endian):
+ *   int magic, int version, int n, int m, int numThr, long poolSize
+ *   long[n]  file pointers
+ *   int[n]   id offsets into the string pool
+ *   int[n]   name offsets into the string pool
+ *   int[m]   open addressing table on upper case id   (entry+1, 0=empty)
+ *   int[m]   open addressing table on upper case name (entry+1, 0=empty)
+ *   double[numThr * 4] thr, stat, low thr, high thr (NaN if missing)
+ *   string pool : unsigned short length followed by UTF-8 bytes
+ */
+public class NetworkIndex {
+
+  public static final int MAGIC = 0x424E4958; // BNIX
+  public static final int VERSION = 1;
+  static final int HEADER_SIZE = 28;
+
+  MappedByteBuffer buf_;
+  int n_, m_, numThr_;
+  int ptrStart_, idStart_, nameStart_;
+  int idHashStart_, nameHashStart_, thrStart_, poolStart_;
+
+  public NetworkIndex(String file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    FileChannel ch = raf.getChannel();
+    if (ch.size() > Integer.MAX_VALUE) {
+      raf.close();
+      throw new IOException("Index too large : " + file);
+    }
+    buf_ = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    raf.close();
+    if (buf_.getInt(0) != MAGIC || buf_.getInt(4) != VERSION) {
+      throw new IOException("Not a network index : " + file);
+    }
+    n_ = buf_.getInt(8);
+    m_ = buf_.getInt(12);
+    numThr_ = buf_.getInt(16);
+    ptrStart_ = HEADER_SIZE;
+    idStart_ = ptrStart_ + 8 * n_;
+    nameStart_ = idStart_ + 4 * n_;
+    idHashStart_ = nameStart_ + 4 * n_;
+    nameHashStart_ = idHashStart_ + 4 * m_;
+    thrStart_ = nameHashStart_ + 4 * m_;
+    poolStart_ = thrStart_ + 32 * numThr_;
+  }
+
+  public int getNumEntries() { return n_; }
+  public boolean hasEntries() { return n_ > 0; }
+  public boolean hasThresholds() { return numThr_ > 0; }
+
+  public long getFilePointer(long index) {
+    return buf_.getLong(ptrStart_ + 8 * (int) index);
+  }
+
+  public String getId(long index) {
+    return getString(buf_.getInt(idStart_ + 4 * (int) index));
+  }
+
+  public String getName(long index) {
+    return getString(buf_.getInt(nameStart_ + 4 * (int) index));
+  }
+
+  /**
+   * k = 0 : thr, 1 : stat, 2 : low thr, 3 : high thr
+   */
+  public double getThreshold(long index, int k) {
+    if (index < 0 || index >= numThr_) {
+      return Double.NaN;
+    }
+    return buf_.getDouble(thrStart_ + 32 * (int) index + 8 * k);
+  }
+
+  public boolean hasThreshold(long index) {
+    return !Double.isNaN(getThreshold(index, 0));
+  }
+
+  /**
+   * Case insensitive search on id, then on name. Returns the first
+   * matching entry or -1.
+   */
+  public long findIndex(String key) {
+    long res = find(idHashStart_, idStart_, key);
+    if (res < 0) {
+      res = find(nameHashStart_, nameStart_, key);
+    }
+    return res;
+  }
+
+  public long findById(String key) {
+    return find(idHashStart_, idStart_, key);
+  }
+
+  public long findByName(String key) {
+    return find(nameHashStart_, nameStart_, key);
+  }
+
+  long find(int table, int offsets, String key) {
+    if (m_ == 0) {
+      return -1;
+    }
+    if (!isAscii(key)) {
+      key = key.toUpperCase();
+    }
+    int mask = m_ - 1;
+    int slot = hashUpper(key) & mask;
+    while (true) {
+      int e = buf_.getInt(table + 4 * slot);
+      if (e == 0) {
+        return -1;
+      }
+      int off = buf_.getInt(offsets + 4 * (e - 1));
+      if (equalsUpper(off, key)) {
+        return e - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  String getString(int off) {
+    int p = poolStart_ + off;
+    int len = buf_.getShort(p) & 0xffff;
+    byte[] b = new byte[len];
+    for (int i = 0; i < len; i++) {
+      b[i] = buf_.get(p + 2 + i);
+    }
+    try {
+      return new String(b, "UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      return new String(b);
+    }
+  }
+
+  boolean equalsUpper(int off, String key) {
+    int p = poolStart_ + off;
+    int len = buf_.getShort(p) & 0xffff;
+    if (len != key.length()) {
+      if (isAscii(key)) {
+        return false;
+      }
+    }
+    for (int i = 0; i < len; i++) {
+      if (buf_.get(p + 2 + i) < 0) {
+        // Non ASCII entry
+        return getString(off).toUpperCase().equals(key.toUpperCase());
+      }
+    }
+    if (len != key.length()) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      char c = (char) buf_.get(p + 2 + i);
+      if (Character.toUpperCase(c) != Character.toUpperCase(key.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Hash of the upper case key, same as hash(key.toUpperCase()) */
+  static int hashUpper(String s) {
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      h = 31 * h + Character.toUpperCase(s.charAt(i));
+    }
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return h;
+  }
+
+  public HashMap<Long, Long> getLineMap() {
+    HashMap<Long, Long> res = new HashMap<Long, Long>();
+    for (int i = 0; i < n_; i++) {
+      res.put(new Long(i), new Long(getFilePointer(i)));
+    }
+    return res;
+  }
+
+  /**
+   * Build a compiled index from an .idx file and/or a .thr file.
+   * Either file may be null.
+   */
+  public static void build(String idxFile, String thrFile, String ofile)
+    throws IOException {
+    Vector<String> ids = new Vector<String>();
+    Vector<String> names = new Vector<String>();
+    Vector<Long> ptrs = new Vector<Long>();
+    if (idxFile != null) {
+      System.out.println("Reading " + idxFile);
+      BufferedReader reader = NetworkInfo.getReader(idxFile);
+      String record = reader.readLine(); // Header
+      while (record != null) {
+        record = reader.readLine();
+        if (record == null) {
+          break;
+        }
+        String[] result = record.split("\\t", -2);
+        ids.add(result[0]);
+        names.add(result[1]);
+        ptrs.add(new Long(Long.parseLong(result[2])));
+      }
+      reader.close();
+    }
+    HashMap<Long, double[]> thr = new HashMap<Long, double[]>();
+    long maxThr = -1;
+    if (thrFile != null) {
+      System.out.println("Reading " + thrFile);
+      BufferedReader reader = NetworkInfo.getReader(thrFile);
+      String record = reader.readLine();
+      while (record != null) {
+        String[] result = record.split("\\t", -2);
+        long index = Long.parseLong(result[0]);
+        double[] v = new double[4];
+        for (int k = 0; k < 4; k++) {
+          v[k] = Double.parseDouble(result[k + 1]);
+        }
+        thr.put(new Long(index), v);
+        if (index > maxThr) {
+          maxThr = index;
+        }
+        record = reader.readLine();
+      }
+      reader.close();
+    }
+
+    int n = ids.size();
+    int m = 0;
+    if (n > 0) {
+      m = 1;
+      while (m < 2 * n) {
+        m <<= 1;
+      }
+    }
+    ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    DataOutputStream pout = new DataOutputStream(pool);
+    int[] idOff = new int[n];
+    int[] nameOff = new int[n];
+    for (int i = 0; i < n; i++) {
+      idOff[i] = pout.size();
+      writeString(pout, ids.get(i));
+      nameOff[i] = pout.size();
+      writeString(pout, names.get(i));
+    }
+    pout.flush();
+    int[] idTable = buildTable(ids, m);
+    int[] nameTable = buildTable(names, m);
+    int numThr = (int) (maxThr + 1);
+
+    System.out.println("Writing " + ofile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(ofile), 1 << 20));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(n);
+    out.writeInt(m);
+    out.writeInt(numThr);
+    out.writeLong(pool.size());
+    for (int i = 0; i < n; i++) {
+      out.writeLong(ptrs.get(i).longValue());
+    }
+    for (int i = 0; i < n; i++) {
+      out.writeInt(idOff[i]);
+    }
+    for (int i = 0; i < n; i++) {
+      out.writeInt(nameOff[i]);
+    }
+    for (int i = 0; i < m; i++) {
+      out.writeInt(idTable[i]);
+    }
+    for (int i = 0; i < m; i++) {
+      out.writeInt(nameTable[i]);
+    }
+    for (int i = 0; i < numThr; i++) {
+      double[] v = thr.get(new Long(i));
+      for (int k = 0; k < 4; k++) {
+        out.writeDouble(v == null ? Double.NaN : v[k]);
+      }
+    }
+    pool.writeTo(out);
+    out.close();
+    System.out.println("Done : " + n + " entries, " + thr.size() + 
+        " thresholds");
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] b = s.getBytes("UTF-8");
+    int len = Math.min(b.length, 0xffff);
+    out.writeShort(len);
+    out.write(b, 0, len);
+  }
+
+  /* Only the first entry of a key is inserted (see getIndexByName) */
+  static int[] buildTable(Vector<String> keys, int m) {
+    int[] table = new int[m];
+    HashSet<String> seen = new HashSet<String>();
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i).toUpperCase();
+      if (seen.contains(key)) {
+        continue;
+      }
+      seen.add(key);
+      int slot = hashUpper(key) & (m - 1);
+      while (table[slot] != 0) {
+        slot = (slot + 1) & (m - 1);
+      }
+      table[slot] = i + 1;
+    }
+    return table;
+  }
+
+};
@@ -132,6 +132,8 @@ public class NetworkInfo {
   HashMap<Long, String> revidhash_;
   HashMap<Long, String> revnamehash_;
   HashMap<Long, Vector<Double> > thrhash_;
+  NetworkIndex index_;    // compiled .idx (see NetworkIndex)
+  NetworkIndex thrIndex_; // compiled .thr
   Vector<String> header_;
   HashMap<String, Integer> headerHash_;
   BufferedRandomAccessFile pclReader_;
@@ -145,9 +147,38 @@ public class NetworkInfo {
     readFileIndex(bvidx_file);
   }
 
-  public HashMap<Long, Long> getLineMap() { return revptrhash_; }
+  public HashMap<Long, Long> getLineMap() {
+    if (index_ != null) {
+      return index_.getLineMap();
+    }
+    return revptrhash_;
+  }
+
+  /*
+   * The compiled form of a file is the same name followed by "b"
+   * (eg. .idxb, .thrb), built with NetworkIndex.build.
+   */
+  public static String getCompiledFile(String file) {
+    if (file == null || file.startsWith("http:")) {
+      return null;
+    }
+    String res = file + "b";
+    File f = new File(res);
+    if (f.exists() && f.lastModified() >= new File(file).lastModified()) {
+      return res;
+    }
+    return null;
+  }
 
   public void readFileIndex(String file) throws IOException {
+    String cfile = getCompiledFile(file);
+    if (cfile != null) {
+      index_ = new NetworkIndex(cfile);
+      if (index_.hasEntries()) {
+        return;
+      }
+    }
+    index_ = null;
     BufferedReader reader = getReader(file);
     String record = reader.readLine(); // Header
 
@@ -189,6 +220,14 @@ public class NetworkInfo {
   }
 
   public void readThresholds() throws Exception {
+    String cfile = getCompiledFile(thr_file);
+    if (cfile != null) {
+      thrIndex_ = new NetworkIndex(cfile);
+      if (thrIndex_.hasThresholds()) {
+        return;
+      }
+    }
+    thrIndex_ = null;
     BufferedReader reader = getReader(thr_file);
 
     thrhash_ = new HashMap<Long, Vector<Double> >();
@@ -299,6 +338,13 @@ public class NetworkInfo {
   }
 
   public Long getIndexByName(String id) throws IOException {
+    if (index_ != null) {
+      long index = index_.findIndex(id);
+      if (index < 0) {
+        return null;
+      }
+      return new Long(index);
+    }
     if (idhash_.containsKey(id.toUpperCase())) {
       Long index = idhash_.get(id.toUpperCase()).getFirst();
       return index;
@@ -311,18 +357,40 @@ public class NetworkInfo {
   }
 
   public long getFilePointer(Long index) {
+    if (index_ != null) {
+      return index_.getFilePointer(index.longValue());
+    }
     return revptrhash_.get(index).longValue();
   }
 
+  /*
+   * k = 0 : thr, 1 : stat, 2 : low thr, 3 : high thr
+   */
+  public double getThreshold(long index, int k) {
+    if (thrIndex_ != null) {
+      return thrIndex_.getThreshold(index, k);
+    }
+    return thrhash_.get(new Long(index)).get(k).doubleValue();
+  }
+
   public Double getThresholdByIndex(Long index) {
+    if (thrIndex_ != null) {
+      return new Double(getThreshold(index.longValue(), 0));
+    }
     return thrhash_.get(index).get(0);
   }
 
   public Double getUpperThresholdByIndex(Long index) {
+    if (thrIndex_ != null) {
+      return new Double(getThreshold(index.longValue(), 3));
+    }
     return thrhash_.get(index).get(3);
   }
 
   public Double getLowerThresholdByIndex(Long index) {
+    if (thrIndex_ != null) {
+      return new Double(getThreshold(index.longValue(), 2));
+    }
     return thrhash_.get(index).get(2);
   }
 
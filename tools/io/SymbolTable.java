@@ -0,0 +1,162 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.io;
+
+import java.util.*;
+
+/**
+ * Process wide table of identifiers (gene names, annotation object ids).
+ *
+ * Every distinct String gets a dense int id, so sets of identifiers
+ * can be kept as sorted int[] and combined with integer merges instead
+ * of String hashing. Only identifiers that are turned into ids are
+ * added to the table.
+ */
+public class SymbolTable {
+
+  static KeyIndex table_ = new KeyIndex(1 << 16);
+
+  /* id of a symbol, added if absent; -1 for null */
+  public static synchronized int getId(String s) {
+    if (s == null) {
+      return -1;
+    }
+    return table_.intern(s);
+  }
+
+  public static synchronized String getSymbol(int id) {
+    return table_.getKey(id);
+  }
+
+  /* Sorted unique ids of a collection of symbols */
+  public static int[] getIds(Collection<String> c) {
+    int[] res = new int[c.size()];
+    int n = 0;
+    Iterator<String> itr = c.iterator();
+    while (itr.hasNext()) {
+      int id = getId(itr.next());
+      if (id >= 0) {
+        res[n++] = id;
+      }
+    }
+    return unique(res, n);
+  }
+
+  /* Sort the first n ids and remove duplicates */
+  static int[] unique(int[] a, int n) {
+    Arrays.sort(a, 0, n);
+    int m = 0;
+    for (int i = 0; i < n; i++) {
+      if (m == 0 || a[m-1] != a[i]) {
+        a[m++] = a[i];
+      }
+    }
+    if (m == a.length) {
+      return a;
+    }
+    int[] res = new int[m];
+    System.arraycopy(a, 0, res, 0, m);
+    return res;
+  }
+
+  /*
+   * Set operations on sorted unique id arrays.
+   */
+  public static int intersectCount(int[] a, int[] b) {
+    int count = 0;
+    int i = 0, j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) { i++; }
+      else if (a[i] > b[j]) { j++; }
+      else { count++; i++; j++; }
+    }
+    return count;
+  }
+
+  public static int[] intersect(int[] a, int[] b) {
+    int[] res = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    int i = 0, j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) { i++; }
+      else if (a[i] > b[j]) { j++; }
+      else { res[n++] = a[i]; i++; j++; }
+    }
+    return unique(res, n);
+  }
+
+  public static int[] union(int[] a, int[] b) {
+    int[] res = new int[a.length + b.length];
+    int n = 0;
+    int i = 0, j = 0;
+    while (i < a.length || j < b.length) {
+      if (j >= b.length || (i < a.length && a[i] < b[j])) {
+        res[n++] = a[i++];
+      }
+      else if (i >= a.length || a[i] > b[j]) {
+        res[n++] = b[j++];
+      }
+      else {
+        res[n++] = a[i]; i++; j++;
+      }
+    }
+    return unique(res, n);
+  }
+
+  /* a - b */
+  public static int[] diff(int[] a, int[] b) {
+    int[] res = new int[a.length];
+    int n = 0;
+    int j = 0;
+    for (int i = 0; i < a.length; i++) {
+      while (j < b.length && b[j] < a[i]) {
+        j++;
+      }
+      if (j >= b.length || b[j] != a[i]) {
+        res[n++] = a[i];
+      }
+    }
+    return unique(res, n);
+  }
+
+};
@@ -0,0 +1,276 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.io;
+
+import java.io.*;
+import java.util.*;
+
+import tools.microarray.GeneData;
+import tools.microarray.FileReader.TABFileReader;
+import tools.microarray.FileWriter.NumberWriter;
+import tools.microarray.FileWriter.PCLFileWriter;
+
+/**
+ * Join of two tab separated tables on the first column (whitespace
+ * removed). Every row of the first table is followed by the columns
+ * 1.. of each matching row of the second table, in file order.
+ *
+ * Up to MEMORY bytes the second table is kept in memory with its keys
+ * in a KeyIndex. Larger tables are joined by sort-merge : both sides
+ * are sorted on (key, line) with ExternalSort, merged, and the joined
+ * lines sorted back into the order of the first table. Memory use is
+ * then bounded by the budget and the largest group of one key.
+ */
+public class TableJoin {
+
+  public static long MEMORY = 256L << 20;
+
+  public static String getKey(Object id) {
+    if (id == null) {
+      return null;
+    }
+    return ((String) id).replaceAll("\\s", "");
+  }
+
+  /* Columns start.. of a row as written by PCLFileWriter */
+  static String toText(GeneData gene, int start) {
+    StringBuffer sb = new StringBuffer();
+    for (int i = start; i < gene.size(); i++) {
+      if (i > start) {
+        sb.append('\t');
+      }
+      Object o = gene.getDataAt(i);
+      sb.append(o == null ? " " : o.toString());
+    }
+    return sb.toString();
+  }
+
+  static String seq(long n) {
+    String s = Long.toHexString(n);
+    return "0000000000000000".substring(s.length()) + s;
+  }
+
+  static long getSize(String file) {
+    if (file.startsWith("http:")) {
+      return 0;
+    }
+    long size = new File(file).length();
+    if (file.endsWith(".gz")) {
+      size *= 4;
+    }
+    return size;
+  }
+
+  public static void intersect(String file1, String file2, String ofile)
+    throws IOException {
+    if (getSize(file2) > MEMORY) {
+      intersectExternal(file1, file2, ofile);
+    }
+    else {
+      intersectMemory(file1, file2, ofile);
+    }
+  }
+
+  public static void intersectMemory(String file1, String file2, String ofile)
+    throws IOException {
+    Vector<GeneData> rows = new Vector<GeneData>();
+    KeyIndex index = new KeyIndex();
+    TABFileReader data = new TABFileReader(file2);
+    data.begin();
+    GeneData g = data.getHeader();
+    while (g != null) {
+      String id = getKey(g.getDataAt(0));
+      if (id != null) {
+        index.add(id, rows.size());
+      }
+      rows.add(g);
+      g = data.getData();
+    }
+    TABFileReader reader = new TABFileReader(file1);
+    PCLFileWriter writer = new PCLFileWriter(ofile);
+    reader.begin();
+    GeneData gene = reader.getHeader();
+    g = rows.get(0);
+    if (index.contains(getKey(gene.getDataAt(0)))) {
+      g = GeneData.merge(gene, g.subset(1,g.size()-1));
+      writer.writeData(g);
+    }
+    while(reader.hasNext()) {
+      gene = reader.getData();
+      if (gene == null) {
+          break;
+      }
+      if ( (reader.getLineNumber() % 1000 == 0) ) {
+          System.out.println(reader.getLineNumber());
+      }
+      int id = index.getId(getKey(gene.getDataAt(0)));
+      if (id < 0) {
+        continue;
+      }
+      for (int e = index.first(id); e >= 0; e = index.next(e)) {
+        g = rows.get(e);
+        g = GeneData.merge(gene, g.subset(1,g.size()-1));
+        writer.writeData(g);
+      }
+    }
+    writer.close();
+  }
+
+  /* Records : key \t line \t text, sorted on (key, line) */
+  static ExternalSort sortTable(String file, int start) throws IOException {
+    ExternalSort res = new ExternalSort(new ExternalSort.KeyComparator());
+    TABFileReader reader = new TABFileReader(file);
+    reader.begin();
+    GeneData gene = reader.getHeader();
+    for (long line = 0; gene != null; line++) {
+      String id = getKey(gene.getDataAt(0));
+      if (id != null) {
+        res.add(id + "\t" + seq(line) + "\t" + toText(gene, start));
+      }
+      if ( ((line + 1) % 100000 == 0) ) {
+        System.out.println("[" + (line + 1) + "]");
+      }
+      gene = reader.getData();
+    }
+    res.finish();
+    return res;
+  }
+
+  public static void intersectExternal(String file1, String file2,
+      String ofile) throws IOException {
+    ExternalSort right = sortTable(file2, 1);
+    ExternalSort left = sortTable(file1, 0);
+    TABFileReader h = new TABFileReader(file2);
+    h.begin();
+    GeneData h2 = h.getHeader();
+    String header2 = toText(h2, 1);
+    boolean cols = h2.size() > 1;
+    ExternalSort.KeyComparator kc = new ExternalSort.KeyComparator();
+    ExternalSort out = new ExternalSort(kc);
+    String l = left.next();
+    String r = right.next();
+    Vector<String> group = new Vector<String>();
+    while (l != null && r != null) {
+      String lkey = l.substring(0, l.indexOf('\t'));
+      String rkey = r.substring(0, r.indexOf('\t'));
+      int c = lkey.compareTo(rkey);
+      if (c < 0) {
+        l = left.next();
+        continue;
+      }
+      if (c > 0) {
+        r = right.next();
+        continue;
+      }
+      group.clear();
+      while (r != null && r.startsWith(rkey) && r.charAt(rkey.length()) == '\t') {
+        group.add(r);
+        r = right.next();
+      }
+      while (l != null && l.startsWith(lkey) && l.charAt(lkey.length()) == '\t') {
+        int i = lkey.length() + 1;
+        String lseq = l.substring(i, i + 16);
+        String ltext = l.substring(i + 17);
+        if (lseq.equals(seq(0))) {
+          // header of the first table : once, with the second header
+          out.add(lseq + "\t" + seq(0) + "\t" + join(ltext, header2, cols));
+        }
+        else {
+          for (int k = 0; k < group.size(); k++) {
+            String g = group.get(k);
+            String rseq = g.substring(i, i + 16);
+            out.add(lseq + "\t" + rseq + "\t" + join(ltext, g.substring(i + 17), cols));
+          }
+        }
+        l = left.next();
+      }
+    }
+    left.close();
+    right.close();
+    out.finish();
+    NumberWriter writer = new NumberWriter(ofile);
+    String rec;
+    while ((rec = out.next()) != null) {
+      writer.write(rec.substring(34));
+      writer.newline();
+    }
+    writer.close();
+    out.close();
+  }
+
+  /*
+   * Columns of file2 pasted after the columns of file1, line by line
+   * (same as Data.concatDataColumns without reading the files).
+   */
+  public static void concat(String file1, String file2, String ofile)
+    throws IOException {
+    TABFileReader r1 = new TABFileReader(file1);
+    TABFileReader r2 = new TABFileReader(file2);
+    r1.begin();
+    r2.begin();
+    GeneData g1 = r1.getHeader();
+    GeneData g2 = r2.getHeader();
+    GeneData e1 = new GeneData(new Object[g1.size()]);
+    GeneData e2 = new GeneData(new Object[g2.size()]);
+    PCLFileWriter writer = new PCLFileWriter(ofile);
+    while (g1 != null || g2 != null) {
+      writer.writeData(GeneData.merge(g1 == null ? e1 : g1,
+            g2 == null ? e2 : g2));
+      if (g1 != null) {
+        g1 = r1.getData();
+      }
+      if (g2 != null) {
+        g2 = r2.getData();
+      }
+    }
+    writer.close();
+  }
+
+  static String join(String a, String b, boolean cols) {
+    if (!cols) {
+      return a;
+    }
+    return a + "\t" + b;
+  }
+
+};
@@ -709,7 +709,7 @@ public class ArrayOrder {
     for (int i = data_.getNumGeneHeader(); i < data_.getNumRows(); i++) {
       try {
         GeneData gene = data_.getGeneData(i);
-        double center = GeneData.getMean(gene.getData(), start_, end_);
+        double center = GeneData.getMean(gene.toArray(), start_, end_);
         gene.performCentering(data_.getNumArrayHeader(), center);
       }
       catch(Exception e) {
@@ -0,0 +1,787 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+
+package tools.microarray;
+
+import tools.microarray.FileWriter.NumberWriter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Pearson correlation of all the pairs of rows of an OffHeapMatrix as a
+ * blocked matrix multiply.
+ *
+ * Every row is centered and scaled to unit norm once, so the
+ * correlation of two rows is the dot product of their standardized
+ * rows. The standardized rows are kept in an OffHeapMatrix of doubles
+ * of their own. The products are done in tiles of TILE rows and
+ * TILE_COLS columns, two rows by two rows: the columns of a block of
+ * rows and of a tile are copied to heap buffers of the task (Pack), so
+ * a tile stays in the cache while it is used many times.
+ *
+ * A row with missing values (NaN) has no standardized row; its pairs
+ * are done on the arrays present in both rows, as
+ * CustomAnalysis.getCorrelation, by a masked kernel, and left out of
+ * the tiles. Such a row keeps its values with 0 for the missing ones in
+ * place of the standardized row, a bit mask of its present arrays, and
+ * its count, sum and sum of squares over the mask. Two rows with the
+ * same mask only need the dot product of their values; other pairs sum
+ * over the bits of the intersection of their masks, in array order, so
+ * the sums are the same numbers as the pairwise loop.
+ */
+public class CorrelationEngine {
+
+  /* Rows of a block of output, rows and columns of a tile */
+  public static int BLOCK_ROWS = 64;
+  public static int TILE = 128;
+  public static int TILE_COLS = 512;
+
+  int numRows_;
+  int numCols_;
+  OffHeapMatrix z_;     // standardized rows; incomplete rows with 0
+                        //   for the missing values
+  long[][] mask_;       // present arrays of the incomplete rows, else null
+  long[] full_;         // mask of a complete row
+  int[] count_;         // count, sum and sum of squares of the
+  double[] sum_;        // incomplete rows over their mask
+  double[] sumsq_;
+
+  /*
+   * Heap copies of the rows a task works on : columns of the complete
+   * rows ia_ of the block in a_ and jb_ of the tile in b_, and the rows
+   * of the masked kernel.
+   */
+  static class Pack {
+    double[] a_;
+    double[] b_;
+    int[] ia_;
+    int[] jb_;
+    double[] x_;
+    double[] y_;
+
+    static double[] ensure(double[] buf, int n) {
+      if (buf == null || buf.length < n) {
+        return new double[n];
+      }
+      return buf;
+    }
+
+    static int[] ensure(int[] buf, int n) {
+      if (buf == null || buf.length < n) {
+        return new int[n];
+      }
+      return buf;
+    }
+  };
+
+  /* The matrix is not used after the constructor and can be closed */
+  public CorrelationEngine(OffHeapMatrix matrix) throws IOException {
+    numRows_ = matrix.getNumRows();
+    numCols_ = matrix.getNumColumns();
+    z_ = new OffHeapMatrix(numRows_, numCols_,
+        ((long) numRows_) * numCols_ * 8 > OffHeapMatrix.DIRECT_LIMIT, 8);
+    mask_ = new long[numRows_][];
+    full_ = new long[(numCols_ + 63) / 64];
+    for (int k = 0; k < numCols_; k++) {
+      full_[k >> 6] |= 1L << k;
+    }
+    count_ = new int[numRows_];
+    sum_ = new double[numRows_];
+    sumsq_ = new double[numRows_];
+    double[] v = new double[numCols_];
+    for (int i = 0; i < numRows_; i++) {
+      matrix.getRow(i, v);
+      if (!standardize(v)) {
+        setMasked(i, v);
+      }
+      z_.setRow(i, v);
+    }
+  }
+
+  public void close() throws IOException {
+    z_.close();
+  }
+
+  /* Mask and sums of an incomplete row, 0 for its missing values */
+  void setMasked(int i, double[] v) {
+    long[] mask = new long[full_.length];
+    double sum = 0, sumsq = 0;
+    int count = 0;
+    for (int k = 0; k < numCols_; k++) {
+      double x = v[k];
+      if (Double.isNaN(x)) {
+        v[k] = 0;
+        continue;
+      }
+      mask[k >> 6] |= 1L << k;
+      count++;
+      sum += x;
+      sumsq += x * x;
+    }
+    mask_[i] = mask;
+    count_[i] = count;
+    sum_[i] = sum;
+    sumsq_[i] = sumsq;
+  }
+
+  /*
+   * v minus its mean over its norm. False (v unchanged) if v has
+   * missing values. A constant row is left zero.
+   */
+  static boolean standardize(double[] v) {
+    double sum = 0;
+    for (int k = 0; k < v.length; k++) {
+      if (Double.isNaN(v[k])) {
+        return false;
+      }
+      sum += v[k];
+    }
+    double mean = sum / v.length;
+    double ss = 0;
+    for (int k = 0; k < v.length; k++) {
+      v[k] -= mean;
+      ss += v[k] * v[k];
+    }
+    double scale = (ss > 0) ? 1 / Math.sqrt(ss) : 0;
+    for (int k = 0; k < v.length; k++) {
+      v[k] *= scale;
+    }
+    return true;
+  }
+
+  public int getNumRows() { return numRows_; }
+  public int getNumColumns() { return numCols_; }
+
+  public boolean isComplete(int row) {
+    return mask_[row] == null;
+  }
+
+  /* Correlation of rows a and b */
+  public double getCorrelation(int a, int b) {
+    double[] x = z_.getRow(a, null);
+    double[] y = z_.getRow(b, null);
+    if (mask_[a] != null || mask_[b] != null) {
+      return masked(a, x, 0, b, y, 0);
+    }
+    double s = 0;
+    for (int k = 0; k < numCols_; k++) {
+      s += x[k] * y[k];
+    }
+    return s;
+  }
+
+  long[] mask(int a) {
+    return mask_[a] != null ? mask_[a] : full_;
+  }
+
+  /*
+   * Same as CustomAnalysis.getCorrelation(double[], double[]) : sums
+   * over the arrays present in both rows. v1 and v2 are the rows a and
+   * b of z_, from o1 and o2; a complete row is standardized, which
+   * leaves its correlations on any set of arrays the same.
+   */
+  double masked(int a, double[] v1, int o1, int b, double[] v2, int o2) {
+    double sum_xy = 0, sum_x, sum_y, sum_sqx, sum_sqy;
+    int count;
+    if (mask_[a] != null && mask_[b] != null &&
+        Arrays.equals(mask_[a], mask_[b])) {
+      // Same support : the sums of each row, 0 * 0 off the mask
+      count = count_[a];
+      sum_x = sum_[a];
+      sum_y = sum_[b];
+      sum_sqx = sumsq_[a];
+      sum_sqy = sumsq_[b];
+      for (int k = 0; k < numCols_; k++) {
+        sum_xy += v1[o1 + k] * v2[o2 + k];
+      }
+    }
+    else {
+      long[] m1 = mask(a);
+      long[] m2 = mask(b);
+      sum_x = sum_y = sum_sqx = sum_sqy = 0;
+      count = 0;
+      for (int w = 0; w < m1.length; w++) {
+        long bits = m1[w] & m2[w];
+        while (bits != 0) {
+          int k = (w << 6) + Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+          double x = v1[o1 + k];
+          double y = v2[o2 + k];
+          count ++;
+          sum_xy += x * y;
+          sum_x += x;
+          sum_y += y;
+          sum_sqx += x * x;
+          sum_sqy += y * y;
+        }
+      }
+    }
+    double res = 0;
+    if (count != 0) {
+      res = (sum_xy - 1.0/count * sum_x * sum_y)/
+        Math.sqrt(sum_sqx - 1.0/count * sum_x * sum_x)/
+        Math.sqrt(sum_sqy - 1.0/count * sum_y * sum_y);
+    }
+    if (Double.isNaN(res)) {
+      res = 0.0;
+    }
+    return res;
+  }
+
+  /*
+   * res[(i - a0) * stride + j] = correlation of rows a[i] and b[j] for
+   * a0 <= i < a1 and b0 <= j < b1.
+   */
+  public void multiply(int[] a, int a0, int a1, int[] b, int b0, int b1,
+      double[] res, int stride) {
+    multiply(a, a0, a1, b, b0, b1, res, 0, stride);
+  }
+
+  /* Same as above into res[start + (i - a0) * stride + j] */
+  public void multiply(int[] a, int a0, int a1, int[] b, int b0, int b1,
+      double[] res, int start, int stride) {
+    multiply(a, a0, a1, b, b0, b1, res, start, stride, new Pack());
+  }
+
+  /* Same as above with the buffers of p */
+  void multiply(int[] a, int a0, int a1, int[] b, int b0, int b1,
+      double[] res, int start, int stride, Pack p) {
+    for (int i = a0; i < a1; i++) {
+      int off = start + (i - a0) * stride;
+      for (int j = b0; j < b1; j++) {
+        res[off + j] = 0;
+      }
+    }
+    // Products of the complete rows only, the others are done below
+    int width = Math.min(TILE_COLS, numCols_);
+    p.a_ = Pack.ensure(p.a_, (a1 - a0) * width);
+    p.b_ = Pack.ensure(p.b_, Math.min(TILE, b1 - b0) * width);
+    p.ia_ = Pack.ensure(p.ia_, a1 - a0);
+    p.jb_ = Pack.ensure(p.jb_, TILE);
+    int na = 0;
+    for (int i = a0; i < a1; i++) {
+      if (mask_[a[i]] == null) {
+        p.ia_[na++] = i - a0;
+      }
+    }
+    for (int k0 = 0; k0 < numCols_ && na > 0; k0 += TILE_COLS) {
+      int k1 = Math.min(k0 + TILE_COLS, numCols_);
+      pack(a, a0, p.ia_, na, k0, k1, p.a_);
+      for (int j0 = b0; j0 < b1; j0 += TILE) {
+        int j1 = Math.min(j0 + TILE, b1);
+        int nb = 0;
+        for (int j = j0; j < j1; j++) {
+          if (mask_[b[j]] == null) {
+            p.jb_[nb++] = j;
+          }
+        }
+        if (nb > 0) {
+          pack(b, 0, p.jb_, nb, k0, k1, p.b_);
+          tile(p.a_, p.ia_, na, p.b_, p.jb_, nb, k1 - k0, res, start,
+              stride);
+        }
+      }
+    }
+    // Pairs with an incomplete row : the rows of a are copied once,
+    // the row of b once for all of them
+    boolean loaded = false;
+    for (int j = b0; j < b1; j++) {
+      boolean missing = mask_[b[j]] != null;
+      boolean current = false;
+      for (int i = a0; i < a1; i++) {
+        if (missing || mask_[a[i]] != null) {
+          if (!loaded) {
+            p.x_ = Pack.ensure(p.x_, (a1 - a0) * numCols_);
+            for (int r = a0; r < a1; r++) {
+              z_.getRow(a[r], 0, numCols_, p.x_, (r - a0) * numCols_);
+            }
+            loaded = true;
+          }
+          if (!current) {
+            p.y_ = z_.getRow(b[j], p.y_);
+            current = true;
+          }
+          res[start + (i - a0) * stride + j] =
+            masked(a[i], p.x_, (i - a0) * numCols_, b[j], p.y_, 0);
+        }
+      }
+    }
+  }
+
+  /*
+   * Columns k0 .. k1-1 of the rows r[base + index[i]], i < n, into buf,
+   * row by row.
+   */
+  void pack(int[] r, int base, int[] index, int n, int k0, int k1,
+      double[] buf) {
+    int width = k1 - k0;
+    for (int i = 0; i < n; i++) {
+      z_.getRow(r[base + index[i]], k0, k1, buf, i * width);
+    }
+  }
+
+  /*
+   * Adds the products of the na packed rows of pa and the nb packed
+   * rows of pb, width columns each, to res : packed row i of pa is row
+   * ia[i] of res, packed row j of pb is its column jb[j].
+   */
+  void tile(double[] pa, int[] ia, int na, double[] pb, int[] jb, int nb,
+      int width, double[] res, int start, int stride) {
+    for (int i = 0; i < na; i += 2) {
+      boolean two = (i + 1 < na);
+      int x0 = i * width;
+      int x1 = two ? x0 + width : x0;
+      int off0 = start + ia[i] * stride;
+      int off1 = two ? start + ia[i + 1] * stride : off0;
+      for (int j = 0; j < nb; j += 2) {
+        boolean twoj = (j + 1 < nb);
+        int y0 = j * width;
+        int y1 = twoj ? y0 + width : y0;
+        double s00 = 0, s01 = 0, s10 = 0, s11 = 0;
+        for (int k = 0; k < width; k++) {
+          double u0 = pa[x0 + k];
+          double u1 = pa[x1 + k];
+          double w0 = pb[y0 + k];
+          double w1 = pb[y1 + k];
+          s00 += u0 * w0;
+          s01 += u0 * w1;
+          s10 += u1 * w0;
+          s11 += u1 * w1;
+        }
+        res[off0 + jb[j]] += s00;
+        if (twoj) {
+          res[off0 + jb[j + 1]] += s01;
+        }
+        if (two) {
+          res[off1 + jb[j]] += s10;
+          if (twoj) {
+            res[off1 + jb[j + 1]] += s11;
+          }
+        }
+      }
+    }
+  }
+
+  /*
+   * multiply() of rows a[a0 .. a1-1] against b[0 .. nb-1], the columns
+   * of res split over ntasks tasks of the pool (done here if no pool).
+   */
+  public List<Future<Object>> submit(ExecutorService pool, int ntasks,
+      int[] a, int a0, int a1, int[] b, int nb, double[] res) {
+    Pack[] packs = new Pack[Math.max(ntasks, 1)];
+    for (int t = 0; t < packs.length; t++) {
+      packs[t] = new Pack();
+    }
+    return submit(pool, ntasks, a, a0, a1, b, nb, res, packs);
+  }
+
+  /* Same as above, task t with the buffers of packs[t] */
+  List<Future<Object>> submit(ExecutorService pool, int ntasks,
+      final int[] a, final int a0, final int a1, final int[] b, final int nb,
+      final double[] res, final Pack[] packs) {
+    List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+    if (pool == null || ntasks <= 1) {
+      multiply(a, a0, a1, b, 0, nb, res, 0, nb, packs[0]);
+      return tasks;
+    }
+    for (int t = 0; t < ntasks; t++) {
+      final int start = (int) ((long) nb * t / ntasks);
+      final int end = (int) ((long) nb * (t + 1) / ntasks);
+      if (start >= end) {
+        continue;
+      }
+      final Pack p = packs[t];
+      tasks.add(pool.submit(new Callable<Object>() {
+        public Object call() {
+          multiply(a, a0, a1, b, start, end, res, 0, nb, p);
+          return null;
+        }
+      }));
+    }
+    return tasks;
+  }
+
+  public static void waitFor(List<Future<Object>> tasks) throws Exception {
+    for (int t = 0; t < tasks.size(); t++) {
+      try {
+        tasks.get(t).get();
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new Exception(cause.toString());
+      }
+    }
+  }
+
+  /*
+   * The lines of "corrAll" : for every row a and every row b before it
+   * in the file (rows[b] < rows[a]), in the order of the matrix rows,
+   * the correlation (0.####) and the ids and names of a and b. Only
+   * the pairs with |correlation| >= minCorr are written, comparing the
+   * correlation as printed.
+   *
+   * The rows are taken BLOCK_ROWS at a time against the rows before
+   * the last of them in the file, and a block is multiplied on the
+   * pool while the previous one is written.
+   */
+  public void writePairs(String ofile, int[] rows, String[] ids,
+      String[] names, double minCorr, int nthreads) throws Exception {
+    int num = numRows_;
+    // Rows in file order : rank[i] is the place of row i
+    Integer[] order = new Integer[num];
+    for (int i = 0; i < num; i++) {
+      order[i] = new Integer(i);
+    }
+    final int[] frows = rows;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer x, Integer y) {
+        int rx = frows[x.intValue()];
+        int ry = frows[y.intValue()];
+        return (rx < ry) ? -1 : ((rx == ry) ? 0 : 1);
+      }
+    });
+    int[] sorted = new int[num];
+    int[] rank = new int[num];
+    for (int i = 0; i < num; i++) {
+      sorted[i] = order[i].intValue();
+      rank[sorted[i]] = i;
+    }
+    int[] all = new int[num];
+    for (int i = 0; i < num; i++) {
+      all[i] = i;
+    }
+    nthreads = Math.max(nthreads, 1);
+    ExecutorService pool = null;
+    if (nthreads > 1) {
+      pool = Executors.newFixedThreadPool(nthreads);
+    }
+    int size = BLOCK_ROWS * Math.max(num, 1);
+    double[] current = new double[size];
+    double[] next = new double[size];
+    // A block is submitted after the tasks of the previous one are done
+    Pack[] packs = new Pack[nthreads];
+    for (int t = 0; t < nthreads; t++) {
+      packs[t] = new Pack();
+    }
+    NumberWriter out = new NumberWriter(ofile);
+    try {
+      int a0 = 0;
+      int nb = width(rank, 0, Math.min(BLOCK_ROWS, num));
+      List<Future<Object>> tasks = submit(pool, nthreads, all, 0,
+          Math.min(BLOCK_ROWS, num), sorted, nb, current, packs);
+      while (a0 < num) {
+        int a1 = Math.min(a0 + BLOCK_ROWS, num);
+        waitFor(tasks);
+        int n0 = a1;
+        int n1 = Math.min(n0 + BLOCK_ROWS, num);
+        int nextNb = width(rank, n0, n1);
+        if (n0 < num) {
+          tasks = submit(pool, nthreads, all, n0, n1, sorted, nextNb, next,
+              packs);
+        }
+        for (int a = a0; a < a1; a++) {
+          int off = (a - a0) * nb;
+          for (int b = 0; b < num; b++) {
+            if (rows[a] > rows[b]) {
+              double corr = current[off + rank[b]];
+              if (Math.abs(NumberWriter.round(corr, 4)) >= minCorr) {
+                out.write(corr, 4); out.tab();
+                writeString(out, ids[a]); out.tab();
+                writeString(out, ids[b]); out.tab();
+                writeString(out, names[a]); out.tab();
+                writeString(out, names[b]); out.newline();
+              }
+            }
+          }
+        }
+        double[] tmp = current;
+        current = next;
+        next = tmp;
+        nb = nextNb;
+        a0 = a1;
+      }
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      out.close();
+    }
+  }
+
+  /*
+   * Best k partners of many rows in primitive min-heaps : row r keeps
+   * index_/corr_[r * k .. r * k + size_[r] - 1] with its worst partner
+   * on top. A partner is better with a higher correlation (|correlation|
+   * if abs), then with a lower row index, so the partners kept do not
+   * depend on the order they are added.
+   */
+  public static class Neighbors {
+    int k_;
+    boolean abs_;
+    int[] size_;
+    int[] index_;
+    double[] corr_;
+
+    public Neighbors(int rows, int k, boolean abs) {
+      k_ = k;
+      abs_ = abs;
+      size_ = new int[rows];
+      index_ = new int[rows * k];
+      corr_ = new double[rows * k];
+    }
+
+    public void clear() {
+      Arrays.fill(size_, 0);
+    }
+
+    public int size(int r) { return size_[r]; }
+    public int getIndex(int r, int i) { return index_[r * k_ + i]; }
+    public double getCorrelation(int r, int i) { return corr_[r * k_ + i]; }
+
+    double score(double c) {
+      return abs_ ? Math.abs(c) : c;
+    }
+
+    /* (j, c) worse than the partner at p */
+    boolean worse(int j, double c, int p) {
+      double s = score(c);
+      double t = score(corr_[p]);
+      return s < t || (s == t && j > index_[p]);
+    }
+
+    public void add(int r, int j, double c) {
+      int base = r * k_;
+      int n = size_[r];
+      if (n < k_) {
+        // Sift up from the end
+        int i = n;
+        while (i > 0) {
+          int parent = (i - 1) / 2;
+          if (!worse(j, c, base + parent)) {
+            break;
+          }
+          index_[base + i] = index_[base + parent];
+          corr_[base + i] = corr_[base + parent];
+          i = parent;
+        }
+        index_[base + i] = j;
+        corr_[base + i] = c;
+        size_[r] = n + 1;
+      }
+      else if (k_ > 0 && !worse(j, c, base)) {
+        siftDown(base, n, 0, j, c);
+      }
+    }
+
+    /* Put (j, c) at i of the heap base .. base+n-1 and sift it down */
+    void siftDown(int base, int n, int i, int j, double c) {
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= n) {
+          break;
+        }
+        if (child + 1 < n && worse(index_[base + child + 1],
+              corr_[base + child + 1], base + child)) {
+          child++;
+        }
+        if (!worse(index_[base + child], corr_[base + child], j, c)) {
+          break;
+        }
+        index_[base + i] = index_[base + child];
+        corr_[base + i] = corr_[base + child];
+        i = child;
+      }
+      index_[base + i] = j;
+      corr_[base + i] = c;
+    }
+
+    /* (j, c) better than (i, d) */
+    boolean worse(int i, double d, int j, double c) {
+      double s = score(d);
+      double t = score(c);
+      return s < t || (s == t && i > j);
+    }
+
+    /* Adds the partners of rows 0 .. rows-1 of o */
+    public void merge(Neighbors o, int rows) {
+      for (int r = 0; r < rows; r++) {
+        int base = r * o.k_;
+        for (int i = 0; i < o.size_[r]; i++) {
+          add(r, o.index_[base + i], o.corr_[base + i]);
+        }
+      }
+    }
+
+    /* Partners of row r best first (the heap is lost) */
+    public void sort(int r) {
+      int base = r * k_;
+      for (int n = size_[r] - 1; n > 0; n--) {
+        int j = index_[base + n];
+        double c = corr_[base + n];
+        index_[base + n] = index_[base];
+        corr_[base + n] = corr_[base];
+        siftDown(base, n, 0, j, c);
+      }
+    }
+  };
+
+  /*
+   * For every query row, its k best partners among all the rows (not
+   * itself), as one line : id, name and the id and correlation (0.####)
+   * of each partner, best first. Only BLOCK_ROWS query rows are kept at
+   * a time : the partners are split over nthreads threads, each with
+   * its own heaps fed tile by tile, merged when the block is done.
+   */
+  public void writeNeighbors(String ofile, int[] query, String[] ids,
+      String[] names, int k, boolean abs, int nthreads) throws Exception {
+    final int[] fquery = query;
+    final int[] all = new int[numRows_];
+    for (int i = 0; i < numRows_; i++) {
+      all[i] = i;
+    }
+    nthreads = Math.max(nthreads, 1);
+    final Neighbors[] heaps = new Neighbors[nthreads];
+    final double[][] bufs = new double[nthreads][];
+    final Pack[] packs = new Pack[nthreads];
+    for (int t = 0; t < nthreads; t++) {
+      heaps[t] = new Neighbors(BLOCK_ROWS, k, abs);
+      bufs[t] = new double[BLOCK_ROWS * TILE];
+      packs[t] = new Pack();
+    }
+    ExecutorService pool = null;
+    if (nthreads > 1) {
+      pool = Executors.newFixedThreadPool(nthreads);
+    }
+    NumberWriter out = new NumberWriter(ofile);
+    try {
+      for (int a0 = 0; a0 < query.length; a0 += BLOCK_ROWS) {
+        final int a1 = Math.min(a0 + BLOCK_ROWS, query.length);
+        final int fa0 = a0;
+        List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+        for (int t = 0; t < nthreads; t++) {
+          final int ft = t;
+          final int start = (int) ((long) numRows_ * t / nthreads);
+          final int end = (int) ((long) numRows_ * (t + 1) / nthreads);
+          if (pool == null) {
+            neighbors(fquery, fa0, a1, all, start, end, heaps[ft], bufs[ft],
+              packs[ft]);
+            continue;
+          }
+          tasks.add(pool.submit(new Callable<Object>() {
+            public Object call() {
+              neighbors(fquery, fa0, a1, all, start, end, heaps[ft],
+                bufs[ft], packs[ft]);
+              return null;
+            }
+          }));
+        }
+        waitFor(tasks);
+        for (int t = 1; t < nthreads; t++) {
+          heaps[0].merge(heaps[t], a1 - a0);
+        }
+        for (int a = a0; a < a1; a++) {
+          int r = a - a0;
+          heaps[0].sort(r);
+          writeString(out, ids[query[a]]); out.tab();
+          writeString(out, names[query[a]]);
+          for (int i = 0; i < heaps[0].size(r); i++) {
+            out.tab();
+            writeString(out, ids[heaps[0].getIndex(r, i)]); out.tab();
+            out.write(heaps[0].getCorrelation(r, i), 4);
+          }
+          out.newline();
+        }
+      }
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      out.close();
+    }
+  }
+
+  /* Partners b[start .. end-1] of a[a0 .. a1-1] into h, a tile at a time */
+  void neighbors(int[] a, int a0, int a1, int[] b, int start, int end,
+      Neighbors h, double[] buf, Pack p) {
+    h.clear();
+    for (int j0 = start; j0 < end; j0 += TILE) {
+      int j1 = Math.min(j0 + TILE, end);
+      multiply(a, a0, a1, b, j0, j1, buf, -j0, TILE, p);
+      for (int i = a0; i < a1; i++) {
+        int off = (i - a0) * TILE - j0;
+        for (int j = j0; j < j1; j++) {
+          if (b[j] != a[i]) {
+            h.add(i - a0, b[j], buf[off + j]);
+          }
+        }
+      }
+    }
+  }
+
+  /* Rows before the last of a0 .. a1-1 in the file order */
+  static int width(int[] rank, int a0, int a1) {
+    int res = 0;
+    for (int a = a0; a < a1; a++) {
+      res = Math.max(res, rank[a]);
+    }
+    return res;
+  }
+
+  /* As GeneData.toString() writes a field */
+  static void writeString(NumberWriter out, String s) throws IOException {
+    if (s == null) {
+      out.write(" ");
+    }
+    else {
+      out.write(s);
+    }
+  }
+
+};
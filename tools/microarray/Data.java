@@ -43,6 +43,8 @@ package tools.microarray;
 
 import java.util.*;
 
+import tools.io.KeyIndex;
+
 public class Data implements Cloneable {
 
   String name_;         // Name of the data
@@ -107,6 +109,8 @@ public class Data implements Cloneable {
 
   public int getNumMissingPoints() { return nameScheme_.getNumMissingPoints();}
   public GeneData getGeneData(int index) { return data_[index];}
+  /* Selections without copying, see DataView */
+  public DataView view() { return new DataView(this); }
   public void setGeneData(GeneData s, int index) { data_[index] = s;}
   public Double[] getTimepoints() { return timepoints_;}
   public void setTimepoints(Double[] t) { timepoints_ = t; }
@@ -301,6 +305,38 @@ public class Data implements Cloneable {
     return res;
   }
 
+  /*
+   * Store the data columns of all genes as double[] or float[] with
+   * GeneData.FLOAT_STORAGE (see GeneData).
+   */
+  public void toNumeric() {
+    for (int i = numGeneHeader_; i < (numGenes_+numGeneHeader_); i++) {
+        data_[i].toNumeric(numArrayHeader_);
+    }
+  }
+
+  /*
+   * Primitive row of the data columns, NaN for missing values.
+   * This is the backing array for numeric rows, a copy otherwise.
+   */
+  public double[] getValues(int index) {
+    GeneData gene = data_[index];
+    if (gene.isNumeric() && gene.getValues() != null &&
+        gene.getValueStart() == numArrayHeader_ &&
+        gene.getValues().length == numArrays_) {
+      return gene.getValues();
+    }
+    double[] res = new double[numArrays_];
+    if (gene.isOffHeap() && gene.getValueStart() == numArrayHeader_ &&
+        gene.getMatrix().getNumColumns() == numArrays_) {
+      return gene.getMatrix().getRow(gene.getMatrixRow(), res);
+    }
+    for (int j = 0; j < numArrays_; j++) {
+      res[j] = gene.getValue(j + numArrayHeader_);
+    }
+    return res;
+  }
+
   public void convertDoubles() throws ArrayException {
     for (int i = numGeneHeader_; i < (numGenes_+numGeneHeader_); i++) {
         data_[i].convertDouble(numArrayHeader_, getNumColumns()-1);
@@ -381,6 +417,9 @@ public class Data implements Cloneable {
   }
 
   public static Data intersectDataSelect(Data a, Data b) {
+    if (b.numGeneHeader_ <= a.numGeneHeader_) {
+      return a.view().intersect(b.view()).getData();
+    }
     return mergeData(a, b, true, true);
   }
 
@@ -412,15 +451,16 @@ public class Data implements Cloneable {
       numGeneHeader = b.numGeneHeader_;
     }
 
-    HashMap<String, LinkedList<Integer> > b_ids = new HashMap<String, LinkedList<Integer> >();
+    // Rows of b by id; head[id] is the first row not yet used
+    KeyIndex b_ids = new KeyIndex(b.numGenes_);
     for (int i = 0; i < b.numGenes_; i++) {
       GeneData gene = b.data_[i+b.numGeneHeader_];
       String id = (String) gene.getDataAt(b.id_);
-      if (!b_ids.containsKey(id)) {
-        b_ids.put(id, new LinkedList<Integer>());
-      }
-      LinkedList<Integer> val = b_ids.get(id);
-      val.add(new Integer(i+b.numGeneHeader_));
+      b_ids.add(id, i+b.numGeneHeader_);
+    }
+    int[] head = new int[b_ids.size()];
+    for (int i = 0; i < head.length; i++) {
+      head[i] = b_ids.first(i);
     }
 
     Vector<GeneData> dataV = new Vector<GeneData>();
@@ -459,18 +499,17 @@ public class Data implements Cloneable {
       String id = (String) gene_a.getDataAt(a.id_);
       int start = b.numArrayHeader_;
       int end = b.numArrays_ + b.numArrayHeader_ - 1;
-      if (b_ids.containsKey(id)) {
+      int bid = b_ids.getId(id);
+      if (bid >= 0) {
         // Check the list for lastID
-        if (lastId != null && !lastId.equals(id) && b_ids.containsKey(lastId)) {
-          LinkedList<Integer> val = b_ids.get(lastId);
-          Iterator<Integer> itr = val.iterator();
-          while (itr.hasNext()) {
-            Integer e = (Integer) itr.next();
+        int lid = b_ids.getId(lastId);
+        if (lastId != null && !lastId.equals(id) && lid >= 0) {
+          for (int e = head[lid]; e >= 0; e = b_ids.next(e)) {
             Object[] obj = new Object[a.numArrays_];
             GeneData g_a2 = new GeneData(obj);
             GeneData g_a1 = a.data_[i-1+a.numGeneHeader_].subset(0,a.numArrayHeader_-1);
             GeneData g_a = GeneData.merge(g_a1, g_a2);
-            GeneData g_b = b.data_[e.intValue()].subset(start, end);
+            GeneData g_b = b.data_[e].subset(start, end);
             GeneData g = g_a;
             if (!select) {
               g = GeneData.merge(g_a, g_b);
@@ -478,10 +517,9 @@ public class Data implements Cloneable {
             }
           }
         }
-        LinkedList<Integer> val = b_ids.get(id);
-        if (val.size() > 0) {
-          Integer first = val.removeFirst();
-          gene_b = b.data_[first.intValue()].subset(start, end);
+        if (head[bid] >= 0) {
+          gene_b = b.data_[head[bid]].subset(start, end);
+          head[bid] = b_ids.next(head[bid]);
         }
       }
       if (!intersect && gene_b == null) {
@@ -502,18 +540,13 @@ public class Data implements Cloneable {
       // Other Genes in b
       int start = b.numArrayHeader_;
       int end = b.numArrays_ + b.numArrayHeader_ - 1;
-      Iterator<String> itr = b_ids.keySet().iterator();
-      while (itr.hasNext()) {
-        String id = (String) itr.next();
-        LinkedList<Integer> val = b_ids.get(id);
-        Iterator<Integer> itr1 = val.iterator();
-        while (itr1.hasNext()) {
-          Integer e = (Integer) itr1.next();
+      for (int id = 0; id < head.length; id++) {
+        for (int e = head[id]; e >= 0; e = b_ids.next(e)) {
           Object[] obj = new Object[a.numArrays_];
           GeneData g_a2 = new GeneData(obj);
-          GeneData g_a1 = b.data_[e.intValue()].subset(0,a.numArrayHeader_-1);
+          GeneData g_a1 = b.data_[e].subset(0,a.numArrayHeader_-1);
           GeneData g_a = GeneData.merge(g_a1, g_a2);
-          GeneData g_b = b.data_[e.intValue()].subset(start, end);
+          GeneData g_b = b.data_[e].subset(start, end);
           GeneData g = g_a;
           if (!select) {
             g = GeneData.merge(g_a, g_b);
@@ -549,49 +582,7 @@ public class Data implements Cloneable {
    */
   public static Data diffData(Data a, Data b)
   {
-    int numArrays = a.numArrays_;
-    int numGenes = 0;
-    int numGeneHeader = a.numGeneHeader_;
-    int numArrayHeader = a.numArrayHeader_;
-    GeneNameScheme nameScheme = a.nameScheme_;
-
-    HashMap<String, Integer> b_ids = new HashMap<String,Integer>();
-    for (int i = 0; i < b.numGenes_; i++) {
-      GeneData gene = b.data_[i+b.numGeneHeader_];
-      String id = (String) gene.getDataAt(b.id_);
-      b_ids.put(id, new Integer(i+b.numGeneHeader_));
-    }
-
-    Vector<GeneData> dataV = new Vector<GeneData>();
-
-    // Header Data
-    for (int i =0; i < numGeneHeader; i++) {
-      GeneData gene = a.data_[i];
-      dataV.add(gene);
-    }
-
-    // Genes in a
-    for (int i = 0; i < a.numGenes_; i++) {
-      GeneData gene_a = a.data_[i+a.numGeneHeader_];
-      String id = (String) gene_a.getDataAt(a.id_);
-      if (!b_ids.containsKey(id)) {
-        dataV.add(gene_a);
-      }
-    }
-
-    GeneData[] data = new GeneData[dataV.size()];
-    numGenes = 0;
-    Iterator<GeneData> itr = dataV.iterator();
-    while (itr.hasNext()) {
-      GeneData gene = (GeneData) itr.next();
-      data[numGenes++] = gene;
-    }
-    numGenes = numGenes - numGeneHeader;
-
-    Data res = new Data(numArrays,numGenes,numGeneHeader,numArrayHeader,data);
-    res.setGeneNameScheme(nameScheme);
-
-    return res;
+    return a.view().diff(b.view()).getData();
   }
 
   /**
@@ -602,59 +593,7 @@ public class Data implements Cloneable {
    */
   public static Data selectOrder(Data a, Data b)
   {
-    int numArrays = a.numArrays_;
-    int numGenes = 0;
-    int numGeneHeader = a.numGeneHeader_;
-    int numArrayHeader = a.numArrayHeader_;
-    GeneNameScheme nameScheme = a.nameScheme_;
-
-    HashMap<String, LinkedList<Integer> > a_ids = new HashMap<String, LinkedList<Integer> >();
-    for (int i = 0; i < a.numGenes_; i++) {
-      GeneData gene = a.data_[i+a.numGeneHeader_];
-      String id = (String) gene.getDataAt(a.id_);
-      if (!a_ids.containsKey(id)) {
-        a_ids.put(id, new LinkedList<Integer>());
-      }
-      LinkedList<Integer> val = a_ids.get(id);
-      val.add(new Integer(i+a.numGeneHeader_));
-    }
-
-    Vector<GeneData> dataV = new Vector<GeneData>();
-
-    // Header Data
-    for (int i =0; i < numGeneHeader; i++) {
-      GeneData gene = a.data_[i];
-      dataV.add(gene);
-    }
-
-    // Genes in a
-    for (int i = 0; i < b.numGenes_; i++) {
-      GeneData gene_b = b.data_[i+b.numGeneHeader_];
-      String id = (String) gene_b.getDataAt(b.id_);
-      if (a_ids.containsKey(id)) {
-        LinkedList<Integer> val = a_ids.get(id);
-        Iterator<Integer> itr = val.iterator();
-        while (itr.hasNext()) {
-          Integer e = (Integer) itr.next();
-          GeneData gene = a.data_[e.intValue()];
-          dataV.add(gene);
-        }
-      }
-    }
-
-    GeneData[] data = new GeneData[dataV.size()];
-    numGenes = 0;
-    Iterator<GeneData> itr = dataV.iterator();
-    while (itr.hasNext()) {
-      GeneData gene = (GeneData) itr.next();
-      data[numGenes++] = gene;
-    }
-    numGenes = numGenes - numGeneHeader;
-
-    Data res = new Data(numArrays,numGenes,numGeneHeader,numArrayHeader,data);
-    res.setGeneNameScheme(nameScheme);
-
-    return res;
+    return a.view().selectOrder(b.view()).getData();
   }
 
   /**
@@ -664,51 +603,7 @@ public class Data implements Cloneable {
    */
   public static Data selectNames(Data a, Data b)
   {
-    int numArrays = a.numArrays_;
-    int numGenes = 0;
-    int numGeneHeader = a.numGeneHeader_;
-    int numArrayHeader = a.numArrayHeader_;
-    GeneNameScheme nameScheme = a.nameScheme_;
-
-    HashMap<String, Integer> b_ids = new HashMap<String,Integer>();
-    for (int i = 0; i < b.numGenes_; i++) {
-      GeneData gene = b.data_[i+b.numGeneHeader_];
-      String id = (String) gene.getDataAt(b.id_);
-      //System.out.println(":"+id+":");
-      b_ids.put(id, new Integer(i+b.numGeneHeader_));
-    }
-
-    Vector<GeneData> dataV = new Vector<GeneData>();
-
-    // Header Data
-    for (int i =0; i < numGeneHeader; i++) {
-      GeneData gene = a.data_[i];
-      dataV.add(gene);
-    }
-
-    // Genes in a
-    for (int i = 0; i < a.numGenes_; i++) {
-      String geneName = a.getGenesAt(i+a.numGeneHeader_);
-      //System.out.println(":"+geneName+":");
-      GeneData gene_a = a.data_[i+a.numGeneHeader_];
-      if (b_ids.containsKey(geneName)) {
-        dataV.add(gene_a);
-      }
-    }
-
-    GeneData[] data = new GeneData[dataV.size()];
-    numGenes = 0;
-    Iterator<GeneData> itr = dataV.iterator();
-    while (itr.hasNext()) {
-      GeneData gene = (GeneData) itr.next();
-      data[numGenes++] = gene;
-    }
-    numGenes = numGenes - numGeneHeader;
-
-    Data res = new Data(numArrays,numGenes,numGeneHeader,numArrayHeader,data);
-    res.setGeneNameScheme(nameScheme);
-
-    return res;
+    return a.view().selectNames(b.view()).getData();
   }
 
   /**
@@ -862,39 +757,28 @@ public class Data implements Cloneable {
    */
   public static Data selectGenesFromData(Data a, int[] selectOrder)
   {
-    int numArrays = a.numArrays_;
-    int numGenes = selectOrder.length;
-    int numGeneHeader = a.numGeneHeader_;
-    int numArrayHeader = a.numArrayHeader_;
-    GeneNameScheme nameScheme = a.nameScheme_;
-
-    if (numGenes > a.numGenes_) {
+    if (selectOrder.length > a.numGenes_) {
         return null;
     }
 
-    GeneData[] data = new GeneData[numGenes+numGeneHeader];
+    int[] order = new int[selectOrder.length];
     int index = 0;
-    // Header Data
-    for (int i =0; i < numGeneHeader; i++) {
-      GeneData gene = a.data_[i];
-      data[index++] = gene;
-    }
-
-    // Genes in a
     for (int i = 0; i < selectOrder.length; i++) {
       int num = selectOrder[i];
       if (num < a.numGenes_) {
-        GeneData gene = a.data_[num+a.numGeneHeader_];
-        data[index++] = gene;
+        order[index++] = num;
       }
       else {
         System.err.println(" **error : bad selection of genes");
       }
     }
-    numGenes = index - numGeneHeader;
+    if (index < order.length) {
+      int[] tmp = new int[index];
+      System.arraycopy(order, 0, tmp, 0, index);
+      order = tmp;
+    }
 
-    Data res = new Data(numArrays,numGenes,numGeneHeader,numArrayHeader,data);
-    res.setGeneNameScheme(nameScheme);
+    Data res = a.view().selectGenes(order).getData();
     res.setTimepoints(a.getTimepoints());
 
     return res;
@@ -907,17 +791,7 @@ public class Data implements Cloneable {
    */
   public static Data selectArraysFromData(Data a, int[] selectOrder)
   {
-    int[] order = new int[a.numArrayHeader_+selectOrder.length];
-    for (int i =0; i < a.numArrayHeader_; i++) {
-      order[i] = i;
-    }
-    for (int i =0; i < selectOrder.length; i++) {
-      order[i+a.numArrayHeader_] = selectOrder[i] + a.numArrayHeader_;
-    }
-    Data res = selectColumnsFromData(a, order);
-    res.numArrayHeader_ = a.numArrayHeader_;
-    res.numArrays_ -= a.numArrayHeader_;
-    return res;
+    return a.view().selectArrays(selectOrder).getData();
   }
 
   /**
@@ -999,10 +873,11 @@ public class Data implements Cloneable {
     double res = 0.0;
     int count = 0;
     for (int i = numGeneHeader_; i < numGenes_+numGeneHeader_; i++) {
-      Double[] values = data_[i].getVector(numArrayHeader_, getNumColumns()-1);
-      for (int j=0; j < values.length; j++) {
-        if (values[j] != null) {
-          res += values[j].doubleValue();
+      GeneData gene = data_[i];
+      for (int j = numArrayHeader_; j < getNumColumns(); j++) {
+        double v = gene.getValue(j);
+        if (!Double.isNaN(v)) {
+          res += v;
           count++;
         }
       }
@@ -1016,7 +891,22 @@ public class Data implements Cloneable {
     for (int i = numGeneHeader_; i < numGenes_+numGeneHeader_; i++) {
       try {
         GeneData gene = data_[i];
-        double center = GeneData.getMean(gene.getData(), start, end);
+        double center;
+        if (gene.isOffHeap()) {
+          center = GeneData.getMean(getValues(i), 0, end-start);
+        }
+        else if (gene.isNumeric() && gene.getValueStart() <= start) {
+          int off = gene.getValueStart();
+          if (gene.isFloat()) {
+            center = GeneData.getMean(gene.getFloatValues(), start-off, end-off);
+          }
+          else {
+            center = GeneData.getMean(gene.getValues(), start-off, end-off);
+          }
+        }
+        else {
+          center = GeneData.getMean(gene.getData(), start, end);
+        }
         gene.performCentering(start, center);
       }
       catch(Exception e) {
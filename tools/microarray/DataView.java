@@ -0,0 +1,299 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray;
+
+import java.util.*;
+
+/**
+ * Row and column selection over a base Data without copying it.
+ *
+ * A view keeps the base, the base rows of its genes and (optionally)
+ * the base columns of its arrays. Selections on a view compose the
+ * index maps on the same base, so a chain of selections only costs
+ * the index arrays. GeneData rows are built on request by getGeneData()
+ * and the whole selection by getData(). The gene and array headers of
+ * the base are always kept.
+ */
+public class DataView {
+
+  Data base_;
+  int[] rows_;  // base row of each gene
+  int[] cols_;  // base column of each array, null = all arrays
+
+  public DataView(Data base) {
+    base_ = base;
+    rows_ = new int[base.getNumGenes()];
+    for (int i = 0; i < rows_.length; i++) {
+      rows_[i] = i + base.getNumGeneHeader();
+    }
+    cols_ = null;
+  }
+
+  DataView(Data base, int[] rows, int[] cols) {
+    base_ = base;
+    rows_ = rows;
+    cols_ = cols;
+  }
+
+  public Data getBase() { return base_; }
+
+  public int getNumArrays     () {
+    return (cols_ == null) ? base_.getNumArrays() : cols_.length;
+  }
+  public int getNumGenes      () { return rows_.length; }
+  public int getNumGeneHeader () { return base_.getNumGeneHeader(); }
+  public int getNumArrayHeader() { return base_.getNumArrayHeader();}
+  public int getNumColumns    () { return getNumArrays()+getNumArrayHeader();}
+  public int getNumRows       () { return getNumGenes()+getNumGeneHeader();}
+
+  /* Base row of a view row */
+  public int getRowIndex(int index) {
+    int h = base_.getNumGeneHeader();
+    if (index < h) {
+      return index;
+    }
+    return rows_[index - h];
+  }
+
+  /* Base column of a view column */
+  public int getColumnIndex(int index) {
+    int h = base_.getNumArrayHeader();
+    if (cols_ == null || index < h) {
+      return index;
+    }
+    return cols_[index - h];
+  }
+
+  public Object getDataAt(int row, int col) {
+    return base_.getGeneData(getRowIndex(row)).getDataAt(getColumnIndex(col));
+  }
+
+  public double getValue(int row, int col) {
+    return base_.getGeneData(getRowIndex(row)).getValue(getColumnIndex(col));
+  }
+
+  public String getGenesAt(int index) {
+    return base_.getGenesAt(getRowIndex(index));
+  }
+
+  String getId(int index) {
+    return (String) getDataAt(index, base_.getID());
+  }
+
+  /* Column order of a whole row in the base, header columns included */
+  int[] getColumnOrder() {
+    int[] order = new int[getNumColumns()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = getColumnIndex(i);
+    }
+    return order;
+  }
+
+  /*
+   * Row of the view : the base row itself if all arrays are selected,
+   * a permuted copy otherwise.
+   */
+  public GeneData getGeneData(int index) {
+    GeneData gene = base_.getGeneData(getRowIndex(index));
+    if (cols_ == null) {
+      return gene;
+    }
+    return select(gene, getColumnOrder());
+  }
+
+  /*
+   * New row with the base columns of order. A numeric base row gives a
+   * numeric row on the heap (same precision); the base row is only read.
+   */
+  GeneData select(GeneData gene, int[] order) {
+    int h = base_.getNumArrayHeader();
+    if (!gene.isNumeric() || gene.getValueStart() != h) {
+      return gene.permute(0, order);
+    }
+    String[] ann = new String[h];
+    for (int i = 0; i < h; i++) {
+      ann[i] = (String) gene.getDataAt(order[i]);
+    }
+    GeneData res = gene.newNumeric_(ann, order.length - h);
+    for (int i = h; i < order.length; i++) {
+      res.setValue_(i - h, gene.getValue(order[i]));
+    }
+    return res;
+  }
+
+  /*
+   * Materialize the view. Rows are shared with the base when all arrays
+   * are selected.
+   */
+  public Data getData() {
+    int[] order = (cols_ == null) ? null : getColumnOrder();
+    GeneData[] data = new GeneData[getNumRows()];
+    for (int i = 0; i < data.length; i++) {
+      GeneData gene = base_.getGeneData(getRowIndex(i));
+      data[i] = (order == null) ? gene : select(gene, order);
+    }
+    Data res = new Data(getNumArrays(), getNumGenes(), getNumGeneHeader(),
+        getNumArrayHeader(), data);
+    res.setGeneNameScheme(base_.getGeneNameScheme());
+    return res;
+  }
+
+  /**
+   *  @param order - gene indices (0 based) in order
+   *  @return - view with the selected genes
+   */
+  public DataView selectGenes(int[] order) {
+    int[] rows = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      rows[i] = rows_[order[i]];
+    }
+    return new DataView(base_, rows, cols_);
+  }
+
+  /**
+   *  @param order - array indices (0 based) in order
+   *  @return - view with the selected arrays
+   */
+  public DataView selectArrays(int[] order) {
+    int h = base_.getNumArrayHeader();
+    int[] cols = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      cols[i] = getColumnIndex(order[i] + h);
+    }
+    return new DataView(base_, rows_, cols);
+  }
+
+  /* Genes of this view in the id order of b (see Data.selectOrder) */
+  public DataView selectOrder(DataView b) {
+    HashMap<String, LinkedList<Integer> > ids = 
+      new HashMap<String, LinkedList<Integer> >();
+    int h = getNumGeneHeader();
+    for (int i = 0; i < rows_.length; i++) {
+      String id = getId(i + h);
+      LinkedList<Integer> val = ids.get(id);
+      if (val == null) {
+        val = new LinkedList<Integer>();
+        ids.put(id, val);
+      }
+      val.add(new Integer(i));
+    }
+    Vector<Integer> order = new Vector<Integer>();
+    int hb = b.getNumGeneHeader();
+    for (int i = 0; i < b.rows_.length; i++) {
+      LinkedList<Integer> val = ids.get(b.getId(i + hb));
+      if (val != null) {
+        order.addAll(val);
+      }
+    }
+    return selectGenes(toArray(order));
+  }
+
+  /* Genes of this view whose name is an id of b (see Data.selectNames) */
+  public DataView selectNames(DataView b) {
+    HashSet<String> ids = b.getIds();
+    Vector<Integer> order = new Vector<Integer>();
+    int h = getNumGeneHeader();
+    for (int i = 0; i < rows_.length; i++) {
+      if (ids.contains(getGenesAt(i + h))) {
+        order.add(new Integer(i));
+      }
+    }
+    return selectGenes(toArray(order));
+  }
+
+  /* Genes of this view whose id is not in b (see Data.diffData) */
+  public DataView diff(DataView b) {
+    HashSet<String> ids = b.getIds();
+    Vector<Integer> order = new Vector<Integer>();
+    int h = getNumGeneHeader();
+    for (int i = 0; i < rows_.length; i++) {
+      if (!ids.contains(getId(i + h))) {
+        order.add(new Integer(i));
+      }
+    }
+    return selectGenes(toArray(order));
+  }
+
+  /*
+   * Genes of this view with an id in b; an id repeated k times in b
+   * selects at most k genes (see Data.intersectDataSelect).
+   */
+  public DataView intersect(DataView b) {
+    HashMap<String, Integer> count = new HashMap<String, Integer>();
+    int hb = b.getNumGeneHeader();
+    for (int i = 0; i < b.rows_.length; i++) {
+      String id = b.getId(i + hb);
+      Integer c = count.get(id);
+      count.put(id, new Integer(c == null ? 1 : c.intValue() + 1));
+    }
+    Vector<Integer> order = new Vector<Integer>();
+    int h = getNumGeneHeader();
+    for (int i = 0; i < rows_.length; i++) {
+      String id = getId(i + h);
+      Integer c = count.get(id);
+      if (c != null && c.intValue() > 0) {
+        count.put(id, new Integer(c.intValue() - 1));
+        order.add(new Integer(i));
+      }
+    }
+    return selectGenes(toArray(order));
+  }
+
+  HashSet<String> getIds() {
+    HashSet<String> res = new HashSet<String>();
+    int h = getNumGeneHeader();
+    for (int i = 0; i < rows_.length; i++) {
+      res.add(getId(i + h));
+    }
+    return res;
+  }
+
+  static int[] toArray(Vector<Integer> v) {
+    int[] res = new int[v.size()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = v.get(i).intValue();
+    }
+    return res;
+  }
+
+};
@@ -0,0 +1,112 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.FileReader;
+
+import tools.microarray.FileWriter.BitVectorWriter;
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * Sequential reader of the binary bit vector files of BitVectorWriter.
+ * getHigh() and getThr() are the bit sets that getBitSet(bv, 0) and
+ * getBitSet(bv, 1) build from a text .bv line.
+ */
+public class BitVectorReader {
+
+  DataInputStream in_;
+  int numArrays_;
+  long[] words_;
+  String id_;
+  String name_;
+  BitSet high_;
+  BitSet thr_;
+
+  public BitVectorReader(String file) throws IOException {
+    in_ = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file), 1 << 16));
+    if (in_.readInt() != BitVectorWriter.MAGIC) {
+      in_.close();
+      throw new IOException("Not a binary bit vector file : " + file);
+    }
+    numArrays_ = in_.readInt();
+    words_ = new long[(numArrays_ + 63) / 64];
+  }
+
+  public int getNumArrays() { return numArrays_; }
+  public String getID() { return id_; }
+  public String getName() { return name_; }
+  public BitSet getHigh() { return high_; }
+  public BitSet getThr() { return thr_; }
+
+  BitSet readBits() throws IOException {
+    for (int i = 0; i < words_.length; i++) {
+      words_[i] = in_.readLong();
+    }
+    BitSet res = new BitSet(numArrays_);
+    for (int i = 0; i < numArrays_; i++) {
+      if ((words_[i >> 6] & (1L << i)) != 0) {
+        res.set(i);
+      }
+    }
+    return res;
+  }
+
+  /* Read the next row, false at the end of the file */
+  public boolean next() throws IOException {
+    try {
+      id_ = in_.readUTF();
+    }
+    catch (EOFException e) {
+      return false;
+    }
+    name_ = in_.readUTF();
+    high_ = readBits();
+    thr_ = readBits();
+    return true;
+  }
+
+  public void close() throws IOException {
+    in_.close();
+  }
+
+};
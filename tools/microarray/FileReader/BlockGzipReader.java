@@ -0,0 +1,287 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.microarray.FileReader;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.DataFormatException;
+
+/**
+ * Random access to a blocked gzip file (BGZF layout: a series of gzip
+ * members, each holding at most 64KB of text, with the compressed block
+ * size stored in a "BC" extra field).
+ *
+ * File pointers are virtual offsets :
+ *     (compressed offset of the block << 16) | offset inside the block
+ * so a line index built with getFilePointer() can be used with seek().
+ * Recently used blocks are kept decompressed in a small LRU cache.
+ */
+public class BlockGzipReader implements RandomLineReader {
+
+  public static int CACHE_BLOCKS = 32;
+
+  static final int MAX_BLOCK_SIZE = 65536;
+
+  RandomAccessFile file_;
+  Inflater inflater_;
+  byte[] cdata_;       // compressed block buffer
+
+  long blockAddress_;  // compressed offset of the current block
+  long nextAddress_;   // compressed offset of the next block
+  byte[] block_;       // decompressed current block
+  int blockLength_;
+  int pos_;            // offset inside block_
+
+  int numHits_;        // Number of hits in the block cache
+  LinkedHashMap<Long, Block> cache_;
+
+  static class Block {
+    byte[] data;
+    int length;
+    long next;
+    Block(byte[] d, int l, long n) { data = d; length = l; next = n; }
+  };
+
+  public BlockGzipReader(String filename) throws IOException {
+    file_ = new RandomAccessFile(filename, "r");
+    inflater_ = new Inflater(true);
+    cdata_ = new byte[MAX_BLOCK_SIZE];
+    cache_ = new LinkedHashMap<Long, Block>(CACHE_BLOCKS + 1, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+        return size() > CACHE_BLOCKS;
+      }
+    };
+    numHits_ = 0;
+    loadBlock(0);
+  }
+
+  /**
+   * Check the first gzip member header for the BGZF "BC" extra field.
+   */
+  public static boolean isBlockGzip(String filename) {
+    try {
+      RandomAccessFile f = new RandomAccessFile(filename, "r");
+      try {
+        byte[] h = new byte[18];
+        f.readFully(h);
+        return (h[0] & 0xff) == 31 && (h[1] & 0xff) == 139 &&
+          (h[2] & 0xff) == 8 && (h[3] & 4) != 0 &&
+          h[12] == 'B' && h[13] == 'C';
+      }
+      finally {
+        f.close();
+      }
+    }
+    catch(IOException e) {
+      return false;
+    }
+  }
+
+  public static long makeVirtualOffset(long address, int offset) {
+    return (address << 16) | (offset & 0xffff);
+  }
+
+  public int getNumHits() { return numHits_; }
+
+  /**
+   * Read and inflate the block at the compressed offset.
+   *   An empty block (the EOF marker or the end of the file) leaves
+   *   blockLength_ = 0.
+   */
+  void loadBlock(long address) throws IOException {
+    Long key = new Long(address);
+    Block b = cache_.get(key);
+    if (b != null) {
+      numHits_++;
+    }
+    else {
+      b = readBlock(address);
+      cache_.put(key, b);
+    }
+    blockAddress_ = address;
+    nextAddress_ = b.next;
+    block_ = b.data;
+    blockLength_ = b.length;
+    pos_ = 0;
+  }
+
+  Block readBlock(long address) throws IOException {
+    if (address >= file_.length()) {
+      return new Block(new byte[0], 0, address);
+    }
+    file_.seek(address);
+    byte[] h = new byte[12];
+    file_.readFully(h);
+    if ((h[0] & 0xff) != 31 || (h[1] & 0xff) != 139 || (h[3] & 4) == 0) {
+      throw new IOException("Not a blocked gzip file at " + address);
+    }
+    int xlen = (h[10] & 0xff) | ((h[11] & 0xff) << 8);
+    byte[] extra = new byte[xlen];
+    file_.readFully(extra);
+    int bsize = -1;
+    for (int i = 0; i + 4 <= xlen; ) {
+      int slen = (extra[i+2] & 0xff) | ((extra[i+3] & 0xff) << 8);
+      if (extra[i] == 'B' && extra[i+1] == 'C' && slen == 2) {
+        bsize = ((extra[i+4] & 0xff) | ((extra[i+5] & 0xff) << 8)) + 1;
+      }
+      i += 4 + slen;
+    }
+    if (bsize < 0) {
+      throw new IOException("Missing BGZF block size at " + address);
+    }
+    int clen = bsize - 12 - xlen - 8;
+    file_.readFully(cdata_, 0, clen);
+    byte[] tail = new byte[8];
+    file_.readFully(tail);
+    int isize = (tail[4] & 0xff) | ((tail[5] & 0xff) << 8) |
+      ((tail[6] & 0xff) << 16) | ((tail[7] & 0xff) << 24);
+    byte[] data = new byte[isize];
+    inflater_.reset();
+    inflater_.setInput(cdata_, 0, clen);
+    try {
+      int n = 0;
+      while (n < isize && !inflater_.finished()) {
+        int r = inflater_.inflate(data, n, isize - n);
+        if (r == 0 && (inflater_.needsInput() || inflater_.needsDictionary())) {
+          break;
+        }
+        n += r;
+      }
+      if (n != isize) {
+        throw new IOException("Truncated block at " + address);
+      }
+    }
+    catch(DataFormatException e) {
+      throw new IOException("Bad compressed data at " + address + " : " +
+          e.getMessage());
+    }
+    return new Block(data, isize, address + bsize);
+  }
+
+  /**
+   * Move to the next non-empty block if the current one is used up.
+   *    returns false at end of file.
+   */
+  boolean fill() throws IOException {
+    while (pos_ >= blockLength_) {
+      if (nextAddress_ >= file_.length()) {
+        return false;
+      }
+      loadBlock(nextAddress_);
+    }
+    return true;
+  }
+
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return block_[pos_++] & 0xff;
+  }
+
+  public long getFilePointer() throws IOException {
+    if (pos_ >= blockLength_ && nextAddress_ < file_.length()) {
+      fill();
+    }
+    return makeVirtualOffset(blockAddress_, pos_);
+  }
+
+  public void seek(long pos) throws IOException {
+    long address = pos >>> 16;
+    int offset = (int) (pos & 0xffff);
+    if (address != blockAddress_) {
+      loadBlock(address);
+    }
+    if (offset > blockLength_) {
+      throw new IOException("Bad virtual offset " + pos);
+    }
+    pos_ = offset;
+  }
+
+  /**
+   * return a next line in String 
+   */
+  public String getNextLine() throws IOException {
+    if (!fill()) {
+      return null;
+    }
+    int lineend = -1;
+    for (int i = pos_; i < blockLength_; i++) {
+      if (block_[i] == '\n') {
+        lineend = i;
+        break;
+      }
+    }
+    String str;
+    if (lineend >= 0) {
+      int end = lineend;
+      if (end > pos_ && block_[end-1] == '\r') {
+        end--;
+      }
+      str = new String(block_, pos_, end - pos_);
+      pos_ = lineend + 1;
+      return str;
+    }
+    // Line continues in the next block
+    ByteArrayOutputStream input = new ByteArrayOutputStream(256);
+    input.write(block_, pos_, blockLength_ - pos_);
+    pos_ = blockLength_;
+    int c;
+    while (((c = read()) != -1) && (c != '\n')) {
+      input.write(c);
+    }
+    byte[] b = input.toByteArray();
+    int len = b.length;
+    if (len > 0 && b[len-1] == '\r') {
+      len--;
+    }
+    return new String(b, 0, len);
+  }
+
+  public void close() throws IOException {
+    inflater_.end();
+    file_.close();
+    cache_.clear();
+  }
+
+};
@@ -43,7 +43,8 @@ package tools.microarray.FileReader;
 
 import java.io.*;
 
-public class BufferedRandomAccessFile extends RandomAccessFile {
+public class BufferedRandomAccessFile extends RandomAccessFile
+    implements RandomLineReader {
 
   private static int BUF_SIZE = 8096;
 
@@ -0,0 +1,176 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.microarray.FileReader;
+
+import tools.microarray.GeneData;
+import tools.microarray.FileWriter.PCLFileWriter;
+import java.io.*;
+import java.util.Vector;
+
+/**
+ * Temporary columnar store used to convert very large GEO SOFT files.
+ * Each sample column is appended as it is parsed, and the file is
+ * transposed to PCL in row blocks so that only MAX_CELLS values are
+ * in memory at any time.
+ *
+ * Cell format: 2 byte length (-1 for missing) followed by the bytes.
+ * Offsets are recorded every UNIT genes so that any row block of a
+ * column can be read with a single seek.
+ */
+public class ColumnSpillFile {
+
+  public static int UNIT = 256;
+  public static int MAX_CELLS = 1 << 21;
+
+  File file_;
+  DataOutputStream out_;
+  long size_;
+  int numRows_;
+  int numUnits_;
+  Vector<long[]> offsets_;
+
+  public ColumnSpillFile(int numRows) throws IOException {
+    file_ = File.createTempFile("geo", ".col");
+    file_.deleteOnExit();
+    out_ = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file_), 1 << 20));
+    size_ = 0;
+    numRows_ = numRows;
+    numUnits_ = (numRows + UNIT - 1) / UNIT;
+    offsets_ = new Vector<long[]>();
+  }
+
+  public int getNumColumns() { return offsets_.size(); }
+
+  public void addColumn(String[] values) throws IOException {
+    if (values.length != numRows_) {
+      throw new IOException("Column size " + values.length + 
+          " != " + numRows_);
+    }
+    long[] off = new long[numUnits_ + 1];
+    for (int i = 0; i < numRows_; i++) {
+      if ( (i % UNIT) == 0 ) {
+        off[i / UNIT] = size_;
+      }
+      if (values[i] == null) {
+        out_.writeShort(-1);
+        size_ += 2;
+      }
+      else {
+        byte[] b = values[i].getBytes();
+        out_.writeShort(b.length);
+        out_.write(b);
+        size_ += 2 + b.length;
+      }
+    }
+    off[numUnits_] = size_;
+    offsets_.add(off);
+  }
+
+  /**
+   * Write the PCL file with the given row and column headers.
+   */
+  public void writePCL(String ofile, Vector<String> id, 
+      Vector<String> name, Vector<String> arrayName) throws IOException {
+    out_.close();
+    int numCols = offsets_.size();
+    PCLFileWriter writer = new PCLFileWriter(ofile);
+    Object[] h1 = new Object[3 + numCols];
+    h1[0] = "AID"; h1[1] = "Name"; h1[2] = "GWEIGHT";
+    for (int i =0; i < numCols; i++) {
+        h1[i+3] = arrayName.get(i);
+    }
+    writer.writeData(new GeneData(h1));
+    h1 = new Object[3 + numCols];
+    h1[0] = "EWEIGHT"; h1[1] = ""; h1[2] = "";
+    for (int i =0; i < numCols; i++) {
+        h1[i+3] = "1";
+    }
+    writer.writeData(new GeneData(h1));
+
+    int units = MAX_CELLS / (UNIT * Math.max(numCols, 1));
+    if (units < 1) { units = 1; }
+    RandomAccessFile raf = new RandomAccessFile(file_, "r");
+    byte[] buffer = new byte[1024];
+    for (int u = 0; u < numUnits_; u += units) {
+      int u1 = Math.min(u + units, numUnits_);
+      int start = u * UNIT;
+      int end = Math.min(u1 * UNIT, numRows_);
+      System.out.println(start);
+      String[][] cells = new String[end - start][numCols];
+      for (int j = 0; j < numCols; j++) {
+        long[] off = offsets_.get(j);
+        int len = (int) (off[u1] - off[u]);
+        if (buffer.length < len) {
+          buffer = new byte[len];
+        }
+        raf.seek(off[u]);
+        raf.readFully(buffer, 0, len);
+        int pos = 0;
+        for (int i = 0; i < end - start; i++) {
+          int l = (short) (((buffer[pos] & 0xff) << 8) | (buffer[pos+1] & 0xff));
+          pos += 2;
+          if (l >= 0) {
+            cells[i][j] = new String(buffer, pos, l);
+            pos += l;
+          }
+        }
+      }
+      for (int i = 0; i < end - start; i++) {
+        h1 = new Object[3 + numCols];
+        h1[0] = id.get(start + i); h1[1] = name.get(start + i); h1[2] = "1";
+        for (int j = 0; j < numCols; j++) {
+          h1[j+3] = cells[i][j];
+        }
+        writer.writeData(new GeneData(h1));
+      }
+    }
+    raf.close();
+    writer.close();
+  }
+
+  public void delete() throws IOException {
+    out_.close();
+    file_.delete();
+  }
+
+};
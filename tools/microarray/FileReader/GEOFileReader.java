@@ -74,6 +74,24 @@ public class GEOFileReader {
   }
 
   public static Data readFile(String filename, HashSet<String> excludeList) throws Exception {
+    return readFile(filename, excludeList, null);
+  }
+
+  /**
+   * Streaming conversion of a SOFT file to PCL. Sample columns are
+   * spilled to a temporary columnar file and transposed at the end,
+   * so memory does not grow with the number of samples.
+   */
+  public static void convertFile(String filename, HashSet<String> excludeList,
+      String ofile) throws Exception {
+    readFile(filename, excludeList, ofile);
+  }
+
+  /*
+   * Returns null when ofile is given and the data is written to ofile.
+   */
+  static Data readFile(String filename, HashSet<String> excludeList,
+      String ofile) throws Exception {
     System.out.println("Reading file " + filename);
     FileReader     fr;
     BufferedReader br;
@@ -115,6 +133,7 @@ public class GEOFileReader {
     Vector<String[] > data = new Vector<String[] >();
     Vector<String> sampleId = new Vector<String>();
     HashSet<String> sampleIdselect = null;
+    ColumnSpillFile spill = null;
 
     String record = br.readLine();
     while (record != null) {
@@ -266,7 +285,15 @@ public class GEOFileReader {
             }
             count++;
           }
-          data.add(values);
+          if (ofile != null) {
+            if (spill == null) {
+              spill = new ColumnSpillFile(id.size());
+            }
+            spill.addColumn(values);
+          }
+          else {
+            data.add(values);
+          }
         }
       }
 
@@ -276,6 +303,17 @@ public class GEOFileReader {
     if (numArrays != arrayName.size()) {
       throw new ArrayException("# arrays sample != # arrays platform");
     }
+    br.close();
+    if (ofile != null) {
+      if (spill == null) {
+        spill = new ColumnSpillFile(id.size());
+      }
+      System.out.println("Writing " + ofile);
+      spill.writePCL(ofile, id, geneName, arrayName);
+      spill.delete();
+      System.out.println("Done");
+      return null;
+    }
 
     numArrayHeader = 3;
     numGeneHeader = 2;
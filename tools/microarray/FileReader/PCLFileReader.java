@@ -43,6 +43,7 @@ package tools.microarray.FileReader;
 
 import tools.microarray.Data;
 import tools.microarray.GeneData;
+import tools.microarray.OffHeapMatrix;
 import tools.microarray.ArrayException;
 import java.io.*;
 import java.util.*;
@@ -71,7 +72,7 @@ public class PCLFileReader {
 
   int numHits_; // Number of hits in the cache
 
-  BufferedRandomAccessFile randomReader_;
+  RandomLineReader randomReader_;
   HashMap<Long, Long> lineMap_; // Map Line number to FilePointer
   HashMap<Long, GeneData> cache_; // cache for Random Access
 
@@ -95,6 +96,12 @@ public class PCLFileReader {
   public int getNumArrays() { return numArrays_; }
   public int getNumArrayHeader() { return numArrayHeader_; }
   public int getNumColumns() { return numArrayHeader_ + numArrays_; }
+  public long getNumLines() {
+    if (lineMap_ == null) {
+      return -1;
+    }
+    return lineMap_.size() - 1;
+  }
 
   public void startReader() throws IOException {
     if (filename_.startsWith("http:")) {
@@ -161,10 +168,19 @@ public class PCLFileReader {
   }
 
   public void beginLightRandomAccess() throws IOException {
-    if (filename_.startsWith("http:") || filename_.endsWith(".gz")) {
+    if (filename_.startsWith("http:")) {
       throw new IOException("Can't open RandomAccess on file: " + filename_);
     }
-    randomReader_ = new BufferedRandomAccessFile(filename_, "r");
+    if (filename_.endsWith(".gz")) {
+      // Only blocked gzip files (see BlockGzipWriter) are seekable
+      if (!BlockGzipReader.isBlockGzip(filename_)) {
+        throw new IOException("Can't open RandomAccess on file: " + filename_);
+      }
+      randomReader_ = new BlockGzipReader(filename_);
+    }
+    else {
+      randomReader_ = new BufferedRandomAccessFile(filename_, "r");
+    }
     lineno_ = 0;
     System.out.println("Building Indices...");
     lineMap_ = new HashMap<Long, Long>();
@@ -262,6 +278,20 @@ public class PCLFileReader {
     return res;
   }
 
+  /*
+   * Next line of the file after begin(), without splitting it into a
+   * GeneData. Returns null at the end of the file.
+   */
+  public String getLine() throws IOException {
+    String record = reader_.readLine();
+    if (record == null) {
+      state_ = State.CLOSED;
+      return null;
+    }
+    lineno_++;
+    return record;
+  }
+
   // Call beginRandomAccess before this function
   //    lineno = -1 -> readCurrentLine
   public GeneData getDataAt(long lineno) throws IOException {
@@ -315,6 +345,18 @@ public class PCLFileReader {
   }
 
   public static Data readFile(String filename) throws Exception {
+    return readFile(filename, false);
+  }
+
+  /*
+   * numeric = true : gene rows are stored as double[] (float[] with
+   * GeneData.FLOAT_STORAGE) while reading, so the boxed Object[] rows are never built.
+   * Rows above EWEIGHT (searched in the first HEADER_SEARCH lines)
+   * are kept as Strings.
+   */
+  public static int HEADER_SEARCH = 10;
+
+  public static Data readFile(String filename, boolean numeric) throws Exception {
     System.out.println("Reading file " + filename);
     FileReader     fr;
     BufferedReader br;
@@ -344,7 +386,8 @@ public class PCLFileReader {
     int numGeneHeader = 1;
     int numArrayHeader = 2;
 
-    LinkedList<String[] > data = new LinkedList<String[] >();
+    LinkedList<Object> data = new LinkedList<Object>();
+    boolean headerDone = false;
 
     String record = br.readLine();
     if (record == null) {
@@ -364,6 +407,12 @@ public class PCLFileReader {
         }
     }
 
+    // GeneData.OFF_HEAP : the values of the numeric rows go off the heap
+    OffHeapMatrix matrix = null;
+    if (numeric && GeneData.OFF_HEAP) {
+      matrix = new OffHeapMatrix(Math.max(0, numArrays - numArrayHeader));
+    }
+
     // Dill: Debugging code
     System.out.println("Header");
     for (int i=0; i < result.length; i++) {
@@ -383,7 +432,31 @@ public class PCLFileReader {
         }
         result = res;
       }
-      data.add(result);
+      if (numeric && !headerDone) {
+        String str = result.length > 0 ? result[0] : null;
+        if ((str != null && str.equals("EWEIGHT")) || 
+            lineno > HEADER_SEARCH) {
+          headerDone = true;
+          if (lineno > HEADER_SEARCH) {
+            // No EWEIGHT : only the first line is a header
+            ListIterator<Object> it = data.listIterator(1);
+            while (it.hasNext()) {
+              it.set(getNumericRow((String[]) it.next(), numArrayHeader,
+                    matrix));
+            }
+          }
+          else {
+            data.add(result);
+            continue;
+          }
+        }
+      }
+      if (numeric && headerDone) {
+        data.add(getNumericRow(result, numArrayHeader, matrix));
+      }
+      else {
+        data.add(result);
+      }
     }
 
     GeneData[] data_ = new GeneData[data.size()];
@@ -391,7 +464,12 @@ public class PCLFileReader {
     int i = 0;
     boolean eweightFound = false;
     while (iter.hasNext()) {
-        result = (String[]) iter.next();
+        Object row = iter.next();
+        if (row instanceof GeneData) {
+          data_[i++] = (GeneData) row;
+          continue;
+        }
+        result = (String[]) row;
         Object[] d = new Object[result.length];
         for (int j = 0; j < result.length; j++) {
             d[j] = result[j];
@@ -418,10 +496,44 @@ public class PCLFileReader {
     numGenes = data_.length - numGeneHeader;
     Data res = new Data(numArrays, numGenes, numGeneHeader, numArrayHeader, 
                     data_);
+    if (numeric) {
+      res.toNumeric(); // rows read before EWEIGHT was found
+    }
     System.out.println("Done");
     return res;
 
   }
 
+  static GeneData getNumericRow(String[] result, int numArrayHeader,
+      OffHeapMatrix matrix) throws IOException {
+    int n = Math.min(numArrayHeader, result.length);
+    String[] ann = new String[n];
+    for (int j = 0; j < n; j++) {
+      ann[j] = result[j];
+    }
+    GeneData res;
+    if (matrix != null && matrix.getNumColumns() == result.length - n) {
+      res = new GeneData(ann, matrix, matrix.addRow());
+    }
+    else if (GeneData.FLOAT_STORAGE) {
+      res = new GeneData(ann, new float[result.length - n]);
+    }
+    else {
+      res = new GeneData(ann, new double[result.length - n]);
+    }
+    for (int j = n; j < result.length; j++) {
+      double v = Double.NaN;
+      if (result[j] != null) {
+        try {
+          v = Double.parseDouble(result[j]);
+        }
+        catch(NumberFormatException e) {
+        }
+      }
+      res.setValue(j, v);
+    }
+    return res;
+  }
+
 };
 
@@ -0,0 +1,104 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.FileWriter;
+
+import java.io.*;
+
+/**
+ * Binary bit vector file (.bvb), written along with the text .bv file
+ * by "bimodal thrBv2". A header (magic, number of arrays) is followed
+ * by one record per row: id, name, then two bit sets of
+ * (numArrays + 63) / 64 longs each :
+ *   high : value above the high threshold ('2' in the .bv)
+ *   thr  : value outside the gap ('0' or '2'), as getBitSet(bv, 1)
+ * See FileReader.BitVectorReader.
+ */
+public class BitVectorWriter {
+
+  public static final int MAGIC = 0x42564231;
+
+  DataOutputStream out_;
+  int numArrays_;
+  long[] high_;
+  long[] thr_;
+
+  public BitVectorWriter(String file, int numArrays) throws IOException {
+    out_ = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file), 1 << 16));
+    numArrays_ = numArrays;
+    high_ = new long[(numArrays + 63) / 64];
+    thr_ = new long[high_.length];
+    out_.writeInt(MAGIC);
+    out_.writeInt(numArrays);
+  }
+
+  /* codes[off .. off+numArrays-1] : the characters of the .bv line */
+  public void write(String id, String name, byte[] codes, int off)
+    throws IOException {
+    for (int i = 0; i < high_.length; i++) {
+      high_[i] = thr_[i] = 0;
+    }
+    for (int i = 0; i < numArrays_; i++) {
+      byte c = codes[off + i];
+      if (c == '2') {
+        high_[i >> 6] |= 1L << i;
+      }
+      if (c == '0' || c == '2') {
+        thr_[i >> 6] |= 1L << i;
+      }
+    }
+    out_.writeUTF(id);
+    out_.writeUTF(name);
+    for (int i = 0; i < high_.length; i++) {
+      out_.writeLong(high_[i]);
+    }
+    for (int i = 0; i < thr_.length; i++) {
+      out_.writeLong(thr_[i]);
+    }
+  }
+
+  public void close() throws IOException {
+    out_.close();
+  }
+
+};
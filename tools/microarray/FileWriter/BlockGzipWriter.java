@@ -0,0 +1,215 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.microarray.FileWriter;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a blocked gzip file (BGZF layout) that can be read back
+ * sequentially with GZIPInputStream and randomly with BlockGzipReader.
+ * Text is cut into blocks of at most BLOCK_SIZE bytes; each block is
+ * an independent gzip member with its compressed size in a "BC" extra
+ * field. The file ends with the standard empty EOF block.
+ */
+public class BlockGzipWriter extends OutputStream {
+
+  public static int BLOCK_SIZE = 0xff00;
+  static final int MAX_BLOCK_SIZE = 65536;
+  static final int HEADER_SIZE = 18;
+  static final int FOOTER_SIZE = 8;
+
+  OutputStream out_;
+  Deflater deflater_;
+  CRC32 crc_;
+  byte[] buffer_;
+  int count_;
+  byte[] cbuffer_;
+  long address_;   // compressed offset of the next block
+
+  public BlockGzipWriter(String file) throws IOException {
+    this(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+  }
+
+  public BlockGzipWriter(OutputStream out) {
+    out_ = out;
+    deflater_ = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    crc_ = new CRC32();
+    buffer_ = new byte[BLOCK_SIZE];
+    cbuffer_ = new byte[MAX_BLOCK_SIZE];
+    count_ = 0;
+    address_ = 0;
+  }
+
+  /**
+   * Virtual offset of the next byte written.
+   */
+  public long getFilePointer() {
+    return (address_ << 16) | count_;
+  }
+
+  public void write(int b) throws IOException {
+    if (count_ >= buffer_.length) {
+      flushBlock();
+    }
+    buffer_[count_++] = (byte) b;
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (count_ >= buffer_.length) {
+        flushBlock();
+      }
+      int n = Math.min(len, buffer_.length - count_);
+      System.arraycopy(b, off, buffer_, count_, n);
+      count_ += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Starts a new block if the line would not fit in the current one,
+   * so that lines shorter than a block are never split.
+   */
+  public void writeLine(String line) throws IOException {
+    byte[] b = (line + "\n").getBytes();
+    if (count_ > 0 && count_ + b.length > buffer_.length) {
+      flushBlock();
+    }
+    write(b, 0, b.length);
+  }
+
+  public void flush() throws IOException {
+    flushBlock();
+    out_.flush();
+  }
+
+  void flushBlock() throws IOException {
+    if (count_ == 0) {
+      return;
+    }
+    writeBlock(buffer_, 0, count_);
+    count_ = 0;
+  }
+
+  void writeBlock(byte[] b, int off, int len) throws IOException {
+    deflater_.reset();
+    deflater_.setInput(b, off, len);
+    deflater_.finish();
+    int clen = 0;
+    int max = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+    while (!deflater_.finished() && clen < max) {
+      clen += deflater_.deflate(cbuffer_, clen, max - clen);
+    }
+    if (!deflater_.finished()) {
+      // Data expands : split it in two blocks
+      int half = len / 2;
+      writeBlock(b, off, half);
+      writeBlock(b, off + half, len - half);
+      return;
+    }
+    crc_.reset();
+    crc_.update(b, off, len);
+    writeMember(cbuffer_, clen, crc_.getValue(), len);
+  }
+
+  void writeMember(byte[] cdata, int clen, long crc, int isize) 
+    throws IOException {
+    int bsize = HEADER_SIZE + clen + FOOTER_SIZE;
+    byte[] h = {
+      31, (byte) 139, 8, 4,   // ID1 ID2 CM FLG(FEXTRA)
+      0, 0, 0, 0,             // MTIME
+      0, (byte) 0xff,         // XFL OS
+      6, 0,                   // XLEN
+      'B', 'C', 2, 0,         // BGZF subfield
+      (byte) ((bsize - 1) & 0xff), (byte) (((bsize - 1) >> 8) & 0xff)
+    };
+    out_.write(h);
+    out_.write(cdata, 0, clen);
+    writeInt(crc);
+    writeInt(isize);
+    address_ += bsize;
+  }
+
+  void writeInt(long v) throws IOException {
+    out_.write((int) (v & 0xff));
+    out_.write((int) ((v >> 8) & 0xff));
+    out_.write((int) ((v >> 16) & 0xff));
+    out_.write((int) ((v >> 24) & 0xff));
+  }
+
+  public void close() throws IOException {
+    flushBlock();
+    // EOF marker : empty block
+    deflater_.reset();
+    deflater_.finish();
+    int clen = deflater_.deflate(cbuffer_, 0, cbuffer_.length);
+    writeMember(cbuffer_, clen, 0, 0);
+    deflater_.end();
+    out_.close();
+  }
+
+  /**
+   * Compress a PCL/bv text file (plain or gzip) into the blocked layout.
+   */
+  public static void compressFile(String ifile, String ofile) 
+    throws IOException {
+    System.out.println("Compressing " + ifile + " -> " + ofile);
+    BufferedReader reader = tools.io.NetworkInfo.getReader(ifile);
+    BlockGzipWriter out = new BlockGzipWriter(ofile);
+    String record;
+    long lineno = 0;
+    while ((record = reader.readLine()) != null) {
+      out.writeLine(record);
+      lineno++;
+      if ( (lineno % 10000) == 0 ) {
+        System.out.println(lineno);
+      }
+    }
+    reader.close();
+    out.close();
+    System.out.println("Done");
+  }
+
+};
@@ -83,7 +83,7 @@ public class GeneSetWriter {
     while (itr.hasNext()) {
       String tag = (String) itr.next();
       String desc = set.getDescription(tag);
-      HashSet<String>  hashSet= set.getSet(tag);
+      Set<String>  hashSet= set.getSet(tag);
       int k = hashSet.size();
       out.write("<li> <font size=+1> "+ tag +"</font> " +
           desc +
@@ -117,7 +117,7 @@ public class GeneSetWriter {
       String tag = (String) itr.next();
       String desc = set.getDescription(tag);
       out.write(tag+"\t"+desc+"\t");
-      HashSet<String>  hashSet= set.getSet(tag);
+      Set<String>  hashSet= set.getSet(tag);
       Iterator<String> itr1 = hashSet.iterator();
       while (itr1.hasNext()) {
         String name = (String) itr1.next();
@@ -145,7 +145,7 @@ public class GeneSetWriter {
     while (itr.hasNext()) {
       groupid++;
       String tag = (String) itr.next();
-      HashSet<String>  hashSet= set.getSet(tag);
+      Set<String>  hashSet= set.getSet(tag);
       out.write("\t" + tag);
       Iterator<String> itr1 = hashSet.iterator();
       while (itr1.hasNext()) {
@@ -201,7 +201,7 @@ public class GeneSetWriter {
     while (itr.hasNext()) {
       groupid++;
       String tag = (String) itr.next();
-      HashSet<String>  hashSet= set.getSet(tag);
+      Set<String>  hashSet= set.getSet(tag);
       out.write("<Attribute Name=\"" +tag+ "\" Id=\"" +groupid+"\"");
       out.write(" Counts=\"" + totalNum + " " + hashSet.size() + "\"");
       out.write(" Value=\"0 1\" />");
@@ -0,0 +1,319 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.microarray.FileWriter;
+
+import tools.microarray.GeneData;
+import java.io.*;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+
+/**
+ * Buffered text writer for large numeric outputs (PCL, thr, bv, pairs).
+ * Fields are copied straight into a reusable byte buffer instead of
+ * building a String per line.
+ *
+ * write(double) gives the same text as Double.toString and
+ * write(double, digits) the same as the "0.##..#" number format used
+ * by CustomAnalysis.formatString, so existing files are unchanged.
+ */
+public class NumberWriter {
+
+  static final long[] POW10 = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+    100000000L, 1000000000L
+  };
+
+  OutputStream out_;
+  byte[] buffer_;
+  int count_;
+  DecimalFormat[] formats_;
+
+  public NumberWriter(String file) throws IOException {
+    this(new FileOutputStream(file));
+  }
+
+  public NumberWriter(OutputStream out) {
+    out_ = out;
+    buffer_ = new byte[1 << 16];
+    count_ = 0;
+    formats_ = new DecimalFormat[POW10.length];
+  }
+
+  void flushBuffer() throws IOException {
+    if (count_ > 0) {
+      out_.write(buffer_, 0, count_);
+      count_ = 0;
+    }
+  }
+
+  void ensure(int n) throws IOException {
+    if (count_ + n > buffer_.length) {
+      flushBuffer();
+      if (n > buffer_.length) {
+        buffer_ = new byte[n];
+      }
+    }
+  }
+
+  public void write(char c) throws IOException {
+    if (c >= 0x80) {
+      write(String.valueOf(c));
+      return;
+    }
+    if (count_ >= buffer_.length) {
+      flushBuffer();
+    }
+    buffer_[count_++] = (byte) c;
+  }
+
+  public void tab() throws IOException { write('\t'); }
+  public void newline() throws IOException { write('\n'); }
+
+  public void write(String s) throws IOException {
+    int len = s.length();
+    ensure(len);
+    int start = count_;
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        // Non ASCII : use the platform encoding like FileWriter
+        count_ = start;
+        byte[] b = s.getBytes();
+        ensure(b.length);
+        System.arraycopy(b, 0, buffer_, count_, b.length);
+        count_ += b.length;
+        return;
+      }
+      buffer_[count_++] = (byte) c;
+    }
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensure(len);
+    System.arraycopy(b, off, buffer_, count_, len);
+    count_ += len;
+  }
+
+  public void write(Object obj) throws IOException {
+    if (obj instanceof Double) {
+      write(((Double) obj).doubleValue());
+    }
+    else {
+      write(String.valueOf(obj));
+    }
+  }
+
+  public void write(long v) throws IOException {
+    if (v == Long.MIN_VALUE) {
+      write(Long.toString(v));
+      return;
+    }
+    ensure(20);
+    if (v < 0) {
+      buffer_[count_++] = '-';
+      v = -v;
+    }
+    int end = count_ + 1;
+    for (long t = v; t >= 10; t /= 10) {
+      end++;
+    }
+    count_ = end;
+    do {
+      buffer_[--end] = (byte) ('0' + (v % 10));
+      v /= 10;
+    } while (v > 0);
+  }
+
+  /**
+   * Same text as Double.toString(v).
+   */
+  public void write(double v) throws IOException {
+    long l = (long) v;
+    if (l == v && Math.abs(v) < 1e7 && (l != 0 || 1/v > 0)) {
+      write(l);
+      write('.');
+      write('0');
+      return;
+    }
+    write(Double.toString(v));
+  }
+
+  /**
+   * Same text as formatString("0.#####", v) with the given number of
+   * fraction digits (1 - 9).
+   */
+  public void write(double v, int digits) throws IOException {
+    double scaled = Math.abs(v) * POW10[digits];
+    if (scaled < 1e9) {
+      double r = Math.rint(scaled);
+      double frac = scaled - Math.floor(scaled);
+      if (Math.abs(frac - 0.5) > 1e-6) {
+        long n = (long) r;
+        if (v < 0 || (v == 0 && 1/v < 0)) {
+          write('-');
+        }
+        long p = POW10[digits];
+        write(n / p);
+        long f = n % p;
+        if (f != 0) {
+          while ((f % 10) == 0) {
+            f /= 10;
+            digits--;
+          }
+          ensure(digits + 1);
+          buffer_[count_++] = '.';
+          int end = count_ + digits;
+          count_ = end;
+          for (int i = 0; i < digits; i++) {
+            buffer_[--end] = (byte) ('0' + (f % 10));
+            f /= 10;
+          }
+        }
+        return;
+      }
+    }
+    // Ties, large values, NaN and Infinity
+    if (formats_[digits] == null) {
+      StringBuffer sb = new StringBuffer("0.");
+      for (int i = 0; i < digits; i++) {
+        sb.append('#');
+      }
+      formats_[digits] = new DecimalFormat(sb.toString());
+    }
+    write(formats_[digits].format(v));
+  }
+
+  /**
+   * The value of the text written by write(v, digits), so that a
+   * threshold can be applied to what is printed.
+   */
+  public static double round(double v, int digits) {
+    double scaled = Math.abs(v) * POW10[digits];
+    if (scaled < 1e9) {
+      double frac = scaled - Math.floor(scaled);
+      if (Math.abs(frac - 0.5) > 1e-6) {
+        double r = Math.rint(scaled) / POW10[digits];
+        return (v < 0) ? -r : r;
+      }
+    }
+    if (Double.isNaN(v) || Double.isInfinite(v)) {
+      return v;
+    }
+    // Ties : the number format rounds the exact value half even
+    return new BigDecimal(v).setScale(digits,
+        BigDecimal.ROUND_HALF_EVEN).doubleValue();
+  }
+
+  /**
+   * Same text as GeneData.toString().
+   */
+  public void write(GeneData gene) throws IOException {
+    if (gene.isNumeric()) {
+      String[] ann = gene.getAnnotations();
+      double[] values = gene.getValues();
+      float[] fvalues = gene.getFloatValues();
+      int n = gene.size() - ann.length;
+      boolean floats = (fvalues != null) ||
+        (gene.isOffHeap() && gene.getMatrix().isFloat());
+      for (int i = 0; i < ann.length; i++) {
+        if (i > 0) {
+          write('\t');
+        }
+        write(ann[i] == null ? " " : ann[i]);
+      }
+      for (int i = 0; i < n; i++) {
+        if (i > 0 || ann.length > 0) {
+          write('\t');
+        }
+        double v;
+        if (values != null) {
+          v = values[i];
+        }
+        else if (fvalues != null) {
+          v = fvalues[i];
+        }
+        else {
+          v = gene.getValue(ann.length + i);
+        }
+        if (Double.isNaN(v)) {
+          write(' ');
+        }
+        else if (floats) {
+          write(Float.toString((float) v));
+        }
+        else {
+          write(v);
+        }
+      }
+      write('\n');
+      return;
+    }
+    Object[] data = gene.getData();
+    for (int i = 0; i < data.length; i++) {
+      if (i > 0) {
+        write('\t');
+      }
+      Object obj = data[i];
+      if (obj == null) {
+        write(' ');
+      }
+      else if (obj instanceof Boolean) {
+        write(((Boolean) obj).booleanValue() ? '1' : '0');
+      }
+      else {
+        write(obj);
+      }
+    }
+    write('\n');
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    out_.flush();
+  }
+
+  public void close() throws IOException {
+    flushBuffer();
+    out_.close();
+  }
+
+};
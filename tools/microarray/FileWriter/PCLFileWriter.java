@@ -50,16 +50,16 @@ import java.util.ListIterator;
 public class PCLFileWriter {
 
   String filename_;
-  BufferedWriter out_;
+  NumberWriter out_;
 
   public PCLFileWriter(String file) throws IOException {
     filename_ = file;
-    out_ = new BufferedWriter(new FileWriter(filename_));
+    out_ = new NumberWriter(filename_);
   }
 
   public void writeData(GeneData gene) throws IOException {
     if (gene != null) {
-      out_.write(gene.toString());
+      out_.write(gene);
     }
   }
 
@@ -73,13 +73,13 @@ public class PCLFileWriter {
 
   public static void writeFile(Data data, String filename, int[] order) throws IOException {
     System.out.println("Writing file " + filename);
-    BufferedWriter out = new BufferedWriter(new FileWriter(filename));
+    NumberWriter out = new NumberWriter(filename);
     int max = data.getNumRows();
     if (order != null) { // Specific gene order is given
       max = order.length;
       for (int i =0; i < data.getNumGeneHeader(); i++) {
         GeneData gene = data.getGeneData(i);
-        out.write(gene.toString());
+        out.write(gene);
       }
     }
 
@@ -92,7 +92,7 @@ public class PCLFileWriter {
             System.err.println("Error at index" + i);
             System.exit(0);
           }
-          out.write(gene.toString());
+          out.write(gene);
         }
       }
       else {
@@ -102,7 +102,7 @@ public class PCLFileWriter {
             System.exit(0);
         }
         gene = gene.subset(0, data.getNumColumns()-1);
-        out.write(gene.toString());
+        out.write(gene);
       }
     }
     out.close();
@@ -60,8 +60,12 @@ public class GeneSet {
     map_ = new SMHashMapUnique<String, String>();
   }
 
-  public HashSet<String> getSet(String name) {
-    return map_.get(name);
+  public Set<String> getSet(String name) {
+    HashSet<String> set = map_.get(name);
+    if (set == null) {
+      return null;
+    }
+    return Collections.unmodifiableSet(set);
   }
 
   public String getDescription(String name) {
@@ -76,8 +80,8 @@ public class GeneSet {
     return allGenes_.size();
   }
 
-  public HashSet<String> getAllGenes() {
-    return allGenes_;
+  public Set<String> getAllGenes() {
+    return Collections.unmodifiableSet(allGenes_);
   }
 
   public Vector<String> getAllSets() {
@@ -105,11 +109,11 @@ public class GeneSet {
     allGenes_.add(gene);
   }
 
-  public void add(String name, HashSet<String> set) {
+  public void add(String name, Set<String> set) {
     add(name, name, set);
   }
 
-  public void add(String name, String desc, HashSet<String> set) {
+  public void add(String name, String desc, Set<String> set) {
     addName(name, desc);
     Iterator<String> itr = set.iterator();
     while(itr.hasNext()) {
@@ -139,14 +143,14 @@ public class GeneSet {
     while(itr.hasNext()) {
       String str = (String) itr.next();
       String desc = a.getDescription(str);
-      HashSet<String> set = a.getSet(str);
+      Set<String> set = a.getSet(str);
       res.add(str, desc, set);
     }
     itr = b.iterator();
     while(itr.hasNext()) {
       String str = (String) itr.next();
       String desc = b.getDescription(str);
-      HashSet<String> set = b.getSet(str);
+      Set<String> set = b.getSet(str);
       res.add(str, desc, set);
     }
     return res;
@@ -158,7 +162,7 @@ public class GeneSet {
     while(itr.hasNext()) {
       String str = (String) itr.next();
       String desc = a.getDescription(str);
-      HashSet<String> set = a.getSet(str);
+      HashSet<String> set = new HashSet<String>(a.getSet(str));
       set.removeAll(genes);
       if (set.size() > 0) {
         res.add(str, desc, set);
@@ -173,7 +177,7 @@ public class GeneSet {
     while(itr.hasNext()) {
       String str = (String) itr.next();
       String desc = a.getDescription(str);
-      HashSet<String> set = a.getSet(str);
+      Set<String> set = a.getSet(str);
       Iterator<String> itr1 = set.iterator();
       while(itr1.hasNext()) {
         String gene = (String) itr1.next();
@@ -191,7 +195,7 @@ public class GeneSet {
       String str = (String) itr.next();
       String desc = getDescription(str);
       res.append(str + ":" + desc + "\n\t");
-      HashSet<String> set = getSet(str);
+      Set<String> set = getSet(str);
       Iterator<String> itr1 = set.iterator();
       int i = 0;
       while(itr1.hasNext()) {
@@ -44,6 +44,7 @@ package tools.microarray;
 import java.util.*;
 import java.io.*;
 import tools.goanalysis.*;
+import tools.io.SymbolTable;
 
 public class GeneSetAnalysis {
 
@@ -95,7 +96,7 @@ public class GeneSetAnalysis {
     out.write("<li> <font size=+1> Gene Set Analysis </font> ("+ a_.getTotalNum()  +")<ul>\n");
     while(itr1.hasNext()) {
       String str1 = (String) itr1.next();
-      HashSet<String> set1 = a_.getSet(str1);
+      Set<String> set1 = a_.getSet(str1);
       out.write("<li> <font size=+1> " + str1 + "</font> <ul>\n");
       Vector<String> strSet = new Vector<String>(set1);
       for (int k = 0; k < strSet.size(); k++) {
@@ -119,18 +120,33 @@ public class GeneSetAnalysis {
     out.close();
   }
 
+  /* Each set as sorted SymbolTable ids, kept only for one analysis */
+  static HashMap<String, int[]> getIds(GeneSet g) {
+    HashMap<String, int[]> res = new HashMap<String, int[]>();
+    Iterator<String> itr = g.iterator();
+    while(itr.hasNext()) {
+      String str = (String) itr.next();
+      Set<String> set = g.getSet(str);
+      if (set != null) {
+        res.put(str, SymbolTable.getIds(set));
+      }
+    }
+    return res;
+  }
+
   public void performAnalysis(String file, String org, double pvalue) throws Exception {
     BufferedWriter out = new BufferedWriter(new FileWriter(file));
     out.write(GOAnalysis.getHeader());
-    HashSet<String> all = new HashSet<String>(a_.getAllGenes());
     HashSet<String> pairs = new HashSet<String>();
-    all.addAll(b_.getAllGenes());
-    int N = all.size();
+    HashMap<String, int[]> idsA = getIds(a_);
+    HashMap<String, int[]> idsB = getIds(b_);
+    int N = SymbolTable.union(SymbolTable.getIds(a_.getAllGenes()),
+        SymbolTable.getIds(b_.getAllGenes())).length;
     out.write("<li> <font size=+1> Gene Set Analysis </font> ("+ a_.getTotalNum() + "," + b_.getTotalNum() + "," + N +")<ul>\n");
     Iterator<String> itr1 = a_.iterator();
     while(itr1.hasNext()) {
       String str1 = (String) itr1.next();
-      HashSet<String> set1 = a_.getSet(str1);
+      Set<String> set1 = a_.getSet(str1);
       Iterator<String> itr2 = b_.iterator();
       StringBuffer outStr = new StringBuffer();
       boolean sig = false;
@@ -144,16 +160,16 @@ public class GeneSetAnalysis {
           continue;
         }
         pairs.add(str1+str2);
-        HashSet<String> set2 = b_.getSet(str2);
+        Set<String> set2 = b_.getSet(str2);
         String desc = b_.getDescription(str2);
-        HashSet<String> intersect = new HashSet<String>(set1);
-        intersect.retainAll(set2);
-        int k = intersect.size();
+        int k = SymbolTable.intersectCount(idsA.get(str1), idsB.get(str2));
         int n = set1.size();
         int M = set2.size();
         double pval = getPvalue(k, n, M, N);
         if (pval < pvalue) {
           sig = true;
+          HashSet<String> intersect = new HashSet<String>(set1);
+          intersect.retainAll(set2);
           //System.out.println(str1 + ", " + str2 + "," + desc);
           //System.out.println("\t" + pval + ":" + k + "," + n + "," + M + "," + N);
           outStr.append("<li> <font size=+1> "+ str2 +"</font> " +
@@ -187,10 +203,11 @@ public class GeneSetAnalysis {
 
   public void performAnalysisOutTAB(String file, String org, double pvalue) throws Exception {
     BufferedWriter out = new BufferedWriter(new FileWriter(file));
-    HashSet<String> all = new HashSet<String>(a_.getAllGenes());
     HashSet<String> pairs = new HashSet<String>();
-    all.addAll(b_.getAllGenes());
-    int N = all.size();
+    HashMap<String, int[]> idsA = getIds(a_);
+    HashMap<String, int[]> idsB = getIds(b_);
+    int N = SymbolTable.union(SymbolTable.getIds(a_.getAllGenes()),
+        SymbolTable.getIds(b_.getAllGenes())).length;
     // Header
     out.write("GeneSet\tDescription");
     Iterator<String> itr1 = a_.iterator();
@@ -202,7 +219,7 @@ public class GeneSetAnalysis {
     Iterator<String> itr2 = b_.iterator();
     while(itr2.hasNext()) {
       String str2 = (String) itr2.next();
-      HashSet<String> set2 = b_.getSet(str2);
+      Set<String> set2 = b_.getSet(str2);
       StringBuffer outStr = new StringBuffer();
       boolean sig = false;
       itr1 = a_.iterator();
@@ -215,10 +232,8 @@ public class GeneSetAnalysis {
           continue;
         }
         pairs.add(str1+str2);
-        HashSet<String> set1 = a_.getSet(str1);
-        HashSet<String> intersect = new HashSet<String>(set1);
-        intersect.retainAll(set2);
-        int k = intersect.size();
+        Set<String> set1 = a_.getSet(str1);
+        int k = SymbolTable.intersectCount(idsA.get(str1), idsB.get(str2));
         int n = set1.size();
         int M = set2.size();
         double pval = getPvalue(k, n, M, N);
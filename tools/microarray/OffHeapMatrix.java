@@ -0,0 +1,348 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.ListIterator;
+
+import tools.microarray.FileReader.PCLFileReader;
+
+/**
+ * Expression values kept outside the Java heap.
+ *
+ * Rows are packed into chunks of at most CHUNK_BYTES, each a direct
+ * ByteBuffer or a region of a memory mapped temporary file, so the
+ * matrix is not limited to 2GB and the garbage collector only sees the
+ * chunk handles. A row never spans two chunks. Values are doubles, or
+ * floats with GeneData.FLOAT_STORAGE; NaN is a missing value.
+ *
+ * A matrix made with the number of columns only grows by addRow(), in
+ * chunks of GROW_BYTES, so a reader can fill it without knowing the
+ * number of rows (see PCLFileReader with GeneData.OFF_HEAP). Its chunks
+ * are direct buffers until DIRECT_LIMIT bytes, then regions of the
+ * temporary file.
+ */
+public class OffHeapMatrix {
+
+  public static int CHUNK_BYTES = 1 << 30;
+  // Larger matrices go to a mapped temp file instead of direct memory
+  public static long DIRECT_LIMIT = 256L << 20;
+  public static int GROW_BYTES = 16 << 20;
+
+  int numRows_;
+  int numCols_;
+  int width_;         // bytes per value : 4 or 8
+  int rowsPerChunk_;
+  ByteBuffer[] chunks_;
+  File file_;
+  RandomAccessFile raf_;
+  long direct_;       // bytes of direct chunks
+  long mapped_;       // bytes of the temporary file
+
+  public OffHeapMatrix(int rows, int cols) throws IOException {
+    this(rows, cols, ((long) rows) * cols *
+        (GeneData.FLOAT_STORAGE ? 4 : 8) > DIRECT_LIMIT);
+  }
+
+  public OffHeapMatrix(int rows, int cols, boolean mapped) throws IOException {
+    this(rows, cols, mapped, GeneData.FLOAT_STORAGE ? 4 : 8);
+  }
+
+  /* width : bytes per value, 4 (float) or 8 (double) */
+  public OffHeapMatrix(int rows, int cols, boolean mapped, int width)
+    throws IOException {
+    if (width != 4 && width != 8) {
+      throw new IOException("Bad value width : " + width);
+    }
+    numRows_ = rows;
+    numCols_ = cols;
+    width_ = width;
+    long rowBytes = ((long) cols) * width_;
+    if (rowBytes > CHUNK_BYTES) {
+      throw new IOException("Row too long : " + cols + " columns");
+    }
+    rowsPerChunk_ = (int) Math.max(1, CHUNK_BYTES / Math.max(1, rowBytes));
+    int num = (rows + rowsPerChunk_ - 1) / rowsPerChunk_;
+    chunks_ = new ByteBuffer[num];
+    if (mapped) {
+      file_ = File.createTempFile("matrix", ".bin");
+      file_.deleteOnExit();
+      raf_ = new RandomAccessFile(file_, "rw");
+      raf_.setLength(rows * rowBytes);
+    }
+    for (int i = 0; i < num; i++) {
+      int n = Math.min(rowsPerChunk_, rows - i * rowsPerChunk_);
+      if (mapped) {
+        chunks_[i] = raf_.getChannel().map(FileChannel.MapMode.READ_WRITE,
+            i * rowsPerChunk_ * rowBytes, n * rowBytes);
+      }
+      else {
+        chunks_[i] = ByteBuffer.allocateDirect((int) (n * rowBytes));
+      }
+      chunks_[i].order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /* Empty matrix growing by addRow() */
+  public OffHeapMatrix(int cols) throws IOException {
+    numRows_ = 0;
+    numCols_ = cols;
+    width_ = GeneData.FLOAT_STORAGE ? 4 : 8;
+    long rowBytes = ((long) cols) * width_;
+    if (rowBytes > CHUNK_BYTES) {
+      throw new IOException("Row too long : " + cols + " columns");
+    }
+    rowsPerChunk_ = (int) Math.max(1,
+        Math.min(CHUNK_BYTES, GROW_BYTES) / Math.max(1, rowBytes));
+    chunks_ = new ByteBuffer[0];
+  }
+
+  /*
+   * New last row of a growing matrix, with a new chunk when the last
+   * one is full. Returns its index.
+   */
+  public int addRow() throws IOException {
+    int c = numRows_ / rowsPerChunk_;
+    if (c == chunks_.length) {
+      long bytes = ((long) rowsPerChunk_) * numCols_ * width_;
+      ByteBuffer b;
+      if (direct_ + bytes <= DIRECT_LIMIT) {
+        b = ByteBuffer.allocateDirect((int) bytes);
+        direct_ += bytes;
+      }
+      else {
+        if (raf_ == null) {
+          file_ = File.createTempFile("matrix", ".bin");
+          file_.deleteOnExit();
+          raf_ = new RandomAccessFile(file_, "rw");
+        }
+        raf_.setLength(mapped_ + bytes);
+        b = raf_.getChannel().map(FileChannel.MapMode.READ_WRITE,
+            mapped_, bytes);
+        mapped_ += bytes;
+      }
+      b.order(ByteOrder.nativeOrder());
+      ByteBuffer[] chunks = new ByteBuffer[c + 1];
+      System.arraycopy(chunks_, 0, chunks, 0, c);
+      chunks[c] = b;
+      chunks_ = chunks;
+    }
+    return numRows_++;
+  }
+
+  public int getNumRows() { return numRows_; }
+  public int getNumColumns() { return numCols_; }
+  public boolean isMapped() { return file_ != null; }
+  public boolean isFloat() { return width_ == 4; }
+
+  int offset(int row, int col) {
+    return ((row % rowsPerChunk_) * numCols_ + col) * width_;
+  }
+
+  public double getValue(int row, int col) {
+    ByteBuffer b = chunks_[row / rowsPerChunk_];
+    if (width_ == 4) {
+      return b.getFloat(offset(row, col));
+    }
+    return b.getDouble(offset(row, col));
+  }
+
+  public void setValue(int row, int col, double v) {
+    ByteBuffer b = chunks_[row / rowsPerChunk_];
+    if (width_ == 4) {
+      b.putFloat(offset(row, col), (float) v);
+    }
+    else {
+      b.putDouble(offset(row, col), v);
+    }
+  }
+
+  /*
+   * Copy a row into res (allocated if null).
+   */
+  public double[] getRow(int row, double[] res) {
+    if (res == null) {
+      res = new double[numCols_];
+    }
+    ByteBuffer b = chunks_[row / rowsPerChunk_];
+    int off = offset(row, 0);
+    if (width_ == 4) {
+      for (int j = 0; j < numCols_; j++, off += 4) {
+        res[j] = b.getFloat(off);
+      }
+    }
+    else {
+      for (int j = 0; j < numCols_; j++, off += 8) {
+        res[j] = b.getDouble(off);
+      }
+    }
+    return res;
+  }
+
+  /*
+   * Copy columns col0 .. col1-1 of a row into res[off ..]. Safe to call
+   * from several threads.
+   */
+  public void getRow(int row, int col0, int col1, double[] res, int off) {
+    ByteBuffer b = chunks_[row / rowsPerChunk_];
+    int pos = offset(row, col0);
+    if (width_ == 4) {
+      for (int j = col0; j < col1; j++, pos += 4) {
+        res[off++] = b.getFloat(pos);
+      }
+    }
+    else {
+      // A view of its own : the position of b is shared
+      ByteBuffer d = b.duplicate();
+      d.order(ByteOrder.nativeOrder());
+      d.position(pos);
+      d.asDoubleBuffer().get(res, off, col1 - col0);
+    }
+  }
+
+  public void setRow(int row, double[] v) {
+    for (int j = 0; j < numCols_; j++) {
+      setValue(row, j, v[j]);
+    }
+  }
+
+  public double[] getColumn(int col, double[] res) {
+    if (res == null) {
+      res = new double[numRows_];
+    }
+    for (int i = 0; i < numRows_; i++) {
+      res[i] = getValue(i, col);
+    }
+    return res;
+  }
+
+  /*
+   * Same as GeneData.getVector on the stored row : null for missing.
+   */
+  public Double[] getVector(int row) {
+    Double[] res = new Double[numCols_];
+    for (int j = 0; j < numCols_; j++) {
+      double v = getValue(row, j);
+      if (!Double.isNaN(v)) {
+        res[j] = new Double(v);
+      }
+    }
+    return res;
+  }
+
+  /*
+   * Copy columns start .. start+numCols-1 of a gene into a row.
+   */
+  public void setRow(int row, GeneData gene, int start) {
+    for (int j = 0; j < numCols_; j++) {
+      setValue(row, j, gene.getValue(start + j));
+    }
+  }
+
+  /*
+   * Gene rows of a Data object (all arrays).
+   */
+  public static OffHeapMatrix load(Data data) throws IOException {
+    int start = data.getNumArrayHeader();
+    int head = data.getNumGeneHeader();
+    OffHeapMatrix res = new OffHeapMatrix(data.getNumGenes(),
+        data.getNumArrays());
+    boolean done = false;
+    try {
+      for (int i = 0; i < res.numRows_; i++) {
+        res.setRow(i, data.getGeneData(i + head), start);
+      }
+      done = true;
+    }
+    finally {
+      if (!done) {
+        res.close();
+      }
+    }
+    return res;
+  }
+
+  /*
+   * Given line numbers of a random access PCLFileReader, in list order.
+   */
+  public static OffHeapMatrix load(PCLFileReader reader, List<Integer> rows)
+    throws IOException {
+    int start = reader.getNumArrayHeader();
+    OffHeapMatrix res = new OffHeapMatrix(rows.size(),
+        reader.getNumColumns() - start);
+    boolean done = false;
+    try {
+      ListIterator<Integer> itr = rows.listIterator();
+      for (int i = 0; itr.hasNext(); i++) {
+        GeneData gene = reader.getDataAt(itr.next().intValue());
+        res.setRow(i, gene, start);
+      }
+      done = true;
+    }
+    finally {
+      if (!done) {
+        res.close();
+      }
+    }
+    return res;
+  }
+
+  public void close() throws IOException {
+    chunks_ = null;
+    if (raf_ != null) {
+      raf_.close();
+      raf_ = null;
+    }
+    if (file_ != null) {
+      file_.delete();
+      file_ = null;
+    }
+  }
+
+};
@@ -296,11 +296,30 @@ public class QuantileNormalize {
       }
     }
 
+    /*
+     * Rows 0 and 1 hold the array names and weights, the rest are
+     * primitive rows (float[] with GeneData.FLOAT_STORAGE), NaN = missing.
+     */
     void initBuffer() {
       Vector<GeneData> res = new Vector<GeneData>();
       for (int i =0; i < platform_.size(); i++) {
-        Object[] o = new Object[BLOCK];
-        res.add(new GeneData(o));
+        if (i < 2) {
+          Object[] o = new Object[BLOCK];
+          res.add(new GeneData(o));
+          continue;
+        }
+        GeneData gene;
+        if (GeneData.FLOAT_STORAGE) {
+          float[] v = new float[BLOCK];
+          Arrays.fill(v, Float.NaN);
+          gene = new GeneData(new String[0], v);
+        }
+        else {
+          double[] v = new double[BLOCK];
+          Arrays.fill(v, Double.NaN);
+          gene = new GeneData(new String[0], v);
+        }
+        res.add(gene);
       }
       buffer_ = res;
       numArrays_ = 0;
@@ -355,8 +374,8 @@ public class QuantileNormalize {
               Integer loc = idHash_.get(id);
               for (int i = start; i <= end; i++) {
                 // System.out.print(gene.getDataAt(i) + " ");
-                buffer_.get(loc.intValue()).setDataAt(
-                    i+currentNum-nH-current_index_, gene.getDataAt(i));
+                buffer_.get(loc.intValue()).setValue(
+                    i+currentNum-nH-current_index_, gene.getValue(i));
               }
               // System.out.println();
             }
@@ -384,11 +403,11 @@ public class QuantileNormalize {
 
     public void updateMean(Integer[] rank, int num) throws IOException {
       for (int i = 0; i < rank.length; i++) {
-        Double c1 = (Double) buffer_.get(rank[i].intValue()+2).getDataAt(num);
-        if (c1 == null) {
+        double c1 = buffer_.get(rank[i].intValue()+2).getValue(num);
+        if (Double.isNaN(c1)) {
           continue;
         }
-        total_sum_[i+2] += c1.doubleValue();
+        total_sum_[i+2] += c1;
       }
       // writeMeanArray();
     }
@@ -417,15 +436,15 @@ public class QuantileNormalize {
         }
         public int compare(Integer s1, Integer s2) {
           //System.out.println(s1 + " " + num_ + " " + data_.get(s1.intValue() + 2).getDataAt(num_));
-          Double c1 = (Double) data_.get(s1.intValue() + 2).getDataAt(num_);
-          Double c2 = (Double) data_.get(s2.intValue() + 2).getDataAt(num_);
-          if (c1 == null) {
+          double c1 = data_.get(s1.intValue() + 2).getValue(num_);
+          double c2 = data_.get(s2.intValue() + 2).getValue(num_);
+          if (Double.isNaN(c1)) {
             return -1;
           }
-          if (c2 == null) {
+          if (Double.isNaN(c2)) {
             return 1;
           }
-          if (c1.doubleValue() > c2.doubleValue()) {
+          if (c1 > c2) {
             return 1;
           }
           return -1;
@@ -530,6 +549,10 @@ public class QuantileNormalize {
     public static void main(String arg[]) throws Exception {
         QuantileNormalize q = new QuantileNormalize();
         LinkedList<String> list = new LinkedList<String>(Arrays.asList(arg));
+        if (list.size() > 0 && list.getFirst().equals("--float")) {
+          list.removeFirst();
+          GeneData.FLOAT_STORAGE = true;
+        }
         String tmpfile = list.removeFirst();
         String outfile = list.removeFirst();
         QuantileNormalize.BLOCK = Integer.parseInt(list.removeFirst());
@@ -56,6 +56,8 @@ public class AnalysisMetaData {
                        // Column indices - start_
                        // Index to the data part of the GeneData
   double pvalueThr_;
+  int maxSteps_;       // KStep : most steps, 0 - no KStep fit
+  double stepPenalty_; // KStep : PELT penalty, 0 - exact segmentation
 
   public AnalysisMetaData() {
     start_ = -1;
@@ -64,6 +66,8 @@ public class AnalysisMetaData {
     stepSearch_ = null;
     stepSearch1_ = null;
     pvalueThr_ = 0.05;
+    maxSteps_ = 0;
+    stepPenalty_ = 0;
   }
 
   public AnalysisMetaData(int s, int e, int[] p, int[] st, double thr) {
@@ -73,6 +77,8 @@ public class AnalysisMetaData {
     stepSearch_ = st;
     stepSearch1_ = null;
     pvalueThr_ = thr;
+    maxSteps_ = 0;
+    stepPenalty_ = 0;
   }
 
   public int getStart() { return start_; }
@@ -82,6 +88,10 @@ public class AnalysisMetaData {
   public int[] getPermutation() { return perm_;}
   public void setStepSearch(int[] st) { stepSearch_ = st; }
   public void setStepSearch1(int[] st) { stepSearch1_ = st; }
+  public int getMaxSteps() { return maxSteps_; }
+  public void setMaxSteps(int k) { maxSteps_ = k; }
+  public double getStepPenalty() { return stepPenalty_; }
+  public void setStepPenalty(double p) { stepPenalty_ = p; }
 
 
   // Search from index s to index e for steps
@@ -148,16 +158,20 @@ public class AnalysisMetaData {
     if (data == null) {
       throw new StepException("GeneData is null");
     }
+    sanitize(data.length);
+  }
+
+  public void sanitize(int length) throws StepException {
     if (start_ < 0) {
       throw new StepException("start_ is negative");
     }
     if (start_ > end_) {
       throw new StepException("start_ > end_");
     }
-    if (end_ >= data.length) {
+    if (end_ >= length) {
       throw new StepException("end_ >= data.length");
     }
-    if (start_ >= data.length) {
+    if (start_ >= length) {
       throw new StepException("start_ >= data.length");
     }
   }
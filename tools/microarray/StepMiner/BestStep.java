@@ -46,11 +46,19 @@ import tools.microarray.GeneData;
 public class BestStep extends Step {
   Step[] fittedSteps_;
   AnalysisMetaData meta_;
+  boolean hasP12_;  // p12_ was computed in bulk, see StepBatch
+  double p12_;
 
   public BestStep() {
     super();
     fittedSteps_ = null;
     meta_ = null;
+    hasP12_ = false;
+  }
+
+  void setP12(double p) {
+    hasP12_ = true;
+    p12_ = p;
   }
 
   public double getStatistic() throws StepException { 
@@ -82,6 +90,9 @@ public class BestStep extends Step {
   }
 
   public double getP12() throws StepException {
+    if (hasP12_) {
+      return p12_;
+    }
     Step step1 = findStep(1); // get oneStep
     Step step2 = findStep(2); // get twoStep
     double sse1 = step1.getSse();
@@ -168,6 +179,19 @@ public class BestStep extends Step {
     return fittedSteps_[0];
   }
 
+  public Step findBestKStep() throws StepException {
+    if (fittedSteps_ == null) {
+      return null;
+    }
+    double thr = meta_.getPvalueThr();
+    double pk = fittedSteps_[3].getPvalue();
+
+    if (pk < thr) {
+      return fittedSteps_[3];
+    }
+    return fittedSteps_[0];
+  }
+
   public Step findBestStep(int type) throws StepException {
     if (type == 0) {
       return findBestSingleStep();
@@ -181,16 +205,28 @@ public class BestStep extends Step {
     else if (type == 3) {
       return findSelectTwoStep();
     }
+    else if (type == 4) {
+      return findBestKStep();
+    }
     throw new StepException("Undefined analysis type : " + type);
   }
 
   public static Step fitStep(GeneData gene, AnalysisMetaData meta) 
     throws StepException {
+      return fitStep(gene, meta, null);
+    }
+
+  /*
+   * kernel : StepKernel of the calling thread, its buffers are reused
+   * across genes.
+   */
+  public static Step fitStep(GeneData gene, AnalysisMetaData meta,
+      StepKernel kernel) throws StepException {
+      if (kernel == null) {
+        kernel = new StepKernel();
+      }
       BestStep res = new BestStep();
-      res.fittedSteps_ = new Step[3];
-      res.fittedSteps_[0] = ZeroStep.fitStep(gene, meta);
-      res.fittedSteps_[1] = OneStep.fitStep(gene, meta);
-      res.fittedSteps_[2] = TwoStep.fitStep(gene, meta);
+      res.fittedSteps_ = kernel.fitSteps(gene, meta);
       res.meta_ = meta;
 
       return res;
@@ -0,0 +1,200 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.StepMiner;
+
+class FdrInfo {
+    public double[] p1;
+    public double[] p2;
+    public double[] p12;
+    public int[] perm;
+
+    public FdrInfo(double[] a1, double[] a2, double[] a12) {
+        p1 = a1;
+        p2 = a2;
+        p12 = a12;
+    }
+
+    public int numSignificantSingle(double thr) {
+        int count = 0;
+        if (p1 != null) {
+            for (int i =0; i < p1.length; i++) {
+                if (p1[i] < thr) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int numSignificantBoth(double thr) {
+        int count = 0;
+        if (p1 != null && p2 != null && p12 != null) {
+            for (int i =0; i < p1.length; i++) {
+                if (p1[i] < thr && p12[i] > thr) {
+                    count++;
+                }
+                else if (p2[i] < thr) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int numSignificantSelectTwo(double thr) {
+        int count = 0;
+        if (p1 != null && p2 != null && p12 != null) {
+            for (int i =0; i < p1.length; i++) {
+                if (p1[i] < thr && p12[i] > thr) {
+                    // count++;
+                    // Don't count
+                }
+                else if (p2[i] < thr) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int numSignificantTwo(double thr) {
+        int count = 0;
+        if (p2 != null) {
+            for (int i =0; i < p1.length; i++) {
+                if (p2[i] < thr) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int numSignificant(int type, double thr) {
+        if (type == 0) {
+            return numSignificantSingle(thr);
+        }
+        else if (type == 1) {
+            return numSignificantBoth(thr);
+        }
+        else if (type == 2) {
+            return numSignificantTwo(thr);
+        }
+        else if (type == 3) {
+            return numSignificantSelectTwo(thr);
+        }
+        System.err.println("Undefined analysis type : " + type);
+        return 0;
+    }
+
+    public static double getFdr(int type, double thr, FdrInfo[] results) {
+        int sum = 0;
+        int max = 0;
+        int maxindex = 0;
+        for (int i =0; i < results.length; i++) {
+            int count = results[i].numSignificant(type, thr);
+            sum += count;
+            if (count > max) {
+                max = count;
+                maxindex = i;
+            }
+        }
+        double mean = sum/ (double) results.length;
+        int actual = results[0].numSignificant(type, thr);
+        double fdr = mean/actual;
+        return fdr;
+    }
+
+    public static String getFdrStats(int type, double thr, FdrInfo[] results) {
+        int[] counts = new int[results.length];
+        int[][] perms = new int[results.length][];
+        for (int i =0; i < results.length; i++) {
+            counts[i] = results[i].numSignificant(type, thr);
+            perms[i] = results[i].perm;
+        }
+        return getFdrStats(counts, perms);
+    }
+
+    /* counts[i] significant genes with permutation perms[i], 0 = actual */
+    public static String getFdrStats(int[] counts, int[][] perms) {
+        int sum = 0;
+        int max = 0;
+        int maxindex = 0;
+        for (int i =0; i < counts.length; i++) {
+            int count = counts[i];
+            sum += count;
+            if (count > max) {
+                max = count;
+                maxindex = i;
+            }
+        }
+        double mean = sum/ (double) counts.length;
+        int actual = counts[0];
+        double fdr = mean/actual;
+        String res = (" Fdr = " + fdr + " mean = " + mean + " actual = " +
+            actual) + "\n" +
+        ("Permutation that gives the max significant genes ("+
+            max + "):") + "\n";
+        int[] perm = perms[maxindex];
+        if (perm == null) {
+          res += ("Original order");
+        }
+        else {
+          for (int i =0; i < perm.length; i++) {
+              res += (perm[i] + " ");
+          }
+        }
+        res += "\n";
+        
+        return res;
+    }
+
+    public void print(int i) {
+        System.out.println("p1 : " + p1[i] + " p2 : " + 
+            p2[i] + " p12 : " + p12[i]);
+    }
+    public void print() {
+      for (int i =0; i < p1.length; i++) {
+        print(i);
+      }
+    }
+}
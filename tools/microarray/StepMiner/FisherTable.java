@@ -0,0 +1,199 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.StepMiner;
+
+import java.util.HashMap;
+
+/*
+ * Lookup tables of the F distribution for the bulk step p-values.
+ *
+ * A table for one (m, n) pair holds Utils.Fisher at CELLS+1 points
+ * evenly spaced in v = sqrt(w/(1+w)), w = x*m/n, which maps [0, inf)
+ * onto [0, 1). Prob [ F < x ] goes as v^m near 0, so it is smooth in v
+ * for every m. Values in between are interpolated with the cubic through
+ * the four nearest points. When a table is
+ * built the interpolation is checked against Utils.Fisher in the middle
+ * of every cell, and cells off by more than TOLERANCE/2 (the singular
+ * ends for small degrees of freedom) and the two end cells always use
+ * Utils.Fisher.
+ *
+ * Interpolated values are within TOLERANCE of Utils.Fisher. When
+ * 1 - Prob [ F < x ] is within TOLERANCE of the significance threshold,
+ * the value is computed exactly. So every p < thr decision is the same
+ * as with Utils.Fisher; only the digits of the p-values differ.
+ */
+public class FisherTable {
+
+  /* Use the tables for the bulk step p-values (Analyze --ptable) */
+  public static boolean ENABLED = false;
+  /* Absolute error bound of the interpolated Prob [ F < x ] */
+  public static double TOLERANCE = 1e-9;
+  public static int CELLS = 1 << 12;
+
+  static HashMap<Long, FisherTable> tables_ = new HashMap<Long, FisherTable>();
+
+  int m_;
+  int n_;
+  int cells_;
+  double[] cdf_;     // Utils.Fisher at v = k/cells_
+  boolean[] exact_;  // Cell k is computed with Utils.Fisher
+
+  FisherTable(int m, int n, int cells) {
+    m_ = m;
+    n_ = n;
+    cells_ = cells;
+    cdf_ = new double[cells + 1];
+    exact_ = new boolean[cells];
+    for (int k = 0; k < cells; k++) {
+      cdf_[k] = exact(k / (double) cells);
+    }
+    cdf_[cells] = 1.0;
+    exact_[0] = true;
+    exact_[cells - 1] = true;
+    for (int k = 1; k < cells - 1; k++) {
+      double err = exact((k + 0.5) / cells) - interpolate(k, 0.5);
+      exact_[k] = !(Math.abs(err) <= TOLERANCE / 2);
+    }
+  }
+
+  /* Cubic through the table points k-1 .. k+2 at k+t */
+  double interpolate(int k, double t) {
+    double a = t + 1, b = t - 1, c = t - 2;
+    return (-t * b * c * cdf_[k - 1] + 3 * a * b * c * cdf_[k] -
+        3 * a * t * c * cdf_[k + 1] + a * t * b * cdf_[k + 2]) / 6;
+  }
+
+  /* Utils.Fisher at the point v */
+  double exact(double v) {
+    if (v <= 0) {
+      return 0.0;
+    }
+    double u = v * v;
+    return Utils.Fisher(u / (1 - u) * n_ / m_, m_, n_);
+  }
+
+  /*
+   * Table for the degrees of freedom m and n, built on first use.
+   */
+  public static FisherTable get(int m, int n) {
+    Long key = new Long(((long) m << 32) | (n & 0xffffffffL));
+    synchronized (tables_) {
+      FisherTable res = tables_.get(key);
+      if (res == null) {
+        res = new FisherTable(m, n, CELLS);
+        tables_.put(key, res);
+      }
+      return res;
+    }
+  }
+
+  public int getNumExactCells() {
+    int count = 0;
+    for (int k = 0; k < cells_; k++) {
+      if (exact_[k]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /*
+   * Prob [ F < x ], exact when 1 - Prob [ F < x ] is near thr
+   */
+  public double cdf(double x, double thr) {
+    if (x <= 0) {
+      return 0.0;
+    }
+    double w = x * m_;
+    double v = Math.sqrt(w / (w + n_));
+    if (!(v >= 0 && v < 1)) { // NaN and overflow
+      return Utils.Fisher(x, m_, n_);
+    }
+    double pos = v * cells_;
+    int k = (int) pos;
+    if (k >= cells_ || exact_[k]) {
+      return Utils.Fisher(x, m_, n_);
+    }
+    double p = interpolate(k, pos - k);
+    double d = (1 - p) - thr;
+    if (d <= TOLERANCE && d >= -TOLERANCE) {
+      return Utils.Fisher(x, m_, n_);
+    }
+    return p;
+  }
+
+  /*
+   * Same as Utils.Fisher(x, m, n) within TOLERANCE
+   */
+  public static double Fisher(double x, int m, int n, double thr) {
+    if ( m < 1 || n < 1) {
+      return -1.0;
+    }
+    return get(m, n).cdf(x, thr);
+  }
+
+  /*
+   * Bulk version of Utils.Fisher(double[], int[], int[], double[])
+   * within TOLERANCE, exact near the p-value threshold thr.
+   */
+  public static void Fisher(double[] x, int[] m, int[] n, double[] res,
+      double thr) {
+    FisherTable table = null;
+    for (int k = 0; k < x.length; k++) {
+      int mk = m[k], nk = n[k];
+      if ( x[k] <= 0) {
+        res[k] = 0.0;
+        continue;
+      }
+      if ( mk < 1 || nk < 1) {
+        res[k] = -1.0;
+        continue;
+      }
+      if (table == null || table.m_ != mk || table.n_ != nk) {
+        table = get(mk, nk);
+      }
+      res[k] = table.cdf(x[k], thr);
+    }
+  }
+
+};
@@ -0,0 +1,148 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.StepMiner;
+
+import tools.microarray.GeneData;
+import java.util.HashSet;
+
+/*
+ * Step function with any number of steps and a free mean on every
+ * segment, fitted by StepKernel.fitKStep. steps_[i] is the last
+ * index of segment i, like OneStep and TwoStep.
+ *
+ * Label : 1 - Up, 2 - Down, 3 - UpDown, 4 - DownUp from the first one
+ * or two changes of direction of the segment means.
+ */
+public class KStep extends Step {
+
+  /* Analyze -t KStep : most steps and PELT penalty (0 - exact) */
+  public static int MAX_STEPS = 3;
+  public static double PENALTY = 0;
+
+  public KStep() {
+    super();
+  }
+
+  /* Model parameters : one mean per segment and the step positions */
+  int getNumParams() {
+    return 2 * numSteps_ + 1;
+  }
+
+  public double getStatistic() throws StepException { 
+    if (num_ < 0 || numSteps_ <= 0) {
+        return 0.0;
+    }
+    int df = getNumParams();
+    if (num_ > df + 1) {
+      return (sstot_ - sse_)/df/(sse_/(num_ - df - 1)); 
+    }
+    else {
+      return (sstot_ - sse_)/(df - 1)/sse_; 
+    }
+  }
+
+  public double getPvalue() throws StepException {
+    if (num_ < 0 || numSteps_ <= 0) {
+        return 1.0;
+    }
+    if (hasPvalue_) {
+      return pvalue_;
+    }
+    double f = getStatistic();
+    int df = getNumParams();
+    double p;
+    if (num_ > df + 1) {
+      p = 1 - Utils.Fisher(f, df, num_ - df - 1);
+    }
+    else {
+      p = 1 - Utils.Fisher(f, df - 1, 1);
+    }
+    return p;
+  }
+
+  public double getCenter() {
+    double min = means_[0];
+    double max = means_[0];
+    for (int i =1; i < means_.length; i++) {
+      min = Math.min(min, means_[i]);
+      max = Math.max(max, means_[i]);
+    }
+    return (min + max)/2;
+  }
+
+  /* Label from the directions of the changes in the segment means */
+  void setLabel() {
+    label_ = 0;
+    for (int i =0; i < numSteps_; i++) {
+      int up = (means_[i] < means_[i+1]) ? 1 : 2;
+      if (label_ == 0) {
+        label_ = up;
+      }
+      else if (label_ <= 2 && label_ != up) {
+        label_ = label_ + 2;
+        break;
+      }
+    }
+  }
+
+  public HashSet<String> getTags(int numArrayHeader) {
+    HashSet<String> set = super.getTags(numArrayHeader);
+    if (numSteps_ <= 0) {
+      return set;
+    }
+    set.add("Step");
+    set.add("KStep");
+    String[] names = {"", "Up", "Down", "UpDown", "DownUp"};
+    set.add(names[label_]);
+    for (int i =0; i < numSteps_; i++) {
+      set.add((getDir(i) > 0 ? "Up-" : "Down-") + (steps_[i]-numArrayHeader));
+    }
+    return set;
+  }
+
+  public static Step fitStep(GeneData gene, AnalysisMetaData meta) 
+    throws StepException {
+      return new StepKernel().fitKStep(gene, meta);
+    }
+
+};
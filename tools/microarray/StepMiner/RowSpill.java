@@ -0,0 +1,143 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.StepMiner;
+
+import tools.microarray.*;
+import tools.microarray.FileWriter.*;
+import java.io.*;
+
+/*
+ * Text rows in a temporary file, indexed by the order they were added.
+ */
+class RowSpill {
+
+  File file_;
+  OutputStream out_;
+  ByteArrayOutputStream buffer_;
+  NumberWriter writer_;
+  long size_;
+  long[] offset_;
+  int[] length_;
+  int num_;
+
+  public RowSpill(String suffix) throws IOException {
+    file_ = File.createTempFile("stepminer", suffix);
+    file_.deleteOnExit();
+    out_ = new BufferedOutputStream(new FileOutputStream(file_));
+    buffer_ = new ByteArrayOutputStream();
+    writer_ = new NumberWriter(buffer_);
+    size_ = 0;
+    offset_ = new long[1024];
+    length_ = new int[1024];
+    num_ = 0;
+  }
+
+  /* Rows [start, end) as PCLFileWriter writes them */
+  public static byte[] getBytes(Data data, int start, int end, int last) 
+    throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    NumberWriter writer = new NumberWriter(buffer);
+    for (int i = start; i < end; i++) {
+      writer.write(data.getGeneData(i).subset(0, last));
+    }
+    writer.flush();
+    return buffer.toByteArray();
+  }
+
+  public void add(GeneData gene) throws IOException {
+    writer_.write(gene);
+    writer_.flush();
+    if (num_ == offset_.length) {
+      offset_ = StepMinerStream.resize(offset_, num_ * 2);
+      length_ = StepMinerStream.resize(length_, num_ * 2);
+    }
+    offset_[num_] = size_;
+    length_[num_] = buffer_.size();
+    num_++;
+    buffer_.writeTo(out_);
+    size_ += buffer_.size();
+    buffer_.reset();
+  }
+
+  /*
+   * Writes header followed by the rows in the given order,
+   * select == null writes all the rows.
+   */
+  public void writeFile(String filename, byte[] header, int[] order,
+      boolean[] select) throws IOException {
+    System.out.println("Writing file " + filename);
+    out_.flush();
+    RandomAccessFile in = new RandomAccessFile(file_, "r");
+    OutputStream out = new BufferedOutputStream(
+        new FileOutputStream(filename), 1 << 16);
+    try {
+      byte[] buf = new byte[1024];
+      if (header != null) {
+        out.write(header);
+      }
+      for (int i =0; i < order.length; i++) {
+        int index = order[i];
+        if (select != null && !select[index]) {
+          continue;
+        }
+        if (length_[index] > buf.length) {
+          buf = new byte[length_[index] * 2];
+        }
+        in.seek(offset_[index]);
+        in.readFully(buf, 0, length_[index]);
+        out.write(buf, 0, length_[index]);
+      }
+    }
+    finally {
+      in.close();
+      out.close();
+    }
+    System.out.println("Done");
+  }
+
+  public void close() throws IOException {
+    out_.close();
+    file_.delete();
+  }
+
+};
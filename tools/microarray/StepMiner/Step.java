@@ -59,6 +59,9 @@ public class Step {
   int geneIndex_;
   int label_;
 
+  boolean hasPvalue_;  // pvalue_ was computed in bulk, see StepBatch
+  double pvalue_;
+
   public Step() {
     num_ = -1;
     numSteps_ = 0;
@@ -68,6 +71,12 @@ public class Step {
     sse_   = -1;
     geneIndex_ = -1;
     label_ = 0;
+    hasPvalue_ = false;
+  }
+
+  void setPvalue(double p) {
+    hasPvalue_ = true;
+    pvalue_ = p;
   }
 
   public void setGeneIndex(int index) { geneIndex_ = index;}
@@ -81,6 +90,8 @@ public class Step {
   public double getSse() { return sse_; }
   public double getSsr() { return sstot_-sse_; }
   public double getMean(int segment) { return means_[segment]; }
+  /* Mean of the segment after step segment-1 */
+  public double getSegmentMean(int segment) { return means_[segment]; }
   public double getCenter() { return 0; }
 
   public int getDir(int segment) { 
@@ -0,0 +1,547 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.microarray.StepMiner;
+
+import tools.microarray.GeneData;
+
+/*
+ * Step fitting of a block of genes at once.
+ *
+ * The analysis window of every gene is stored column-major
+ * (x_[t * size_ + g]) and each pass over the timepoints updates the
+ * running sums of all genes in the block, so the inner loops run over
+ * genes with the same step positions and denominators. Each gene gets
+ * the same arithmetic as StepKernel, so the results are identical.
+ * Genes that would raise an error in a fit (no data, empty segment)
+ * are refitted one by one with the StepKernel. P-values are computed
+ * in bulk with Utils.Fisher (or FisherTable) at the end.
+ */
+public class StepBatch {
+
+  StepKernel kernel_;  // loads windows and refits the odd genes
+  int size_;           // genes in the block
+  int cap_;            // capacity of the per gene buffers
+  int ncap_;           // capacity of the window buffers
+  int num_;            // window length
+
+  double[] x_;         // [2 * num][size] window, repeated twice
+  boolean[] mask_;     // [2 * num][size] true if present
+  int[] pcount_;       // [2 * num + 1][size] prefix count of present
+  double[] sse_;       // [num][size] sse of each step position
+  boolean missing_;    // some value of the block is missing
+
+  // per gene state
+  int[] count_;
+  double[] sum_, mean_, sstot_;
+  double[] sum1_, sum2_, m1_, m2_, sum1sq_, sum2sq_, cur_, out_;
+  int[] count1_, count2_;
+  double[] best_;
+  int[] bestIndex_;
+  boolean[] odd_;      // refit with the kernel
+
+  public StepBatch() {
+    kernel_ = new StepKernel();
+    cap_ = 0;
+    ncap_ = 0;
+    num_ = 0;
+  }
+
+  void ensure(int size, int num) {
+    if (size > cap_ || num > ncap_) {
+      int cap = Math.max(size, cap_);
+      int n = Math.max(num, ncap_);
+      x_ = new double[2 * n * cap];
+      mask_ = new boolean[2 * n * cap];
+      pcount_ = new int[(2 * n + 1) * cap];
+      sse_ = new double[n * cap];
+      if (cap > cap_) {
+        count_ = new int[cap]; count1_ = new int[cap]; count2_ = new int[cap];
+        sum_ = new double[cap]; mean_ = new double[cap];
+        sstot_ = new double[cap]; sum1_ = new double[cap];
+        sum2_ = new double[cap]; m1_ = new double[cap];
+        m2_ = new double[cap]; sum1sq_ = new double[cap];
+        sum2sq_ = new double[cap]; cur_ = new double[cap];
+        out_ = new double[cap];
+        best_ = new double[cap]; bestIndex_ = new int[cap];
+        odd_ = new boolean[cap];
+      }
+      cap_ = cap;
+      ncap_ = n;
+    }
+  }
+
+  /*
+   * Fit genes[0 .. size-1]. Falls back to the kernel for every gene
+   * when the step search is outside the window.
+   */
+  public BestStep[] fitSteps(GeneData[] genes, int size,
+      AnalysisMetaData meta) {
+    BestStep[] res = new BestStep[size];
+    int start = meta.getStart();
+    int num = meta.getNum();
+    boolean ok = (num > 0);
+    int[] stepSearch = meta.getStepSearch();
+    for (int i = 0; ok && i < stepSearch.length; i++) {
+      if (stepSearch[i] < start || stepSearch[i] > meta.getEnd()) {
+        ok = false;
+      }
+    }
+    if (!ok) {
+      for (int g = 0; g < size; g++) {
+        res[g] = newBestStep(kernel_.fitSteps(genes[g], meta), meta);
+      }
+      return res;
+    }
+    ensure(size, num);
+    num_ = num;
+    size_ = size;
+    load(genes, meta);
+    Step[] zero = fitZeroStep();
+    Step[] one = fitOneStep(meta);
+    Step[] two = fitTwoStep(meta);
+    for (int g = 0; g < size; g++) {
+      if (odd_[g]) {
+        res[g] = newBestStep(kernel_.fitSteps(genes[g], meta), meta);
+      }
+      else {
+        Step[] s = new Step[meta.getMaxSteps() > 0 ? 4 : 3];
+        s[0] = zero[g];
+        s[1] = one[g];
+        s[2] = two[g];
+        if (s.length > 3) {
+          s[3] = kernel_.fitKStep(genes[g], meta);
+        }
+        res[g] = newBestStep(s, meta);
+      }
+    }
+    setPvalues(res, meta.getPvalueThr());
+    return res;
+  }
+
+  static BestStep newBestStep(Step[] steps, AnalysisMetaData meta) {
+    BestStep res = new BestStep();
+    res.fittedSteps_ = steps;
+    res.meta_ = meta;
+    return res;
+  }
+
+  void load(GeneData[] genes, AnalysisMetaData meta) {
+    int B = size_;
+    int num = num_;
+    missing_ = false;
+    for (int g = 0; g < B; g++) {
+      odd_[g] = false;
+      try {
+        kernel_.load(genes[g], meta);
+      }
+      catch(Exception e) {
+        odd_[g] = true;
+      }
+      double[] kx = kernel_.x_;
+      boolean[] km = kernel_.mask_;
+      for (int t = 0; t < num; t++) {
+        boolean m = !odd_[g] && km[t];
+        double v = m ? kx[t] : 0;
+        x_[t * B + g] = v;
+        mask_[t * B + g] = m;
+        x_[(t + num) * B + g] = v;
+        mask_[(t + num) * B + g] = m;
+        if (!m) {
+          missing_ = true;
+        }
+      }
+    }
+    for (int g = 0; g < B; g++) {
+      pcount_[g] = 0;
+    }
+    for (int t = 0; t < 2 * num; t++) {
+      int o = t * B;
+      for (int g = 0; g < B; g++) {
+        pcount_[o + B + g] = pcount_[o + g] + (mask_[o + g] ? 1 : 0);
+      }
+    }
+  }
+
+  /* count_, sum_, mean_ and sstot_ of x_[s .. e] for all genes */
+  void getMoments(int s, int e) {
+    int B = size_;
+    for (int g = 0; g < B; g++) {
+      sum_[g] = 0.0;
+      count_[g] = pcount_[(e + 1) * B + g] - pcount_[s * B + g];
+    }
+    for (int t = s; t <= e; t++) {
+      int o = t * B;
+      for (int g = 0; g < B; g++) {
+        if (mask_[o + g]) {
+          sum_[g] = sum_[g] + x_[o + g];
+        }
+      }
+    }
+    for (int g = 0; g < B; g++) {
+      mean_[g] = sum_[g]/count_[g];
+      sstot_[g] = 0.0;
+    }
+    for (int t = s; t <= e; t++) {
+      int o = t * B;
+      for (int g = 0; g < B; g++) {
+        if (mask_[o + g]) {
+          sstot_[g] = sstot_[g] + (x_[o + g] - mean_[g]) * (x_[o + g] - mean_[g]);
+        }
+      }
+    }
+  }
+
+  /* Mean of gene g over x_[s .. e], NaN if empty */
+  double getMean(int g, int s, int e) {
+    int B = size_;
+    if (e < s || pcount_[(e + 1) * B + g] - pcount_[s * B + g] == 0) {
+      return Double.NaN;
+    }
+    double sum = 0.0;
+    int count = 0;
+    for (int t = s; t <= e; t++) {
+      if (mask_[t * B + g]) {
+        sum = sum + x_[t * B + g];
+        count++;
+      }
+    }
+    return sum/count;
+  }
+
+  /*
+   * Running sse of a step after each timepoint of x_[s .. s+n-1]
+   * (cur_, with out_ the value at the current position),
+   * written to sse_ when keep is set, else compared with best_ at the
+   * positions in search (ascending, in window coordinates).
+   */
+  void scan(int s, int n, boolean keep, int[] search, int nsearch) {
+    int B = size_;
+    for (int g = 0; g < B; g++) {
+      sum1_[g] = 0.0;
+      count1_[g] = 0;
+      m1_[g] = 0.0;
+      sum2_[g] = sum_[g];
+      count2_[g] = count_[g];
+      m2_[g] = (sum_[g]/count_[g]);
+      sum1sq_[g] = 0.0;
+      sum2sq_[g] = sstot_[g];
+      cur_[g] = sum1sq_[g] + sum2sq_[g];
+    }
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      int o = (i + s) * B;
+      if (missing_) {
+        for (int g = 0; g < B; g++) {
+          if (!mask_[o + g]) {
+            out_[g] = cur_[g];
+            continue;
+          }
+          double entry = x_[o + g];
+          count1_[g] ++;
+          count2_[g] --;
+          if (count2_[g] == 0) {
+            out_[g] = sstot_[g];
+            continue;
+          }
+          update(g, entry);
+          out_[g] = cur_[g];
+        }
+      }
+      else if (i < n - 1) {
+        for (int g = 0; g < B; g++) {
+          count1_[g] ++;
+          count2_[g] --;
+          update(g, x_[o + g]);
+          out_[g] = cur_[g];
+        }
+      }
+      else {
+        for (int g = 0; g < B; g++) {
+          count1_[g] ++;
+          count2_[g] --;
+          out_[g] = sstot_[g];
+        }
+      }
+      if (keep) {
+        System.arraycopy(out_, 0, sse_, i * B, B);
+      }
+      else if (next < nsearch && search[next] == i) {
+        next++;
+        for (int g = 0; g < B; g++) {
+          if (out_[g] < best_[g]) {
+            best_[g] = out_[g];
+            bestIndex_[g] = i + s;
+          }
+        }
+        if (next == nsearch) {
+          break;
+        }
+      }
+    }
+  }
+
+  void update(int g, double entry) {
+    double mean = mean_[g];
+    int count1 = count1_[g];
+    int count2 = count2_[g];
+    double tmp = (mean - (entry + sum1_[g])/count1);
+    sum1sq_[g] = sum1sq_[g] + (entry-mean) * (entry-mean) - tmp * tmp * count1
+        + (count1 - 1) * (mean - m1_[g]) * (mean - m1_[g]);
+    tmp = (mean - (sum2_[g] - entry)/count2);
+    sum2sq_[g] = sum2sq_[g] - (entry-mean) * (entry-mean) - tmp * tmp * count2
+        + (count2 + 1) * (mean - m2_[g]) * (mean - m2_[g]);
+    sum1_[g] += entry;
+    sum2_[g] -= entry;
+    m1_[g] = sum1_[g]/count1;
+    m2_[g] = sum2_[g]/count2;
+    cur_[g] = sum1sq_[g] + sum2sq_[g];
+  }
+
+  Step[] fitZeroStep() {
+    Step[] res = new Step[size_];
+    getMoments(0, num_ - 1);
+    for (int g = 0; g < size_; g++) {
+      if (count_[g] == 0) {
+        odd_[g] = true;
+      }
+      if (odd_[g]) {
+        continue;
+      }
+      Step s = new ZeroStep();
+      s.num_ = count_[g];
+      s.numSteps_ = 0;
+      s.sstot_ = sstot_[g];
+      s.sse_ = sstot_[g];
+      s.means_ = new double[1];
+      s.means_[0] = mean_[g];
+      res[g] = s;
+    }
+    return res;
+  }
+
+  Step[] fitOneStep(AnalysisMetaData meta) {
+    int B = size_;
+    int num = num_;
+    int start = meta.getStart();
+    Step[] res = new Step[B];
+    getMoments(0, num - 1);
+    scan(0, num, true, null, 0);
+    int[] stepSearch = meta.getStepSearch();
+    for (int g = 0; g < B; g++) {
+      best_[g] = Double.MAX_VALUE;
+      bestIndex_[g] = 0;
+    }
+    for (int i = 0; i < stepSearch.length; i++) {
+      int o = (stepSearch[i] - start) * B;
+      for (int g = 0; g < B; g++) {
+        if (sse_[o + g] < best_[g]) {
+          best_[g] = sse_[o + g];
+          bestIndex_[g] = stepSearch[i];
+        }
+      }
+    }
+    for (int g = 0; g < B; g++) {
+      if (odd_[g]) {
+        continue;
+      }
+      double m1 = getMean(g, 0, bestIndex_[g] - start);
+      if (Double.isNaN(m1)) {
+        odd_[g] = true;
+        continue;
+      }
+      double m2 = getMean(g, bestIndex_[g] + 1 - start, num - 1);
+      if (Double.isNaN(m2)) {
+        odd_[g] = true;
+        continue;
+      }
+      Step s = new OneStep();
+      s.num_ = count_[g];
+      s.numSteps_ = 1;
+      s.sstot_ = sstot_[g];
+      s.sse_ = best_[g];
+      s.steps_ = new int[1];
+      s.steps_[0] = bestIndex_[g];
+      s.means_ = new double[2];
+      s.means_[0] = m1;
+      s.means_[1] = m2;
+      s.label_ = (m1 < m2) ? 1 : 2;
+      res[g] = s;
+    }
+    return res;
+  }
+
+  Step[] fitTwoStep(AnalysisMetaData meta) {
+    int B = size_;
+    int num = num_;
+    int start = meta.getStart();
+    Step[] res = new Step[B];
+    getMoments(0, num - 1);
+    for (int g = 0; g < B; g++) {
+      if (odd_[g]) {
+        continue;
+      }
+      Step s = new TwoStep();
+      s.num_ = count_[g];
+      s.sstot_ = sstot_[g];
+      s.numSteps_ = 2;
+      s.steps_ = new int[2];
+      s.steps_[0] = num - 1;
+      s.means_ = new double[3];
+      s.means_[0] = 0;
+      s.means_[1] = mean_[g];
+      s.means_[2] = 0;
+      s.sse_ = sstot_[g];
+      res[g] = s;
+    }
+    boolean[] search1 = new boolean[num];
+    int[] stepSearch1 = meta.getStepSearch1();
+    for (int i = 0; i < stepSearch1.length; i++) {
+      if (stepSearch1[i] >= 0 && stepSearch1[i] < num) {
+        search1[stepSearch1[i]] = true;
+      }
+    }
+    int[] cand = new int[num];
+    int[] stepSearch = meta.getStepSearch();
+    for (int i = 0; i < stepSearch.length; i++) {
+      int index = stepSearch[i] - start;
+      int nsearch = 0;
+      for (int j = index + 2; j <= num - 2; j++) {
+        if (search1[j]) {
+          cand[nsearch++] = j - (index + 1);
+        }
+      }
+      if (nsearch == 0) {
+        continue;
+      }
+      getMoments(index + 1, index + num);
+      for (int g = 0; g < B; g++) {
+        best_[g] = Double.MAX_VALUE;
+        bestIndex_[g] = 0;
+      }
+      scan(index + 1, num, false, cand, nsearch);
+      for (int g = 0; g < B; g++) {
+        if (res[g] == null || bestIndex_[g] == 0) {
+          continue;
+        }
+        int b = bestIndex_[g];
+        if (pcount_[(b + 1) * B + g] - pcount_[(index + 1) * B + g] == 0 ||
+            pcount_[(index + num + 1) * B + g] - pcount_[(b + 1) * B + g] == 0) {
+          continue;
+        }
+        if (best_[g] < res[g].sse_) {
+          Step s = res[g];
+          s.sse_ = best_[g];
+          s.steps_[0] = index;
+          s.steps_[1] = b;
+          s.means_[0] = getMean(g, b + 1, index + num);
+          s.means_[1] = getMean(g, index + 1, b);
+          s.means_[2] = s.means_[0];
+        }
+      }
+    }
+    for (int g = 0; g < B; g++) {
+      if (res[g] == null) {
+        continue;
+      }
+      Step s = res[g];
+      s.steps_[0] += start;
+      s.steps_[1] += start;
+      s.label_ = (s.means_[0] < s.means_[1]) ? 3 : 4;
+    }
+    return res;
+  }
+
+  /*
+   * p-values of the one step, two step and one vs two step tests in
+   * bulk, with the degrees of freedom used by getPvalue() and getP12().
+   * FisherTable is used when enabled, exact near the threshold thr.
+   */
+  static void setPvalues(BestStep[] steps, double thr) {
+    int n = steps.length;
+    double[] f = new double[n];
+    double[] p = new double[n];
+    int[] df1 = new int[n];
+    int[] df2 = new int[n];
+    for (int k = 1; k <= 3; k++) {
+      for (int g = 0; g < n; g++) {
+        BestStep b = steps[g];
+        Step s = b.findStep(k < 3 ? k : 1); // p12 uses the one step num
+        int num = s.num_;
+        try {
+          if (k == 1) {
+            f[g] = s.getStatistic();
+            df1[g] = (num > 4) ? 3 : 2;
+            df2[g] = (num > 4) ? num - 4 : 1;
+          }
+          else if (k == 2) {
+            f[g] = s.getStatistic();
+            df1[g] = (num > 5) ? 4 : 3;
+            df2[g] = (num > 5) ? num - 5 : 1;
+          }
+          else {
+            f[g] = b.getF12();
+            df1[g] = 1;
+            df2[g] = (num > 5) ? num - 5 : 1;
+          }
+        }
+        catch(StepException e) {
+          f[g] = 0;
+        }
+      }
+      if (FisherTable.ENABLED) {
+        FisherTable.Fisher(f, df1, df2, p, thr);
+      }
+      else {
+        Utils.Fisher(f, df1, df2, p);
+      }
+      for (int g = 0; g < n; g++) {
+        if (k == 3) {
+          steps[g].setP12(1 - p[g]);
+        }
+        else if (steps[g].findStep(k).num_ >= 0) {
+          steps[g].findStep(k).setPvalue(1 - p[g]);
+        }
+      }
+    }
+  }
+
+};
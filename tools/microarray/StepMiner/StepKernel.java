@@ -0,0 +1,717 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+package tools.microarray.StepMiner;
+
+import tools.microarray.GeneData;
+
+/*
+ * Step fitting on a primitive copy of the analysis window.
+ *
+ * The window [start, end] of a gene is loaded once (permuted by the
+ * AnalysisMetaData) into x_ with a missing value mask, and the zero,
+ * one and two step fits run on it. The running sums follow the same
+ * arithmetic as the Object[] code they replace, so steps, SSE and
+ * statistics are unchanged. Buffers grow as needed and are reused, so
+ * one kernel per thread fits any number of genes without allocation
+ * other than the Step results.
+ */
+public class StepKernel {
+
+  double[] x_;        // window, repeated twice for the TwoStep fit
+  boolean[] mask_;    // true if x_[i] is present
+  double[] sse_;      // sse of each step position
+  boolean[] search1_; // members of stepSearch1
+  int[] cand_;        // step positions of the inner one step fit
+  int num_;           // window length
+
+  // KStep segmentation, see fitKStep
+  double[] cs_;       // prefix count, sum and sum of squares of the
+  double[] s1_;       //   centered window
+  double[] s2_;
+  double[] cost_;     // cost_[k*num + j] : best sse of x_[0 .. j], k steps
+  int[] back_;        // last index of segment k-1 in that fit
+  double[] peltCost_; // PELT : best cost of x_[0 .. t-1]
+  int[] last_;        // PELT : start of the last segment
+  int[] pelt_;        // PELT : candidate segment starts
+
+  // Result of the last oneStep() call
+  double oneSse_;
+  int oneStep_;
+  double oneMean0_;
+  double oneMean1_;
+
+  public StepKernel() {
+    num_ = 0;
+  }
+
+  void ensure(int num) {
+    if (x_ == null || sse_.length < num) {
+      x_ = new double[2 * num];
+      mask_ = new boolean[2 * num];
+      sse_ = new double[num];
+      search1_ = new boolean[num];
+      cand_ = new int[num];
+    }
+  }
+
+  /*
+   * Copy the permuted window of gene into x_[0 .. num-1].
+   * Fails the same way the Object[] fits did: bad range, bad
+   * permutation or a value column that is not a number.
+   */
+  public void load(GeneData gene, AnalysisMetaData meta)
+    throws StepException {
+    if (gene == null) {
+      throw new StepException("GeneData is null");
+    }
+    int length = gene.size();
+    meta.sanitize(length);
+    int start = meta.getStart();
+    int num = meta.getNum();
+    int[] perm = meta.getPermutation();
+    if (perm != null) {
+      for (int i = 0; i < perm.length && start + i < length; i++) {
+        int entry = perm[i] + start;
+        if (entry < 0 || entry >= length) {
+          throw new StepException("Bad permutation");
+        }
+      }
+    }
+    ensure(num);
+    int vstart = gene.getValueStart();
+    double[] values = gene.getValues();
+    float[] fvalues = gene.getFloatValues();
+    for (int i = 0; i < num; i++) {
+      int entry = start + i;
+      if (perm != null && i < perm.length) {
+        entry = perm[i] + start;
+      }
+      if (vstart >= 0 && entry >= vstart) {
+        double v;
+        if (values != null) {
+          v = values[entry - vstart];
+        }
+        else if (fvalues != null) {
+          v = fvalues[entry - vstart];
+        }
+        else {
+          v = gene.getValue(entry); // off-heap row
+        }
+        mask_[i] = !Double.isNaN(v);
+        x_[i] = v;
+        continue;
+      }
+      Object o = gene.getDataAt(entry);
+      if (o == null) {
+        mask_[i] = false;
+        x_[i] = 0;
+      }
+      else if (o instanceof Double) {
+        mask_[i] = true;
+        x_[i] = ((Double) o).doubleValue();
+      }
+      else {
+        throw new StepException("Not a number : " + o);
+      }
+    }
+    num_ = num;
+  }
+
+  /*
+   * Load n values with no missing value into x_[0 .. n-1], for callers
+   * that fit plain arrays (see tools.algorithm.BimodalThreshold).
+   */
+  public void load(double[] v, int n) {
+    ensure(n);
+    System.arraycopy(v, 0, x_, 0, n);
+    for (int i = 0; i < n; i++) {
+      mask_[i] = true;
+    }
+    num_ = n;
+  }
+
+  int getCount(int start, int end) {
+    int count = 0;
+    for (int i=start; i <= end; i++) {
+      if (mask_[i]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  double getSum(int start, int end) {
+    double sum = 0.0;
+    for (int i=start; i <= end; i++) {
+      if (mask_[i]) {
+        sum = sum + x_[i];
+      }
+    }
+    return sum;
+  }
+
+  double getMean(int start, int end) throws StepException {
+    double sum = getSum(start, end);
+    int count = getCount(start, end);
+    if (count == 0) {
+      throw new StepException("getMean: count == 0");
+    }
+    return (sum/count);
+  }
+
+  double getSquareError(int start, int end) throws StepException {
+    double mean = getMean(start, end);
+    double sum = 0.0;
+    for (int i=start; i <= end; i++) {
+      if (mask_[i]) {
+        sum = sum + (x_[i] - mean) * (x_[i] - mean);
+      }
+    }
+    return sum;
+  }
+
+  /*
+   * One step fit of x_[start-off .. end-off]. Step positions
+   * search[0 .. nsearch-1] and the result oneStep_ are in the
+   * caller's coordinates (offset off).
+   */
+  void oneStep(int start, int end, int off, int[] search, int nsearch,
+      Step result) throws StepException {
+    int s = start - off;
+    int e = end - off;
+    int num = e - s + 1;
+    double sum = getSum(s, e);
+    int count = getCount(s, e);
+    if (result != null) {
+      result.num_ = count;
+      result.numSteps_ = 1;
+    }
+    double mean = getMean(s, e);
+    double sstot = getSquareError(s, e);
+    if (result != null) {
+      result.sstot_ = sstot;
+    }
+    double sum1 = 0.0;
+    int count1 = 0;
+    double m1 = 0.0;
+    double sum2 = sum;
+    int count2 = count;
+    double m2 = (sum/count);
+    double sum1sq = 0.0;
+    double sum2sq = sstot;
+    double sse = sum1sq + sum2sq;
+
+    for (int i = 0; i < num; i++) {
+      if (!mask_[i + s]) {
+        sse_[i] = sse;
+        continue;
+      }
+      double entry = x_[i + s];
+      count1 ++;
+      count2 --;
+      if (count2 == 0) {
+        sse_[i] = sstot;
+        continue;
+      }
+      double tmp = (mean - (entry + sum1)/count1);
+      sum1sq = sum1sq + (entry-mean) * (entry-mean) - tmp * tmp * count1
+          + (count1 - 1) * (mean - m1) * (mean - m1);
+      tmp = (mean - (sum2 - entry)/count2);
+      sum2sq = sum2sq - (entry-mean) * (entry-mean) - tmp * tmp * count2
+          + (count2 + 1) * (mean - m2) * (mean - m2);
+      sum1 += entry;
+      sum2 -= entry;
+      m1 = sum1/count1;
+      m2 = sum2/count2;
+      sse = sum1sq + sum2sq;
+      sse_[i] = sse;
+    }
+
+    double bestSse = Double.MAX_VALUE;
+    int bestIndex = 0;
+    for (int i = 0; i < nsearch; i++) {
+      int index = search[i];
+      if (index < start || index > end) {
+        throw new StepException("Step position out of range : " + index);
+      }
+      if (sse_[index-start] < bestSse) {
+        bestSse = sse_[index-start];
+        bestIndex = index;
+      }
+    }
+    oneMean0_ = getMean(s, bestIndex - off);
+    oneMean1_ = getMean(bestIndex + 1 - off, e);
+    oneSse_ = bestSse;
+    oneStep_ = bestIndex;
+  }
+
+  public Step fitZeroStep(AnalysisMetaData meta) {
+    Step result = new ZeroStep();
+    try {
+      if (num_ <= 0) {
+        throw new StepException("No data");
+      }
+      int count = getCount(0, num_ - 1);
+      result.num_ = count;
+      result.numSteps_ = 0;
+      double mean = getMean(0, num_ - 1);
+      double sstot = getSquareError(0, num_ - 1);
+      result.sstot_ = sstot;
+      result.sse_ = sstot;
+      result.means_ = new double[1];
+      result.means_[0] = mean;
+    }
+    catch(Exception e) {
+      // Bad count
+      result.numSteps_ = -1;
+    }
+    return result;
+  }
+
+  public Step fitOneStep(AnalysisMetaData meta) {
+    Step result = new OneStep();
+    try {
+      if (num_ <= 0) {
+        throw new StepException("No data");
+      }
+      int[] stepSearch = meta.getStepSearch();
+      oneStep(meta.getStart(), meta.getEnd(), meta.getStart(),
+          stepSearch, stepSearch.length, result);
+      result.sse_ = oneSse_;
+      result.steps_ = new int[1];
+      result.steps_[0] = oneStep_;
+      result.means_ = new double[2];
+      result.means_[0] = oneMean0_;
+      result.means_[1] = oneMean1_;
+      if (oneMean0_ < oneMean1_) {
+        result.label_ = 1;
+      }
+      else {
+        result.label_ = 2;
+      }
+    }
+    catch(Exception e) {
+      // Exception in fitting step.
+      result.numSteps_ = -1;
+    }
+    return result;
+  }
+
+  /*
+   * The window is repeated twice and for each first step index a one
+   * step fit of x_[index+1 .. index+num] gives the second step, with
+   * positions from stepSearch1 in [index+2, num-2].
+   */
+  public Step fitTwoStep(AnalysisMetaData meta) {
+    return fitTwoStep(meta, -1);
+  }
+
+  /*
+   * first >= 0 : only the first step index first is tried, for a
+   * caller that already knows the best first step (StepMinerState).
+   */
+  Step fitTwoStep(AnalysisMetaData meta, int first) {
+    Step result = new TwoStep();
+    try {
+      if (num_ <= 0) {
+        throw new StepException("No data");
+      }
+      int num = num_;
+      for (int i = 0; i < num; i++) {
+        x_[i + num] = x_[i];
+        mask_[i + num] = mask_[i];
+      }
+      int[] stepSearch = meta.getStepSearch();
+      int[] stepSearch1 = meta.getStepSearch1();
+      for (int i = 0; i < num; i++) {
+        search1_[i] = false;
+      }
+      for (int i = 0; i < stepSearch1.length; i++) {
+        if (stepSearch1[i] >= 0 && stepSearch1[i] < num) {
+          search1_[stepSearch1[i]] = true;
+        }
+      }
+      int count = getCount(0, num-1);
+      result.num_ = count;
+      double mean = getMean(0, num-1);
+      double sstot = getSquareError(0, num-1);
+      result.sstot_ = sstot;
+      result.numSteps_ = 2;
+      result.steps_ = new int[2];
+      result.steps_[0] = num - 1;
+      result.means_ = new double[3];
+      result.means_[0] = 0;
+      result.means_[1] = mean;
+      result.means_[2] = 0;
+      result.sse_ = sstot;
+      for (int i = 0; i < stepSearch.length; i++) {
+        int index = stepSearch[i] - meta.getStart();
+        if (index < 0 || index >= 2 * num) {
+          throw new StepException("Step position out of range : " + index);
+        }
+        if (index + num >= 2 * num || (first >= 0 && index != first)) {
+          continue;
+        }
+        int nsearch = 0;
+        for (int j = index + 2; j <= num - 2; j++) {
+          if (search1_[j]) {
+            cand_[nsearch++] = j;
+          }
+        }
+        try {
+          oneStep(index + 1, index + num, 0, cand_, nsearch, null);
+        }
+        catch(StepException e) {
+          continue;
+        }
+        if (oneSse_ < result.sse_) {
+          result.sse_ = oneSse_;
+          result.steps_[0] = index;
+          result.steps_[1] = oneStep_;
+          result.means_[0] = oneMean1_;
+          result.means_[1] = oneMean0_;
+          result.means_[2] = result.means_[0];
+        }
+      }
+
+      result.steps_[0] += meta.getStart();
+      result.steps_[1] += meta.getStart();
+      double m1 = result.means_[0];
+      double m2 = result.means_[1];
+      if (m1 < m2) {
+        result.label_ = 3;
+      }
+      else {
+        result.label_ = 4;
+      }
+    }
+    catch(Exception e) {
+      // Exceptions raised during fitting steps
+      result.numSteps_ = -1;
+    }
+    return result;
+  }
+
+  void ensureKStep(int num, int maxSteps) {
+    if (cs_ == null || cs_.length < num + 1) {
+      cs_ = new double[num + 1];
+      s1_ = new double[num + 1];
+      s2_ = new double[num + 1];
+      peltCost_ = new double[num + 1];
+      last_ = new int[num + 1];
+      pelt_ = new int[num + 1];
+    }
+    int size = (maxSteps + 1) * num;
+    if (cost_ == null || cost_.length < size) {
+      cost_ = new double[size];
+      back_ = new int[size];
+    }
+  }
+
+  /* Prefix sums of the window centered on its mean */
+  void prefixSums() throws StepException {
+    double mean = getMean(0, num_ - 1);
+    cs_[0] = s1_[0] = s2_[0] = 0;
+    for (int i = 0; i < num_; i++) {
+      double v = mask_[i] ? x_[i] - mean : 0;
+      cs_[i + 1] = cs_[i] + (mask_[i] ? 1 : 0);
+      s1_[i + 1] = s1_[i] + v;
+      s2_[i + 1] = s2_[i] + v * v;
+    }
+  }
+
+  /* Square error of x_[a .. b], infinite without values */
+  double segmentCost(int a, int b) {
+    double c = cs_[b + 1] - cs_[a];
+    if (c == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double s = s1_[b + 1] - s1_[a];
+    double v = s2_[b + 1] - s2_[a] - s * s / c;
+    return (v > 0) ? v : 0;
+  }
+
+  /*
+   * Best segmentations of the window with 0 .. maxSteps steps, steps
+   * only after the allowed indices. O(maxSteps * num^2).
+   */
+  void segment(int maxSteps, boolean[] allowed) {
+    int n = num_;
+    for (int j = 0; j < n; j++) {
+      cost_[j] = segmentCost(0, j);
+      back_[j] = -1;
+    }
+    for (int k = 1; k <= maxSteps; k++) {
+      int prev = (k - 1) * n;
+      for (int j = 0; j < n; j++) {
+        double best = Double.POSITIVE_INFINITY;
+        int arg = -1;
+        for (int i = k - 1; i < j; i++) {
+          if (!allowed[i] || cost_[prev + i] == Double.POSITIVE_INFINITY) {
+            continue;
+          }
+          double c = cost_[prev + i] + segmentCost(i + 1, j);
+          if (c < best) {
+            best = c;
+            arg = i;
+          }
+        }
+        cost_[k * n + j] = best;
+        back_[k * n + j] = arg;
+      }
+    }
+  }
+
+  /*
+   * Optimal partitioning with penalty beta per step and PELT pruning :
+   * a segment start that can't beat the best cost is dropped for good,
+   * which makes the search near linear. Returns the step positions
+   * (last index of each segment but the last).
+   */
+  int[] segmentPelt(double beta, boolean[] allowed) {
+    int n = num_;
+    double[] f = peltCost_;
+    f[0] = -beta;
+    int ncand = 1;
+    pelt_[0] = 0;
+    for (int t = 1; t <= n; t++) {
+      double best = Double.POSITIVE_INFINITY;
+      int arg = 0;
+      for (int c = 0; c < ncand; c++) {
+        int s = pelt_[c];
+        double v = f[s] + segmentCost(s, t - 1) + beta;
+        if (v < best) {
+          best = v;
+          arg = s;
+        }
+      }
+      f[t] = best;
+      last_[t] = arg;
+      int keep = 0;
+      for (int c = 0; c < ncand; c++) {
+        int s = pelt_[c];
+        if (f[s] + segmentCost(s, t - 1) <= best ||
+            cs_[t] == cs_[s]) { // no values yet
+          pelt_[keep++] = s;
+        }
+      }
+      ncand = keep;
+      if (t < n && allowed[t - 1]) {
+        pelt_[ncand++] = t;
+      }
+    }
+    int count = 0;
+    for (int t = n; last_[t] > 0; t = last_[t]) {
+      count++;
+    }
+    int[] res = new int[count];
+    for (int t = n; last_[t] > 0; t = last_[t]) {
+      res[--count] = last_[t] - 1;
+    }
+    return res;
+  }
+
+  /* Noise variance from the differences of consecutive values */
+  double noiseVariance() {
+    double[] d = new double[num_];
+    int nd = 0;
+    int prev = -1;
+    for (int i = 0; i < num_; i++) {
+      if (!mask_[i]) {
+        continue;
+      }
+      if (prev >= 0) {
+        d[nd++] = Math.abs(x_[i] - x_[prev]);
+      }
+      prev = i;
+    }
+    if (nd == 0) {
+      return 0;
+    }
+    java.util.Arrays.sort(d, 0, nd);
+    double mad = (nd % 2 == 1) ? d[nd/2] : (d[nd/2 - 1] + d[nd/2])/2;
+    double sigma = mad / (0.6745 * Math.sqrt(2));
+    return sigma * sigma;
+  }
+
+  /*
+   * KStep fit by dynamic programming over prefix sums. Without a
+   * penalty the best fits with 1 .. meta.getMaxSteps() steps are found
+   * and steps are added while the F-test against the current fit has
+   * p < pvalueThr, with p multiplied by the number of step positions
+   * for every new step (Bonferroni). With a penalty p, PELT chooses the steps with a cost
+   * of p * sigma^2 * log(count) per step, sigma^2 from the median
+   * absolute difference of consecutive values.
+   */
+  public Step fitKStep(AnalysisMetaData meta) {
+    KStep result = new KStep();
+    try {
+      if (num_ <= 0) {
+        throw new StepException("No data");
+      }
+      int n = num_;
+      int count = getCount(0, n - 1);
+      int maxSteps = Math.max(1, Math.min(meta.getMaxSteps(), n - 1));
+      ensureKStep(n, maxSteps);
+      prefixSums();
+      boolean[] allowed = new boolean[n];
+      int nallowed = 0;
+      int[] stepSearch = meta.getStepSearch();
+      for (int i = 0; i < stepSearch.length; i++) {
+        int index = stepSearch[i] - meta.getStart();
+        if (index >= 0 && index < n - 1 && !allowed[index]) {
+          allowed[index] = true;
+          nallowed++;
+        }
+      }
+      int[] steps;
+      if (meta.getStepPenalty() > 0) {
+        double beta = meta.getStepPenalty() * noiseVariance() *
+          Math.log(count);
+        steps = segmentPelt(beta, allowed);
+      }
+      else {
+        segment(maxSteps, allowed);
+        int best = 0;
+        for (int k = 1; k <= maxSteps; k++) {
+          double sse = cost_[k * n + n - 1];
+          if (sse == Double.POSITIVE_INFINITY) {
+            break;
+          }
+          if (best == 0) {
+            best = k;
+            continue;
+          }
+          int df1 = 2 * (k - best);
+          int df2 = count - 2 * k - 2;
+          if (df2 < 1) {
+            break;
+          }
+          double sse0 = cost_[best * n + n - 1];
+          double p = 0;
+          if (sse > 0) {
+            double f = ((sse0 - sse)/df1)/(sse/df2);
+            p = 1 - Utils.Fisher(f, df1, df2);
+          }
+          // The new steps are the best of nallowed positions each
+          if (p * Math.pow(nallowed, k - best) < meta.getPvalueThr()) {
+            best = k;
+          }
+        }
+        steps = new int[best];
+        for (int k = best, j = n - 1; k > 0; k--) {
+          j = back_[k * n + j];
+          steps[k - 1] = j;
+        }
+      }
+      result.num_ = count;
+      result.numSteps_ = steps.length;
+      result.sstot_ = getSquareError(0, n - 1);
+      result.steps_ = new int[steps.length];
+      result.means_ = new double[steps.length + 1];
+      double sse = 0;
+      for (int i = 0; i <= steps.length; i++) {
+        int a = (i == 0) ? 0 : steps[i - 1] + 1;
+        int b = (i == steps.length) ? n - 1 : steps[i];
+        result.means_[i] = getMean(a, b);
+        sse += getSquareError(a, b);
+        if (i < steps.length) {
+          result.steps_[i] = steps[i] + meta.getStart();
+        }
+      }
+      result.sse_ = sse;
+      result.setLabel();
+    }
+    catch(Exception e) {
+      // Exception in fitting step.
+      result.numSteps_ = -1;
+    }
+    return result;
+  }
+
+  /* A window that fails to load makes every fit fail */
+  void tryLoad(GeneData gene, AnalysisMetaData meta) {
+    try {
+      load(gene, meta);
+    }
+    catch(Exception e) {
+      num_ = 0;
+    }
+  }
+
+  public Step fitZeroStep(GeneData gene, AnalysisMetaData meta) {
+    tryLoad(gene, meta);
+    return fitZeroStep(meta);
+  }
+
+  public Step fitOneStep(GeneData gene, AnalysisMetaData meta) {
+    tryLoad(gene, meta);
+    return fitOneStep(meta);
+  }
+
+  public Step fitTwoStep(GeneData gene, AnalysisMetaData meta) {
+    tryLoad(gene, meta);
+    return fitTwoStep(meta);
+  }
+
+  public Step fitKStep(GeneData gene, AnalysisMetaData meta) {
+    tryLoad(gene, meta);
+    return fitKStep(meta);
+  }
+
+  /*
+   * Load the gene once and fit all three models, and the KStep model
+   * when meta.getMaxSteps() > 0
+   */
+  public Step[] fitSteps(GeneData gene, AnalysisMetaData meta) {
+    Step[] res = new Step[meta.getMaxSteps() > 0 ? 4 : 3];
+    tryLoad(gene, meta);
+    res[0] = fitZeroStep(meta);
+    res[1] = fitOneStep(meta);
+    res[2] = fitTwoStep(meta);
+    if (res.length > 3) {
+      res[3] = fitKStep(meta);
+    }
+    return res;
+  }
+
+};
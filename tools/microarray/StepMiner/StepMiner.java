@@ -44,12 +44,22 @@ package tools.microarray.StepMiner;
 import tools.microarray.*;
 import tools.microarray.FileWriter.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 import java.text.MessageFormat;
 import tools.graphs.*;
 
 public class StepMiner implements Cloneable {
 
+  /* Number of threads used to fit the steps */
+  public static int NUM_THREADS = 1;
+  /* Seed of the Fdr permutations and genes per Fdr tile */
+  public static long FDR_SEED = 100;
+  public static int FDR_BLOCK = 256;
+  /* Genes fitted together by StepBatch, 0 or 1 fits one by one */
+  public static int BATCH_SIZE = 64;
+
   Data data_;
   boolean fdrAnalysis_;
   int numRandom_;
@@ -58,6 +68,7 @@ public class StepMiner implements Cloneable {
   int analysisType_;  // Analysis type : Only one step vs both steps.
                       //  0 - only one step, 1 - both step, 2 - only two step
                       //  3 - both step - select two step only
+                      //  4 - k steps (KStep)
   boolean stepCentering_; // Whether to perform step centering
   boolean stopAnalysis_;  // Don't fit steps; Can't perform centering;
   boolean deleteGenesInMultipleGroups_;  // delete genes that appear in other
@@ -76,6 +87,10 @@ public class StepMiner implements Cloneable {
 
   int nodeNumber_; // tmp var for GtrAnnotation
 
+  boolean keepState_;      // Save the TwoStep search in state_
+  StepMinerState state_;   // Saved state, null for a fresh start
+  long fdrSeed_;
+
   public StepMiner(Data data) {
     fdrAnalysis_ = false;
     numRandom_ = 100;
@@ -85,6 +100,9 @@ public class StepMiner implements Cloneable {
     stopAnalysis_ = false;
     deleteGenesInMultipleGroups_ = false;
     data_ = data;
+    keepState_ = false;
+    state_ = null;
+    fdrSeed_ = FDR_SEED;
     init_data_();
     fdrStats = "No Fdr";
   }
@@ -100,9 +118,23 @@ public class StepMiner implements Cloneable {
   public void setBothStepAnalysis() { analysisType_ = 1;}
   public void setTwoStepAnalysis() { analysisType_ = 2;}
   public void setSelectTwoStepAnalysis() { analysisType_ = 3;}
+  public void setKStepAnalysis() { analysisType_ = 4;}
   public void setFdrAnalysis(boolean f) { fdrAnalysis_ = f;}
   public void setStepCentering(boolean v) { stepCentering_ = v;}
   public void setGeneNameScheme(GeneNameScheme s){data_.setGeneNameScheme(s);}
+  /*
+   * Start from the state of an earlier run on the same data with fewer
+   * timepoints (null to start afresh); getState() has the state of
+   * this run after performAnalysis().
+   */
+  public void setState(StepMinerState s) {
+    keepState_ = true;
+    state_ = s;
+    if (s != null) {
+      fdrSeed_ = s.getSeed();
+    }
+  }
+  public StepMinerState getState() { return state_; }
   public void setDeleteGenesInMultipleGroups(boolean v) 
   { deleteGenesInMultipleGroups_ = v; }
 
@@ -200,14 +232,23 @@ public class StepMiner implements Cloneable {
     deleted = countLabel(0) + countLabel(1) + countLabel(2) + countLabel(3) + countLabel(4) 
         - countLabelSorted(0) - countLabelSorted(1) - countLabelSorted(2) - countLabelSorted(3) - countLabelSorted(4);
             
-    String res = ("One Step (Up)       = " + countLabelSorted(1)) + "\n" +
-    ("One Step (Down)     = " + countLabelSorted(2)) + "\n" +
-    ("Two Step (Up-Down)  = " + countLabelSorted(3)) + "\n" +
-    ("Two Step (Down-Up)  = " + countLabelSorted(4)) + "\n" +
-    ("Rest                = " + countLabelSorted(0)) + "\n" +
+    int[] counts = new int[5];
+    for (int i =0; i < counts.length; i++) {
+      counts[i] = countLabelSorted(i);
+    }
+    return getStats(counts, deleted, bestSteps_.length, end_ - start_ + 1);
+  }
+
+  /* counts[label] : sorted genes with the label */
+  static String getStats(int[] counts, int deleted, int numGenes,
+      int numArrays) {
+    String res = ("One Step (Up)       = " + counts[1]) + "\n" +
+    ("One Step (Down)     = " + counts[2]) + "\n" +
+    ("Two Step (Up-Down)  = " + counts[3]) + "\n" +
+    ("Two Step (Down-Up)  = " + counts[4]) + "\n" +
+    ("Rest                = " + counts[0]) + "\n" +
     ("Deleted             = " + deleted) + "\n" +
-    ("Total               = " + bestSteps_.length + "x" + 
-                (end_ - start_ + 1)) + "\n";
+    ("Total               = " + numGenes + "x" + numArrays) + "\n";
     return res;
   }
 
@@ -304,27 +345,53 @@ public class StepMiner implements Cloneable {
    */
   public void fitStep(AnalysisMetaData meta) throws StepException {
     System.out.println("Fitting Steps .........");
-    LinkedList<Step> list = new LinkedList<Step>();
-    for (int i =0; i < genes_.length; i++) {
-      GeneData gene = data_.getGeneData(genes_[i]);
-      Step step = BestStep.fitStep(gene, meta);
-      list.add(step);
-      step.setGeneIndex(genes_[i]);
-      // gene.print();
-      // ((BestStep)step).findStep(0).print();
-      // ((BestStep)step).findStep(1).print();
-      // ((BestStep)step).findStep(2).print();
-      // System.exit(0);
-    }
-    steps_ = new Step[list.size()];
-    ListIterator iter = list.listIterator();
-    int i = 0;
-    while (iter.hasNext()) {
-        steps_[i] = (Step) iter.next();
-        i++;
+    steps_ = new Step[genes_.length];
+    int nthreads = Math.min(NUM_THREADS, genes_.length);
+    if (nthreads <= 1) {
+      fitStep(meta, 0, genes_.length);
+    }
+    else {
+      fitStepParallel(meta, nthreads, false, null);
     }
+    findBestSteps();
+  }
+
+  /*
+   * Fit steps updating the saved state_ (see StepMinerState). The
+   * state is only usable with the same start and step search.
+   */
+  void fitStepIncremental(AnalysisMetaData meta) throws StepException {
+    System.out.println("Fitting Steps (incremental) .........");
+    StepMinerState prev = state_;
+    if (prev != null && (prev.getStart() != start_ ||
+          !StepMinerState.isDefaultSearch(meta))) {
+      System.out.println("Saved state does not match : full fit");
+      prev = null;
+    }
+    state_ = new StepMinerState(start_, end_ - start_ + 1, genes_.length,
+        fdrSeed_);
+    steps_ = new Step[genes_.length];
+    if (prev != null) {
+      prev.buildIndex();
+    }
+    int nthreads = Math.min(NUM_THREADS, genes_.length);
+    if (nthreads <= 1) {
+      fitStep(meta, 0, genes_.length, prev, state_);
+    }
+    else {
+      fitStepParallel(meta, nthreads, true, prev);
+    }
+    if (prev != null) {
+      System.out.println("Incremental fit of " + state_.getUpdated() +
+          " of " + genes_.length + " genes");
+    }
+    findBestSteps();
+  }
+
+  void findBestSteps() throws StepException {
     // Copying steps_ to bestSteps_
     bestSteps_ = new Step[steps_.length];
+    int i;
     for (i =0; i < bestSteps_.length ; i++) {
         BestStep s = (BestStep) steps_[i];
         bestSteps_[i] = s.findBestStep(analysisType_);
@@ -333,6 +400,124 @@ public class StepMiner implements Cloneable {
     }
   }
 
+  /*
+   * Fit steps to the genes [start, end) into steps_
+   */
+  void fitStep(AnalysisMetaData meta, int start, int end)
+    throws StepException {
+    fitGenes(meta, start, end, new StepKernel(), new StepBatch(), steps_, 0);
+    for (int i = start; i < end; i++) {
+      steps_[i].setGeneIndex(genes_[i]);
+    }
+  }
+
+  /*
+   * Fit steps to the genes [start, end) into steps_ and state, the
+   * TwoStep from the saved state prev. The state search is per gene, so
+   * BATCH_SIZE is not used.
+   */
+  void fitStep(AnalysisMetaData meta, int start, int end,
+      StepMinerState prev, StepMinerState state) throws StepException {
+    StepKernel kernel = new StepKernel();
+    for (int i = start; i < end; i++) {
+      GeneData gene = data_.getGeneData(genes_[i]);
+      String id = data_.getGenesAt(genes_[i]);
+      steps_[i] = state.fitStep(gene, meta, kernel, prev, i, id);
+      steps_[i].setGeneIndex(genes_[i]);
+    }
+  }
+
+  /*
+   * Fit genes_[start .. end-1] into out[start - offset ..], in blocks
+   * of BATCH_SIZE genes with the batch or one by one with the kernel.
+   */
+  void fitGenes(AnalysisMetaData meta, int start, int end,
+      StepKernel kernel, StepBatch batch, Step[] out, int offset)
+    throws StepException {
+    if (BATCH_SIZE < 2) {
+      for (int i = start; i < end; i++) {
+        GeneData gene = data_.getGeneData(genes_[i]);
+        out[i - offset] = BestStep.fitStep(gene, meta, kernel);
+      }
+      return;
+    }
+    GeneData[] genes = new GeneData[BATCH_SIZE];
+    for (int i = start; i < end; i += BATCH_SIZE) {
+      int size = Math.min(BATCH_SIZE, end - i);
+      for (int j = 0; j < size; j++) {
+        genes[j] = data_.getGeneData(genes_[i + j]);
+      }
+      BestStep[] res = batch.fitSteps(genes, size, meta);
+      System.arraycopy(res, 0, out, i - offset, size);
+    }
+  }
+
+  /*
+   * Genes are split into contiguous blocks, one per task. Each result
+   * goes to its own slot of steps_, so the order is the same as the
+   * serial fit. An incremental fit gives every task its own view of
+   * state_, updated from the saved state prev.
+   */
+  void fitStepParallel(final AnalysisMetaData meta, int nthreads,
+      boolean incremental, final StepMinerState prev)
+    throws StepException {
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    try {
+      int ntasks = Math.min(genes_.length, nthreads * 4);
+      StepMinerState[] states = null;
+      if (incremental) {
+        states = new StepMinerState[ntasks];
+      }
+      List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+      for (int t = 0; t < ntasks; t++) {
+        final int start = (int) ((long) genes_.length * t / ntasks);
+        final int end = (int) ((long) genes_.length * (t + 1) / ntasks);
+        final StepMinerState state;
+        if (states != null) {
+          state = states[t] = new StepMinerState(state_);
+        }
+        else {
+          state = null;
+        }
+        tasks.add(pool.submit(new Callable<Object>() {
+          public Object call() throws StepException {
+            if (state != null) {
+              fitStep(meta, start, end, prev, state);
+            }
+            else {
+              fitStep(meta, start, end);
+            }
+            return null;
+          }
+        }));
+      }
+      for (int t = 0; t < tasks.size(); t++) {
+        tasks.get(t).get();
+      }
+      if (states != null) {
+        for (int t = 0; t < ntasks; t++) {
+          state_.updated_ += states[t].updated_;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      throw new StepException("Interrupted while fitting steps");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof StepException) {
+        throw (StepException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new StepException(cause.toString());
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
   /*
    * All genes are centered around the middle of the steps.
    */
@@ -488,66 +673,125 @@ public class StepMiner implements Cloneable {
    *  Compute FDR using a pvalue threshold
    */
   public void performFdr() throws StepException {
-    performFiltering();
+    try {
+      FdrInfo[] results = fitFdr();
+      double fdr = FdrInfo.getFdr(analysisType_, pvalueThr_, results);
+      fdrStats = FdrInfo.getFdrStats(analysisType_, pvalueThr_, results);
+      System.out.println(fdrStats);
+    }
+    catch(Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /*
+   * Fit the data and numRandom_ - 1 permutations of it
+   *   results[0] is actual analysis
+   *   results[i > 1] is random analysis
+   */
+  FdrInfo[] fitFdr() throws StepException {
     /*
     AnalysisMetaData meta = new AnalysisMetaData(start_, end_, 
         null, null, pvalueThr_);
         */
-    int[] st = data_.getStepSearch();
-    int[] st1 = data_.getStepSearch1();
-    AnalysisMetaData meta = new AnalysisMetaData(start_, end_, 
-        null, st, pvalueThr_);
-    meta.setStepSearch1(st1);
-    fitStep(meta);
-    AnalysisMetaData[] fdrMeta = new AnalysisMetaData[numRandom_];
+    AnalysisMetaData meta = getMetaData();
+    // With a saved state the incremental fit of performSteps is reused;
+    // the permutations are new series and are fitted in full below
+    if (!keepState_ || steps_ == null) {
+      performFiltering();
+      fitStep(meta);
+    }
     FdrInfo[] results = new FdrInfo[numRandom_];
+    results[0] = getFdrInfo();
+    FdrPermutation random = new FdrPermutation(fdrSeed_);
+    AnalysisMetaData[] fdrMeta = new AnalysisMetaData[numRandom_];
+    for (int i = 1; i < results.length; i++) {
+      results[i] = new FdrInfo(new double[genes_.length],
+          new double[genes_.length], new double[genes_.length]);
+      results[i].perm = random.get(i, end_ - start_ + 1);
+      fdrMeta[i] = new AnalysisMetaData(start_, end_,
+          results[i].perm, null, pvalueThr_);
+      fdrMeta[i].setMaxSteps(meta.getMaxSteps());
+      fdrMeta[i].setStepPenalty(meta.getStepPenalty());
+    }
+    int nthreads = Math.max(1, NUM_THREADS);
+    if (nthreads == 1) {
+      fitFdrTiles(fdrMeta, results, new AtomicInteger());
+    }
+    else {
+      fitFdrParallel(fdrMeta, results, nthreads);
+    }
+    return results;
+  }
+
+
+  /*
+   * Random fits are done in tiles of FDR_BLOCK genes x one permutation.
+   * The worker takes the next tile from counter and writes the
+   * p-values at the gene index, so results don't depend on the thread
+   * that computed them. The worker's StepKernel reads the permuted
+   * rows by index mapping, without copying the data.
+   */
+  void fitFdrTiles(AnalysisMetaData[] fdrMeta, FdrInfo[] results,
+      AtomicInteger counter) throws StepException {
+    int nperm = results.length - 1;
+    int nblocks = (genes_.length + FDR_BLOCK - 1) / FDR_BLOCK;
+    StepKernel kernel = new StepKernel();
+    StepBatch batch = new StepBatch();
+    Step[] steps = new Step[FDR_BLOCK];
+    int t;
+    while ((t = counter.getAndIncrement()) < nblocks * nperm) {
+      int block = t / nperm;
+      FdrInfo res = results[1 + t % nperm];
+      AnalysisMetaData meta = fdrMeta[1 + t % nperm];
+      int start = block * FDR_BLOCK;
+      int end = Math.min(genes_.length, (block + 1) * FDR_BLOCK);
+      fitGenes(meta, start, end, kernel, batch, steps, start);
+      for (int i = start; i < end; i++) {
+        BestStep step = (BestStep) steps[i - start];
+        res.p1[i] = step.findStep(1).getPvalue();
+        res.p2[i] = step.findStep(2).getPvalue();
+        res.p12[i] = step.getP12();
+      }
+      if (t % nperm == 0) {
+        System.out.println(end);
+      }
+    }
+  }
+
+  void fitFdrParallel(final AnalysisMetaData[] fdrMeta,
+      final FdrInfo[] results, int nthreads) throws StepException {
+    final AtomicInteger counter = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
     try {
-      Random random = new Random(100);
-      for (int i = 0; i < fdrMeta.length; i++) {
-        // Get Random permutation.
-        bytes_ = new byte[end_ - start_ + 1];
-        random.nextBytes(bytes_);
-        Integer[] order = new Integer[bytes_.length];
-        for (int j =0; j < order.length ; j++) {
-          order[j] = new Integer(j);
-        }
-        class PermComparator implements Comparator<Integer> {
-          public int compare(Integer s1, Integer s2) {
-            return bytes_[s1.intValue()] - bytes_[s2.intValue()];
+      List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+      for (int t = 0; t < nthreads; t++) {
+        tasks.add(pool.submit(new Callable<Object>() {
+          public Object call() throws StepException {
+            fitFdrTiles(fdrMeta, results, counter);
+            return null;
           }
-        };
-        Arrays.sort(order, new PermComparator());
-        int[] perm = new int[bytes_.length];
-        for (int j =0; j < order.length ; j++) {
-          perm[j] = order[j].intValue();
-        }
-
-        fdrMeta[i] = new AnalysisMetaData(start_, end_,
-            perm, null, pvalueThr_);
-        results[i] = getFdrInfo();
+        }));
       }
-      fdrMeta[0] = meta;
-      for (int i = 0; i < genes_.length; i++) {
-        GeneData gene = data_.getGeneData(genes_[i]);
-        // results[0] is actual analysis
-        // results[i > 1] is random analysis
-        for (int j = 0; j < fdrMeta.length; j++) {
-          BestStep step = (BestStep) BestStep.fitStep(gene, fdrMeta[j]);
-          results[j].p1[i] = step.findStep(1).getPvalue();
-          results[j].p2[i] = step.findStep(2).getPvalue();
-          results[j].p12[i] = step.getP12();
-          results[j].perm = fdrMeta[j].getPermutation();
-        }
-        if ( i % 500 == 0) {
-          System.out.println(i);
-        }
+      for (int t = 0; t < tasks.size(); t++) {
+        tasks.get(t).get();
       }
-      double fdr = FdrInfo.getFdr(analysisType_, pvalueThr_, results);
-      fdrStats = FdrInfo.getFdrStats(analysisType_, pvalueThr_, results);
-      System.out.println(fdrStats);
     }
-    catch(Exception e) {
-      e.printStackTrace();
+    catch (InterruptedException e) {
+      throw new StepException("Interrupted while computing Fdr");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof StepException) {
+        throw (StepException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new StepException(cause.toString());
+    }
+    finally {
+      pool.shutdownNow();
     }
   }
 
@@ -803,10 +1047,25 @@ public class StepMiner implements Cloneable {
     int numArrays = data_.getNumArrays();
     int numGenes = sortedGenes_.length;
     int numGeneHeader = 2;
-    int numArrayHeader = data_.getNumArrayHeader() + 5;
+    // KStep : step3 ... stepK after step2, the number of timepoints
+    // between consecutive steps, so that step1 + ... + stepi is the
+    // position of step i like step1 + step2
+    int extra = 0;
+    if (analysisType_ == 4 && KStep.MAX_STEPS > 2) {
+      extra = KStep.MAX_STEPS - 2;
+    }
+    int numArrayHeader = data_.getNumArrayHeader() + 5 + extra;
     GeneData[] data = new GeneData[numGenes+numGeneHeader];
-    Object[] h1Add = {"label", "dir", "step1", "step2", "pvalue"};
-    Object[] h2Add = {"1", "1", "1", "1", "1"};
+    Object[] h1Add = new Object[5 + extra];
+    Object[] h2Add = new Object[5 + extra];
+    h1Add[0] = "label"; h1Add[1] = "dir"; h1Add[2] = "step1";
+    for (int i =0; i <= extra; i++) {
+      h1Add[3 + i] = "step" + (i + 2);
+    }
+    h1Add[4 + extra] = "pvalue";
+    for (int i =0; i < h2Add.length; i++) {
+      h2Add[i] = "1";
+    }
     
     try {
     // Creating headers
@@ -858,7 +1117,16 @@ public class StepMiner implements Cloneable {
         step2 = sortedSteps_[j].getStep(1) - step1 - 2;
       }
       double pvalue = sortedSteps_[j].getPvalue();
-      Object[] obj = { ""+label, ""+dir, ""+step1, ""+step2 , ""+pvalue};
+      Object[] obj = new Object[5 + extra];
+      obj[0] = ""+label; obj[1] = ""+dir; obj[2] = ""+step1; obj[3] = ""+step2;
+      for (int i =0; i < extra; i++) {
+        int stepi = 0;
+        if (sortedSteps_[j].getNumSteps() > i + 2) {
+          stepi = sortedSteps_[j].getStep(i + 2) - sortedSteps_[j].getStep(i + 1);
+        }
+        obj[4 + i] = ""+stepi;
+      }
+      obj[4 + extra] = ""+pvalue;
       data[j+2] = gene.insert(data_.getNumArrayHeader(), obj);
     }
     }
@@ -947,7 +1215,7 @@ public class StepMiner implements Cloneable {
       GeneData gene = data_.getGeneData(sortedGenes_[i]);
       String geneName = data_.getGenesAt(sortedGenes_[i]);
       gene.convertDouble(start_, end_);
-      Object[] geneData = gene.getData();
+      Object[] geneData = gene.toArray();
       Vector<Double> data = new Vector<Double>();
       Vector<Double> time = new Vector<Double>();
       for (int j = start_; j <= end_; j++) {
@@ -957,32 +1225,25 @@ public class StepMiner implements Cloneable {
       plotter.plot(time, data);
       if (step.getNumSteps() > 0) {
         Double x1 = time.get(0);
-        int step1 = step.getStep(0);
-        Double x2 = new Double((time.get(step1 - start_).doubleValue()
-            + time.get(step1 - start_ + 1).doubleValue() )/2);
-        Double m1 = new Double(step.getMean(0));
-        Double m2 = new Double(step.getMean(1));
-        plotter.line(x1, m1, x2, m1);
-        plotter.line(x2, m1, x2, m2);
-        if (step.getNumSteps() > 1) {
-          int step2 = step.getStep(1);
-          Double x3;
-          if ((step2 - start_ + 1) < time.size()) {
-            x3 = new Double((time.get(step2 - start_).doubleValue()
-                  + time.get(step2 - start_ + 1).doubleValue() )/2);
+        Double m1 = new Double(step.getSegmentMean(0));
+        for (int k = 0; k < step.getNumSteps(); k++) {
+          int stepk = step.getStep(k);
+          Double x2;
+          if ((stepk - start_ + 1) < time.size()) {
+            x2 = new Double((time.get(stepk - start_).doubleValue()
+                  + time.get(stepk - start_ + 1).doubleValue() )/2);
           }
           else {
-            x3 = time.get(step2 - start_);
+            x2 = time.get(stepk - start_);
           }
-          plotter.line(x2, m2, x3, m2);
-          plotter.line(x3, m2, x3, m1);
-          Double x4 = time.get(end_ - start_);
-          plotter.line(x3, m1, x4, m1);
-        }
-        else {
-          Double x3 = time.get(end_ - start_);
-          plotter.line(x2, m2, x3, m2);
+          Double m2 = new Double(step.getSegmentMean(k + 1));
+          plotter.line(x1, m1, x2, m1);
+          plotter.line(x2, m1, x2, m2);
+          x1 = x2;
+          m1 = m2;
         }
+        Double x2 = time.get(end_ - start_);
+        plotter.line(x1, m1, x2, m1);
       }
       String label = "None";
       if (step.getNumSteps() == 1) {
@@ -991,6 +1252,9 @@ public class StepMiner implements Cloneable {
       if (step.getNumSteps() == 2) {
         label = "TwoStep";
       }
+      if (step instanceof KStep && step.getNumSteps() > 0) {
+        label = "KStep(" + step.getNumSteps() + ")";
+      }
       plotter.xlabel(label + " , p = " + step.getPvalueStr());
       plotter.ylabel(" Gene expression ");
       plotter.title(geneName);
@@ -1055,8 +1319,8 @@ public class StepMiner implements Cloneable {
   }
 
   void buildDeletedGenes_(HashSet<String> deletedGenes, 
-      HashSet<String> primary, HashSet<String> other1, HashSet<String> other2,
-      HashSet<String> other3, HashSet<String> other4) throws StepException {
+      Set<String> primary, Set<String> other1, Set<String> other2,
+      Set<String> other3, Set<String> other4) throws StepException {
     if (primary == null) {
         return;
     }
@@ -1081,11 +1345,11 @@ public class StepMiner implements Cloneable {
 
   public GeneSet deleteGenesInMultipleGroups() throws StepException {
     GeneSet set = createGeneSets();
-    HashSet<String> up = set.getSet("Up");
-    HashSet<String> down = set.getSet("Down");
-    HashSet<String> updown = set.getSet("UpDown");
-    HashSet<String> downup = set.getSet("DownUp");
-    HashSet<String> rest = set.getSet("Rest");
+    Set<String> up = set.getSet("Up");
+    Set<String> down = set.getSet("Down");
+    Set<String> updown = set.getSet("UpDown");
+    Set<String> downup = set.getSet("DownUp");
+    Set<String> rest = set.getSet("Rest");
     HashSet<String> deletedGenes = new HashSet<String>();
     buildDeletedGenes_(deletedGenes, up, down, updown, downup, rest);
     buildDeletedGenes_(deletedGenes, down, updown, downup, rest, up);
@@ -1230,17 +1494,7 @@ public class StepMiner implements Cloneable {
     if (stopAnalysis_) {
         return;
     }
-    int[] st = data_.getStepSearch();
-    int[] st1 = data_.getStepSearch1();
-    AnalysisMetaData meta = new AnalysisMetaData(start_, end_, 
-        null, st, pvalueThr_);
-    meta.setStepSearch1(st1);
-    meta.print();
-    fitStep(meta);
-    performSorting();
-    if (stepCentering_) {
-      performCentering();
-    }
+    performSteps();
     if (deleteGenesInMultipleGroups_) {
       deleteGenesInMultipleGroups();
     }
@@ -1250,151 +1504,38 @@ public class StepMiner implements Cloneable {
     }
   }
 
-};
-
-class FdrInfo {
-    public double[] p1;
-    public double[] p2;
-    public double[] p12;
-    public int[] perm;
-
-    public FdrInfo(double[] a1, double[] a2, double[] a12) {
-        p1 = a1;
-        p2 = a2;
-        p12 = a12;
-    }
-
-    public int numSignificantSingle(double thr) {
-        int count = 0;
-        if (p1 != null) {
-            for (int i =0; i < p1.length; i++) {
-                if (p1[i] < thr) {
-                    count++;
-                }
-            }
-        }
-        return count;
-    }
-
-    public int numSignificantBoth(double thr) {
-        int count = 0;
-        if (p1 != null && p2 != null && p12 != null) {
-            for (int i =0; i < p1.length; i++) {
-                if (p1[i] < thr && p12[i] > thr) {
-                    count++;
-                }
-                else if (p2[i] < thr) {
-                    count++;
-                }
-            }
-        }
-        return count;
-    }
-
-    public int numSignificantSelectTwo(double thr) {
-        int count = 0;
-        if (p1 != null && p2 != null && p12 != null) {
-            for (int i =0; i < p1.length; i++) {
-                if (p1[i] < thr && p12[i] > thr) {
-                    // count++;
-                    // Don't count
-                }
-                else if (p2[i] < thr) {
-                    count++;
-                }
-            }
-        }
-        return count;
-    }
-
-    public int numSignificantTwo(double thr) {
-        int count = 0;
-        if (p2 != null) {
-            for (int i =0; i < p1.length; i++) {
-                if (p2[i] < thr) {
-                    count++;
-                }
-            }
-        }
-        return count;
+  /*
+   * Analysis range, step positions and the KStep settings
+   */
+  AnalysisMetaData getMetaData() {
+    int[] st = data_.getStepSearch();
+    int[] st1 = data_.getStepSearch1();
+    AnalysisMetaData meta = new AnalysisMetaData(start_, end_, 
+        null, st, pvalueThr_);
+    meta.setStepSearch1(st1);
+    if (analysisType_ == 4) {
+      meta.setMaxSteps(KStep.MAX_STEPS);
+      meta.setStepPenalty(KStep.PENALTY);
     }
+    return meta;
+  }
 
-    public int numSignificant(int type, double thr) {
-        if (type == 0) {
-            return numSignificantSingle(thr);
-        }
-        else if (type == 1) {
-            return numSignificantBoth(thr);
-        }
-        else if (type == 2) {
-            return numSignificantTwo(thr);
-        }
-        else if (type == 3) {
-            return numSignificantSelectTwo(thr);
-        }
-        System.err.println("Undefined analysis type : " + type);
-        return 0;
-    }
-
-    public static double getFdr(int type, double thr, FdrInfo[] results) {
-        int sum = 0;
-        int max = 0;
-        int maxindex = 0;
-        for (int i =0; i < results.length; i++) {
-            int count = results[i].numSignificant(type, thr);
-            sum += count;
-            if (count > max) {
-                max = count;
-                maxindex = i;
-            }
-        }
-        double mean = sum/ (double) results.length;
-        int actual = results[0].numSignificant(type, thr);
-        double fdr = mean/actual;
-        return fdr;
-    }
-
-    public static String getFdrStats(int type, double thr, FdrInfo[] results) {
-        int sum = 0;
-        int max = 0;
-        int maxindex = 0;
-        for (int i =0; i < results.length; i++) {
-            int count = results[i].numSignificant(type, thr);
-            sum += count;
-            if (count > max) {
-                max = count;
-                maxindex = i;
-            }
-        }
-        double mean = sum/ (double) results.length;
-        int actual = results[0].numSignificant(type, thr);
-        double fdr = mean/actual;
-        String res = (" Fdr = " + fdr + " mean = " + mean + " actual = " +
-            actual) + "\n" +
-        ("Permutation that gives the max significant genes ("+
-            max + "):") + "\n";
-        int[] perm = results[maxindex].perm;
-        if (perm == null) {
-          res += ("Original order");
-        }
-        else {
-          for (int i =0; i < perm.length; i++) {
-              res += (perm[i] + " ");
-          }
-        }
-        res += "\n";
-        
-        return res;
+  /*
+   * Fit, sort and center the filtered genes
+   */
+  void performSteps() throws StepException {
+    AnalysisMetaData meta = getMetaData();
+    meta.print();
+    if (keepState_) {
+      fitStepIncremental(meta);
     }
-
-    public void print(int i) {
-        System.out.println("p1 : " + p1[i] + " p2 : " + 
-            p2[i] + " p12 : " + p12[i]);
+    else {
+      fitStep(meta);
     }
-    public void print() {
-      for (int i =0; i < p1.length; i++) {
-        print(i);
-      }
+    performSorting();
+    if (stepCentering_) {
+      performCentering();
     }
-}
+  }
 
+};
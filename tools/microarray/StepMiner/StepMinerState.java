@@ -0,0 +1,437 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.StepMiner;
+
+import java.io.*;
+import java.util.HashMap;
+import tools.microarray.GeneData;
+
+/*
+ * Saved TwoStep search of a StepMiner run, to redo the analysis
+ * cheaply after timepoints are appended to the end of the data.
+ *
+ * For every gene the CANDIDATES best (first, second) step pairs are
+ * kept with a lower bound on the sse of all the other pairs. Appended
+ * points only join the outer segment of an old pair, which never
+ * decreases its sse. So after an append only the kept pairs and the
+ * pairs with the second step in the new points are evaluated, O(1)
+ * each from prefix sums. When the best pair is clear of the bound and
+ * of the runner up, the kernel refits just its first step and gives
+ * the same TwoStep as the full fit; otherwise all the pairs of the
+ * gene are evaluated again. The zero and one step fits are O(num) and
+ * are always redone.
+ *
+ * Only the default step search is supported. The Fdr permutation seed
+ * is saved so that the permutations of the updated run are drawn from
+ * the same streams.
+ */
+public class StepMinerState {
+
+  /* Step pairs kept per gene and the state file of Analyze --state */
+  public static int CANDIDATES = 16;
+  public static String FILE = null;
+
+  static final int MAGIC = 0x534d5354;
+  static final double EPS = 1e-9;
+
+  int start_;        // analysis window
+  int num_;
+  long seed_;        // Fdr permutation seed
+  int size_;         // candidates per gene
+  String[] ids_;
+  int[] count_;      // values, sum and sum of squares of the window,
+  double[] sum_;     //   to detect changes in the old timepoints
+  double[] sumsq_;
+  double[] bound_;   // lower bound of the sse of the other pairs
+  int[] ncand_;
+  int[] first_;      // gene g : pairs g*size_ .. g*size_ + ncand_[g]-1
+  int[] second_;     //   sorted by sse
+  HashMap<String,Integer> index_;
+  int updated_;      // genes fitted from the saved candidates
+
+  // Candidate list of the gene being fitted
+  int[] ci_;
+  int[] cj_;
+  double[] cv_;
+  int nc_;
+  double bound_c_;
+
+  public StepMinerState(int start, int num, int numGenes, long seed) {
+    this(start, num, numGenes, seed, CANDIDATES);
+  }
+
+  StepMinerState(int start, int num, int numGenes, long seed, int size) {
+    start_ = start;
+    num_ = num;
+    seed_ = seed;
+    size_ = Math.max(size, 2);
+    ids_ = new String[numGenes];
+    count_ = new int[numGenes];
+    sum_ = new double[numGenes];
+    sumsq_ = new double[numGenes];
+    bound_ = new double[numGenes];
+    ncand_ = new int[numGenes];
+    first_ = new int[numGenes * size_];
+    second_ = new int[numGenes * size_];
+    ci_ = new int[size_];
+    cj_ = new int[size_];
+    cv_ = new double[size_];
+  }
+
+  /*
+   * State sharing the per-gene arrays of shared, with its own candidate
+   * list, so that threads can fit disjoint genes into the same state.
+   */
+  StepMinerState(StepMinerState shared) {
+    start_ = shared.start_;
+    num_ = shared.num_;
+    seed_ = shared.seed_;
+    size_ = shared.size_;
+    ids_ = shared.ids_;
+    count_ = shared.count_;
+    sum_ = shared.sum_;
+    sumsq_ = shared.sumsq_;
+    bound_ = shared.bound_;
+    ncand_ = shared.ncand_;
+    first_ = shared.first_;
+    second_ = shared.second_;
+    index_ = shared.index_;
+    ci_ = new int[size_];
+    cj_ = new int[size_];
+    cv_ = new double[size_];
+  }
+
+  public int getStart() { return start_; }
+  public int getNum() { return num_; }
+  public long getSeed() { return seed_; }
+  public int getUpdated() { return updated_; }
+
+  /* True if every position of the window is searched for both steps */
+  public static boolean isDefaultSearch(AnalysisMetaData meta) {
+    int[] st = meta.getStepSearch();
+    int[] st1 = meta.getStepSearch1();
+    int num = meta.getEnd() - meta.getStart() + 1;
+    if (st.length != num || st1.length != num) {
+      return false;
+    }
+    for (int i = 0; i < num; i++) {
+      if (st[i] != meta.getStart() + i || st1[i] != i) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Build the id index before threads share this state as prev */
+  void buildIndex() {
+    find(null);
+  }
+
+  int find(String id) {
+    if (index_ == null) {
+      index_ = new HashMap<String,Integer>();
+      for (int i = ids_.length - 1; i >= 0; i--) {
+        if (ids_[i] != null) {
+          index_.put(ids_[i], new Integer(i));
+        }
+      }
+    }
+    Integer res = index_.get(id);
+    if (res == null) {
+      return -1;
+    }
+    return res.intValue();
+  }
+
+  /*
+   * sse of the pair (i, j) : middle segment x_[i+1 .. j] and the outer
+   * segment x_[0 .. i], x_[j+1 .. n-1]. Infinite for an empty middle.
+   */
+  static double pairCost(StepKernel k, int i, int j, int n) {
+    double cm = k.cs_[j + 1] - k.cs_[i + 1];
+    if (cm == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double sm = k.s1_[j + 1] - k.s1_[i + 1];
+    double qm = k.s2_[j + 1] - k.s2_[i + 1];
+    double v = qm - sm * sm / cm;
+    double res = (v > 0) ? v : 0;
+    double co = k.cs_[n] - cm;
+    if (co > 0) {
+      double so = k.s1_[n] - sm;
+      v = k.s2_[n] - qm - so * so / co;
+      if (v > 0) {
+        res += v;
+      }
+    }
+    return res;
+  }
+
+  /*
+   * The fit of the kernel picks the lowest pair among pairs with the
+   * same segments, which differ only by missing values at the ends of
+   * the middle segment.
+   */
+  static boolean isCanonical(StepKernel k, int i, int j) {
+    return (i == 0 || k.mask_[i]) && (j == i + 2 || k.mask_[j]);
+  }
+
+  void add(int i, int j, double v) {
+    if (nc_ == size_) {
+      if (v >= cv_[nc_ - 1]) {
+        bound_c_ = Math.min(bound_c_, v);
+        return;
+      }
+      bound_c_ = Math.min(bound_c_, cv_[nc_ - 1]);
+      nc_--;
+    }
+    int p = nc_;
+    while (p > 0 && cv_[p - 1] > v) {
+      ci_[p] = ci_[p - 1];
+      cj_[p] = cj_[p - 1];
+      cv_[p] = cv_[p - 1];
+      p--;
+    }
+    ci_[p] = i;
+    cj_[p] = j;
+    cv_[p] = v;
+    nc_++;
+  }
+
+  /* Pairs (i, j) with j in [from, n-2] */
+  void addPairs(StepKernel k, int from, int n) {
+    for (int j = Math.max(from, 2); j <= n - 2; j++) {
+      for (int i = 0; i <= j - 2; i++) {
+        if (isCanonical(k, i, j)) {
+          add(i, j, pairCost(k, i, j, n));
+        }
+      }
+    }
+  }
+
+  /* Save the candidate list and the window sums of gene g */
+  void store(StepKernel k, int g, String id) {
+    ids_[g] = id;
+    int count = 0;
+    double sum = 0, sumsq = 0;
+    for (int i = 0; i < k.num_; i++) {
+      if (k.mask_[i]) {
+        count++;
+        sum += k.x_[i];
+        sumsq += k.x_[i] * k.x_[i];
+      }
+    }
+    count_[g] = count;
+    sum_[g] = sum;
+    sumsq_[g] = sumsq;
+    bound_[g] = bound_c_;
+    ncand_[g] = nc_;
+    System.arraycopy(ci_, 0, first_, g * size_, nc_);
+    System.arraycopy(cj_, 0, second_, g * size_, nc_);
+  }
+
+  /* True if x_[0 .. num_-1] of the kernel is the saved window of g */
+  boolean matches(StepKernel k, int g) {
+    if (k.num_ < num_) {
+      return false;
+    }
+    int count = 0;
+    double sum = 0, sumsq = 0;
+    for (int i = 0; i < num_; i++) {
+      if (k.mask_[i]) {
+        count++;
+        sum += k.x_[i];
+        sumsq += k.x_[i] * k.x_[i];
+      }
+    }
+    return count == count_[g] && sum == sum_[g] && sumsq == sumsq_[g];
+  }
+
+  /* True if the best candidate is clear of the others and of sstot */
+  boolean isClear(StepKernel k, int n) {
+    if (nc_ == 0) {
+      return false;
+    }
+    double sstot = k.segmentCost(0, n - 1);
+    double tol = EPS * sstot;
+    double best = cv_[0];
+    return best < sstot - tol && best < bound_c_ - tol &&
+      (nc_ < 2 || best < cv_[1] - tol);
+  }
+
+  /*
+   * TwoStep fit of the window loaded in the kernel, updated from the
+   * saved state prev when possible. The candidates of the gene are
+   * saved as gene g of this state. Without a usable state all the
+   * pairs are evaluated; the kernel then only refits the first step of
+   * a clear best pair and does the full fit otherwise.
+   */
+  Step fitTwoStep(StepKernel k, AnalysisMetaData meta, StepMinerState prev,
+      int g, String id) {
+    int n = k.num_;
+    nc_ = 0;
+    bound_c_ = Double.POSITIVE_INFINITY;
+    int pg = (prev == null || id == null) ? -1 : prev.find(id);
+    boolean clear = false;
+    if (n > 0) {
+      try {
+        k.ensureKStep(n, 0);
+        k.prefixSums();
+        if (pg >= 0 && prev.matches(k, pg)) {
+          bound_c_ = prev.bound_[pg];
+          int base = pg * prev.size_;
+          for (int c = 0; c < prev.ncand_[pg]; c++) {
+            int i = prev.first_[base + c];
+            int j = prev.second_[base + c];
+            add(i, j, pairCost(k, i, j, n));
+          }
+          addPairs(k, prev.num_ - 1, n);
+          clear = isClear(k, n);
+          if (clear) {
+            updated_++;
+          }
+        }
+        if (!clear) {
+          nc_ = 0;
+          bound_c_ = Double.POSITIVE_INFINITY;
+          addPairs(k, 0, n);
+          clear = isClear(k, n);
+        }
+      }
+      catch(StepException e) {
+        // No values : the kernel reports the failure
+        nc_ = 0;
+        clear = false;
+      }
+    }
+    store(k, g, id);
+    if (clear) {
+      return k.fitTwoStep(meta, ci_[0]);
+    }
+    return k.fitTwoStep(meta);
+  }
+
+  /*
+   * Fit all the models of a gene, with the TwoStep from the saved
+   * state prev (may be null).
+   */
+  public Step fitStep(GeneData gene, AnalysisMetaData meta, StepKernel k,
+      StepMinerState prev, int g, String id) {
+    BestStep res = new BestStep();
+    res.fittedSteps_ = new Step[meta.getMaxSteps() > 0 ? 4 : 3];
+    k.tryLoad(gene, meta);
+    res.fittedSteps_[0] = k.fitZeroStep(meta);
+    res.fittedSteps_[1] = k.fitOneStep(meta);
+    res.fittedSteps_[2] = fitTwoStep(k, meta, prev, g, id);
+    if (res.fittedSteps_.length > 3) {
+      res.fittedSteps_[3] = k.fitKStep(meta);
+    }
+    res.meta_ = meta;
+    return res;
+  }
+
+  public void write(String file) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(start_);
+      out.writeInt(num_);
+      out.writeLong(seed_);
+      out.writeInt(size_);
+      out.writeInt(ids_.length);
+      for (int g = 0; g < ids_.length; g++) {
+        out.writeUTF(ids_[g] == null ? "" : ids_[g]);
+        out.writeInt(count_[g]);
+        out.writeDouble(sum_[g]);
+        out.writeDouble(sumsq_[g]);
+        out.writeDouble(bound_[g]);
+        out.writeInt(ncand_[g]);
+        for (int c = 0; c < ncand_[g]; c++) {
+          out.writeInt(first_[g * size_ + c]);
+          out.writeInt(second_[g * size_ + c]);
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  public static StepMinerState read(String file) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a StepMiner state file : " + file);
+      }
+      int start = in.readInt();
+      int num = in.readInt();
+      long seed = in.readLong();
+      int size = in.readInt();
+      int numGenes = in.readInt();
+      StepMinerState res = new StepMinerState(start, num, numGenes, seed,
+          size);
+      for (int g = 0; g < numGenes; g++) {
+        res.ids_[g] = in.readUTF();
+        res.count_[g] = in.readInt();
+        res.sum_[g] = in.readDouble();
+        res.sumsq_[g] = in.readDouble();
+        res.bound_[g] = in.readDouble();
+        res.ncand_[g] = in.readInt();
+        if (res.ncand_[g] < 0 || res.ncand_[g] > res.size_) {
+          throw new IOException("Bad StepMiner state file : " + file);
+        }
+        for (int c = 0; c < res.ncand_[g]; c++) {
+          res.first_[g * res.size_ + c] = in.readInt();
+          res.second_[g * res.size_ + c] = in.readInt();
+        }
+      }
+      return res;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+};
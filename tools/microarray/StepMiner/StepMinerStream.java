@@ -0,0 +1,548 @@
+/*
+
+Copyright (c) 2006, the Board of Trustees of Leland
+Stanford Junior University.
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the
+distribution.
+
+    * Neither the name of Stanford University nor the names of its
+contributors may be used to endorse or promote products derived from
+this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/*
+ Author: Debashis Sahoo <sahoo@stanford.edu>
+ */
+
+
+package tools.microarray.StepMiner;
+
+import tools.microarray.*;
+import tools.microarray.FileReader.PCLFileReader;
+import tools.microarray.FileWriter.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.io.*;
+import java.net.URL;
+
+/*
+ * Out-of-core StepMiner analysis.
+ *
+ * The PCL file is read in chunks of genes. Each chunk is analysed by
+ * its own StepMiner (the steps of a gene don't depend on the other
+ * genes) and its .ano/.pcl rows are spilled to temporary files. Only a
+ * small record per gene is kept in memory: the fields used by
+ * StepMiner.performSorting. At the end the records are sorted with the
+ * same comparison and the rows are copied in that order, so the output
+ * files are the same as the in-memory analysis. Fdr adds up the
+ * significant genes of every permutation across the chunks.
+ */
+public class StepMinerStream {
+
+  /* Genes analysed at a time by Analyze, 0 reads the whole file */
+  public static int CHUNK_SIZE = 0;
+
+  String file_;
+  GeneNameScheme ns_;
+  String range_;
+  int chunkSize_;
+
+  int analysisType_;
+  double pvalueThr_;
+  boolean fdrAnalysis_;
+  boolean stepCentering_;
+
+  Vector<String> anoFiles_;
+  Vector<String> pclFiles_;
+
+  BufferedReader reader_;
+  int numColumns_;      // Columns of the first line
+  int numArrayHeader_;
+  int numGeneHeader_;
+  Vector<String[]> header_;
+  LinkedList<String[]> pending_; // Rows read while searching EWEIGHT
+  int lineno_;
+
+  // Records of the filtered genes in the file order
+  int num_;
+  int[] label_;
+  int[] numSteps_;
+  int[] step0_;
+  int[] step1_;
+  double[] pvalue_;
+  int[] oneLabel_;
+  int[] oneNumSteps_;
+  int[] oneStep0_;
+  double[] onePvalue_;
+
+  RowSpill ano_;
+  RowSpill pcl_;
+  byte[] anoHeader_;
+  byte[] pclHeader_;
+
+  int numArrays_;   // Timepoints in the analysis
+  int[] fdrCounts_;
+  int[][] fdrPerms_;
+
+  static final int NONE = Integer.MIN_VALUE; // Step not available
+
+  public StepMinerStream(String file, GeneNameScheme ns, String range,
+      int chunkSize) {
+    file_ = file;
+    ns_ = ns;
+    range_ = range;
+    chunkSize_ = chunkSize;
+    if (chunkSize_ <= 0) {
+      chunkSize_ = Integer.MAX_VALUE;
+    }
+    analysisType_ = 1;
+    pvalueThr_ = 0.05;
+    fdrAnalysis_ = false;
+    stepCentering_ = true;
+    anoFiles_ = new Vector<String>();
+    pclFiles_ = new Vector<String>();
+  }
+
+  public void setPvalueThr(double p) {pvalueThr_ = p;}
+  public void setOneStepAnalysis() { analysisType_ = 0;}
+  public void setBothStepAnalysis() { analysisType_ = 1;}
+  public void setTwoStepAnalysis() { analysisType_ = 2;}
+  public void setSelectTwoStepAnalysis() { analysisType_ = 3;}
+  public void setKStepAnalysis() { analysisType_ = 4;}
+  public void setFdrAnalysis(boolean f) { fdrAnalysis_ = f;}
+  public void setStepCentering(boolean v) { stepCentering_ = v;}
+
+  /*
+   * Only .ano and .pcl files can be written from the spilled rows.
+   * Returns false for the other outputs.
+   */
+  public boolean addOutputFile(String file) {
+    if (file.endsWith(".ano")) {
+      anoFiles_.add(file);
+      return true;
+    }
+    if (file.endsWith(".pcl")) {
+      pclFiles_.add(file);
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Same layout rules as PCLFileReader.readFile : GWEIGHT ends the
+   * array headers and EWEIGHT (in the first HEADER_SEARCH lines) ends
+   * the gene headers.
+   */
+  void open() throws Exception {
+    System.out.println("Reading file " + file_);
+    InputStream in;
+    if (file_.startsWith("http:")) {
+      in = new URL(file_).openStream();
+    }
+    else {
+      in = new FileInputStream(file_);
+    }
+    if (file_.endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    reader_ = new BufferedReader(new InputStreamReader(in));
+    lineno_ = 0;
+    String record = reader_.readLine();
+    if (record == null) {
+      throw new ArrayException("No header - 1");
+    }
+    String[] result = record.split("\\t", -2);
+    numColumns_ = result.length;
+    numArrayHeader_ = 2;
+    for (int i=0; i < result.length; i++) {
+      if (result[i].equals("GWEIGHT")) {
+        numArrayHeader_ = i+1;
+        break;
+      }
+    }
+    header_ = new Vector<String[]>();
+    header_.add(result);
+    pending_ = new LinkedList<String[]>();
+    numGeneHeader_ = 1;
+    while (lineno_ < PCLFileReader.HEADER_SEARCH) {
+      result = readRow();
+      if (result == null) {
+        break;
+      }
+      pending_.add(result);
+      if (result.length > 0 && result[0] != null &&
+          result[0].equals("EWEIGHT")) {
+        numGeneHeader_ = pending_.size() + 1;
+        header_.addAll(pending_);
+        pending_.clear();
+        break;
+      }
+    }
+    numArrays_ = 0;
+  }
+
+  String[] readRow() throws IOException {
+    String record = reader_.readLine();
+    if (record == null) {
+      return null;
+    }
+    lineno_++;
+    String[] result = record.split("\\t", -2);
+    if (numColumns_ != result.length) {
+      System.out.println(" *Warning* Column mismatch - Orig :" + numColumns_ + 
+          ", New : " + result.length + " at line " + lineno_ );
+      String[] res = new String[numColumns_];
+      for (int i=0; i < Math.min(result.length, numColumns_); i++) {
+        res[i] = result[i];
+      }
+      result = res;
+    }
+    return result;
+  }
+
+  static GeneData getGene(String[] result) {
+    Object[] d = new Object[result.length];
+    for (int j = 0; j < result.length; j++) {
+      d[j] = result[j];
+    }
+    return new GeneData(d);
+  }
+
+  /*
+   * Next chunk of genes with fresh header rows, null at the end of file.
+   * The first chunk is returned even without genes.
+   */
+  Data readChunk(boolean first) throws Exception {
+    Vector<GeneData> rows = new Vector<GeneData>();
+    for (int i =0; i < header_.size(); i++) {
+      rows.add(getGene(header_.get(i)));
+    }
+    int n = 0;
+    while (n < chunkSize_) {
+      String[] result = pending_.poll();
+      if (result == null) {
+        result = readRow();
+      }
+      if (result == null) {
+        break;
+      }
+      rows.add(getGene(result));
+      n++;
+    }
+    if (n == 0 && !first) {
+      return null;
+    }
+    int numArrays = numColumns_;
+    int numArrayHeader = numArrayHeader_;
+    if (numArrays > 2) {
+      numArrays -= numArrayHeader;
+    }
+    else {
+      numArrayHeader = numArrays;
+      numArrays = 0;
+    }
+    Data data = new Data(numArrays, n, numGeneHeader_, numArrayHeader, rows);
+    if (GeneData.FLOAT_STORAGE) {
+      data.toNumeric();
+    }
+    data.setGeneNameScheme(ns_);
+    data.setRange(range_);
+    data.convertDoubles();
+    return data;
+  }
+
+  static int[] resize(int[] a, int len) {
+    int[] res = new int[len];
+    if (a != null) {
+      System.arraycopy(a, 0, res, 0, Math.min(a.length, len));
+    }
+    return res;
+  }
+
+  static long[] resize(long[] a, int len) {
+    long[] res = new long[len];
+    if (a != null) {
+      System.arraycopy(a, 0, res, 0, Math.min(a.length, len));
+    }
+    return res;
+  }
+
+  static double[] resize(double[] a, int len) {
+    double[] res = new double[len];
+    if (a != null) {
+      System.arraycopy(a, 0, res, 0, Math.min(a.length, len));
+    }
+    return res;
+  }
+
+  /* Room for size records */
+  void grow(int size) {
+    if (label_ != null && size <= label_.length) {
+      return;
+    }
+    int len = Math.max(1024, size);
+    if (label_ != null) {
+      len = Math.max(len, label_.length * 2);
+    }
+    label_ = resize(label_, len);
+    numSteps_ = resize(numSteps_, len);
+    step0_ = resize(step0_, len);
+    step1_ = resize(step1_, len);
+    pvalue_ = resize(pvalue_, len);
+    oneLabel_ = resize(oneLabel_, len);
+    oneNumSteps_ = resize(oneNumSteps_, len);
+    oneStep0_ = resize(oneStep0_, len);
+    onePvalue_ = resize(onePvalue_, len);
+  }
+
+  static int getStep(Step step, int segment) {
+    try {
+      return step.getStep(segment);
+    }
+    catch(Exception e) {
+      return NONE;
+    }
+  }
+
+  static double getPvalue(Step step) {
+    try {
+      return step.getPvalue();
+    }
+    catch(Exception e) {
+      return Double.NaN;
+    }
+  }
+
+  /*
+   * Keep the sorting fields of the chunk and spill its rows
+   */
+  void addChunk(StepMiner sm) throws Exception {
+    Data data = sm.data_;
+    int n = sm.genes_.length;
+    grow(num_ + n);
+    for (int i =0; i < n; i++) {
+      Step step = sm.bestSteps_[i];
+      Step one = ((BestStep) sm.steps_[i]).findStep(1);
+      int index = num_ + i;
+      label_[index] = step.getLabel();
+      numSteps_[index] = step.getNumSteps();
+      step0_[index] = getStep(step, 0);
+      step1_[index] = getStep(step, 1);
+      pvalue_[index] = getPvalue(step);
+      oneLabel_[index] = one.getLabel();
+      oneNumSteps_[index] = one.getNumSteps();
+      oneStep0_[index] = getStep(one, 0);
+      onePvalue_[index] = getPvalue(one);
+    }
+    if (anoFiles_.size() > 0) {
+      Data ano = sm.getStepAnnotationData();
+      int last = ano.getNumColumns() - 1;
+      if (anoHeader_ == null) {
+        anoHeader_ = RowSpill.getBytes(ano, 0, ano.getNumGeneHeader(), last);
+      }
+      GeneData[] rows = new GeneData[n];
+      for (int j =0; j < n; j++) {
+        rows[sm.sortedOrder_[j]] = ano.getGeneData(j + 2);
+      }
+      for (int i =0; i < n; i++) {
+        ano_.add(rows[i].subset(0, last));
+      }
+    }
+    if (pclFiles_.size() > 0) {
+      int last = data.getNumColumns() - 1;
+      if (pclHeader_ == null) {
+        pclHeader_ = RowSpill.getBytes(data, 0, data.getNumGeneHeader(), last);
+      }
+      for (int i =0; i < n; i++) {
+        pcl_.add(data.getGeneData(sm.genes_[i]).subset(0, last));
+      }
+    }
+    num_ += n;
+    numArrays_ = sm.end_ - sm.start_ + 1;
+  }
+
+  void addFdr(StepMiner sm) throws StepException {
+    FdrInfo[] results = sm.fitFdr();
+    if (fdrCounts_ == null) {
+      fdrCounts_ = new int[results.length];
+      fdrPerms_ = new int[results.length][];
+    }
+    for (int i =0; i < results.length; i++) {
+      fdrCounts_[i] += results[i].numSignificant(analysisType_, pvalueThr_);
+      fdrPerms_[i] = results[i].perm;
+    }
+  }
+
+  /*
+   * Same order as StepMiner.performSorting on the whole data
+   */
+  int compare(int s1, int s2) {
+    int res = label_[s1] -  label_[s2];
+    if (res != 0 && label_[s1] == 0) {
+      // Label 0 at the end
+      res = label_[s2];
+    }
+    if (res != 0 && label_[s2] == 0) {
+      // Label 0 at the end
+      res = -label_[s1];
+    }
+    if (res == 0) { // Same label : Up/Dwn/Up-Down/Down-Up
+      int num = numSteps_[s1];
+      if (num >= 1) { // Match with one or two step
+        if (step0_[s1] == NONE || step0_[s2] == NONE) {
+          return 1;
+        }
+        res = step0_[s1] - step0_[s2];
+        if (res == 0 && num > 1) {
+          if (step1_[s1] == NONE || step1_[s2] == NONE) {
+            return 1;
+          }
+          res = step1_[s2] - step1_[s1];
+        }
+      }
+      else { // No Match - collect one step order
+        res = oneLabel_[s1] - oneLabel_[s2];
+        if (res == 0) { // Up/Down
+          if (oneNumSteps_[s1] >= 0 && oneNumSteps_[s2] >= 0) {
+            if (oneStep0_[s1] == NONE || oneStep0_[s2] == NONE) {
+              return 1;
+            }
+            res = oneStep0_[s1] - oneStep0_[s2];
+          }
+          if (oneNumSteps_[s2] < 0) {
+            res = -1;
+          }
+          if (oneNumSteps_[s1] < 0) {
+            res = 1;
+          }
+        }
+        if (res == 0) { // Same step position
+          res = 1;
+          if (onePvalue_[s1] < onePvalue_[s2]) {
+            res = -1;
+          }
+        }
+      }
+    }
+    if (res == 0) { // group with same step
+      res = 1;
+      if (pvalue_[s1] < pvalue_[s2]) {
+        res = -1;
+      }
+    }
+    return res;
+  }
+
+  int[] getSortedOrder() {
+    Integer[] order = new Integer[num_];
+    for (int i =0; i < order.length ; i++) {
+        order[i] = new Integer(i);
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer si1, Integer si2) {
+        return StepMinerStream.this.compare(si1.intValue(), si2.intValue());
+      }
+    });
+    int[] res = new int[num_];
+    for (int i =0; i < res.length; i++) {
+      res[i] = order[i].intValue();
+    }
+    return res;
+  }
+
+  public void performAnalysis() throws Exception {
+    open();
+    num_ = 0;
+    grow(0);
+    if (anoFiles_.size() > 0) {
+      ano_ = new RowSpill(".ano");
+    }
+    if (pclFiles_.size() > 0) {
+      pcl_ = new RowSpill(".pcl");
+    }
+    try {
+      Data data;
+      boolean first = true;
+      while ((data = readChunk(first)) != null) {
+        StepMiner sm = new StepMiner(data);
+        sm.analysisType_ = analysisType_;
+        sm.pvalueThr_ = pvalueThr_;
+        sm.stepCentering_ = stepCentering_;
+        sm.setDeleteGenesInMultipleGroups(false);
+        sm.performFiltering();
+        sm.performSteps();
+        addChunk(sm);
+        if (fdrAnalysis_) {
+          addFdr(sm);
+        }
+        first = false;
+      }
+      reader_.close();
+      printStats();
+      writeFiles(getSortedOrder());
+    }
+    finally {
+      if (ano_ != null) {
+        ano_.close();
+      }
+      if (pcl_ != null) {
+        pcl_.close();
+      }
+    }
+  }
+
+  void printStats() {
+    int[] counts = new int[5];
+    for (int i =0; i < num_; i++) {
+      if (label_[i] >= 0 && label_[i] < counts.length) {
+        counts[label_[i]]++;
+      }
+    }
+    System.out.print(StepMiner.getStats(counts, 0, num_, numArrays_));
+    if (fdrAnalysis_) {
+      System.out.println(FdrInfo.getFdrStats(fdrCounts_, fdrPerms_));
+    }
+  }
+
+  void writeFiles(int[] order) throws IOException {
+    for (int i =0; i < anoFiles_.size(); i++) {
+      ano_.writeFile(anoFiles_.get(i), anoHeader_, order, null);
+    }
+    for (int i =0; i < pclFiles_.size(); i++) {
+      String file = pclFiles_.get(i);
+      HashSet<Integer> selectedLabels = 
+        Step.getSelectedLabels(Data.getFileTag(file));
+      boolean[] select = new boolean[num_];
+      for (int j =0; j < num_; j++) {
+        select[j] = selectedLabels.contains(new Integer(label_[j]));
+      }
+      pcl_.writeFile(Data.getFileName(file), pclHeader_, order, select);
+    }
+  }
+
+};
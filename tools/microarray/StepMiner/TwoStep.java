@@ -67,6 +67,9 @@ public class TwoStep extends Step {
     if (num_ < 0) {
         return 1.0;
     }
+    if (hasPvalue_) {
+      return pvalue_;
+    }
     double f = getStatistic();
     double p;
     if (num_ > 5) {
@@ -81,6 +84,11 @@ public class TwoStep extends Step {
 
   public double getCenter() { return (means_[0] + means_[1])/2; }
 
+  /* The last segment returns to the first mean */
+  public double getSegmentMean(int segment) {
+    return means_[segment == 2 ? 0 : segment];
+  }
+
   public HashSet<String> getTags(int numArrayHeader) {
     HashSet<String> set = super.getTags(numArrayHeader);
     set.add("Step");
@@ -105,71 +113,7 @@ public class TwoStep extends Step {
 
   public static Step fitStep(GeneData gene, AnalysisMetaData meta) 
     throws StepException {
-      //meta.print();
-      Step result = new TwoStep();
-      try {
-      double thr = meta.getPvalueThr();
-      Object[] data = gene.getData();
-      meta.sanitize(data);
-      data = meta.permute(data);
-      data = meta.clipData(data);
-      data = meta.concatData(data, data);
-      GeneData stepdata = new GeneData(data);
-      int num = meta.getNum();
-      int[] stepSearch = meta.getStepSearch();
-      int[] stepSearch1 = meta.getStepSearch1();
-      int count = GeneData.getCount(data, 0, num-1);
-      result.num_ = count;
-      double mean = GeneData.getMean(data, 0, num-1);
-      double sstot = GeneData.getSquareError(data, 0, num-1);
-      result.sstot_ = sstot;
-      result.numSteps_ = 2;
-      result.steps_ = new int[2];
-      result.steps_[0] = -1;
-      result.steps_[0] = num - 1;
-      result.means_ = new double[3];
-      result.means_[0] = 0;
-      result.means_[1] = mean;
-      result.means_[2] = 0;
-      result.sse_ = sstot;
-      for (int i = 0; i < stepSearch.length; i++) {
-        int index = stepSearch[i] - meta.getStart();
-        Double entry = (Double) data[index];
-        
-        AnalysisMetaData meta1 = new AnalysisMetaData(index+1, index+num, null, stepSearch1, thr);
-        //meta1.print();
-        //System.out.println(index + " " + num);
-        meta1.intersectStepSearch(index+2, num-2);
-        //meta1.print();
-        Step onestep = OneStep.fitStep(stepdata, meta1);
-        if (onestep.getNumSteps() == 1 && onestep.getSse() < result.sse_) {
-            result.sse_ = onestep.getSse();
-            result.steps_[0] = index;
-            result.steps_[1] = onestep.getStep(0);
-            result.means_[0] = onestep.getMean(1);
-            result.means_[1] = onestep.getMean(0);
-            result.means_[2] = result.means_[0];
-        }
-      }
-
-      result.steps_[0] += meta.getStart();
-      result.steps_[1] += meta.getStart();
-      double m1 = result.means_[0];
-      double m2 = result.means_[1];
-      if (m1 < m2) {
-        result.label_ = 3;
-      }
-      else {
-        result.label_ = 4;
-      }
-      }
-      catch(Exception e) {
-        // Exceptions raised during fitting steps
-        result.numSteps_ = -1;
-      }
-      //System.exit(0);
-      //result.print();
-      return result;
+      return new StepKernel().fitTwoStep(gene, meta);
     }
 
 };
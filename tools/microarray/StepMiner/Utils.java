@@ -136,5 +136,12 @@ public class Utils {
     return res;
   }
 
+  /* Fisher(x[i], m[i], n[i]) for all i into res */
+  public static void Fisher(double[] x, int[] m, int[] n, double[] res) {
+    for (int k = 0; k < x.length; k++) {
+      res[k] = Fisher(x[k], m[k], n[k]);
+    }
+  }
+
 };
 
@@ -64,26 +64,7 @@ public class ZeroStep extends Step {
 
   public static Step fitStep(GeneData gene, AnalysisMetaData meta) 
     throws StepException {
-      Step result = new ZeroStep();
-      try {
-      Object[] data = gene.getData();
-      meta.sanitize(data);
-      data = meta.permute(data);
-      int count = GeneData.getCount(data, meta.getStart(), meta.getEnd());
-      result.num_ = count;
-      result.numSteps_ = 0;
-      double mean = GeneData.getMean(data, meta.getStart(), meta.getEnd());
-      double sstot = GeneData.getSquareError(data, meta.getStart(), meta.getEnd());
-      result.sstot_ = sstot;
-      result.sse_ = sstot;
-      result.means_ = new double[1];
-      result.means_[0] = mean;
-      }
-      catch(Exception e) {
-        // Bad count
-        result.numSteps_ = -1;
-      }
-      return result;
+      return new StepKernel().fitZeroStep(gene, meta);
     }
 
 };